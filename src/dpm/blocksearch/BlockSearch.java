@@ -2,12 +2,12 @@ package dpm.blocksearch;
 
 import java.util.ArrayList;
 
+import dpm.navigation.PolarScan;
 import dpm.repository.Repository;
 import dpm.util.DPMConstants;
-import dpm.util.Motors;
-import dpm.util.Sensors;
-import lejos.robotics.RegulatedMotor;
-import lejos.robotics.SampleProvider;
+import dpm.util.DifferentialDrive;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
 
 /**
  * This class holds the set of routines the robot uses
@@ -22,11 +22,22 @@ public class BlockSearch implements DPMConstants{
 	
 	private static final long	BACKUP_TIME = 800l;
 	
+	private static final int	MAX_DUMP_ATTEMPTS = 4;		//Travels to dump locations tried with each avoidance setting
+	
 	private static final int MOTOR_SCAN_SPEED = 90;
 	
 	private static final int	SCAN_RANGE = 55,
 								COLOR_SENSOR_RANGE = 2,
-								BLUE_BLOCK = 0,
+								LOOK_SAMPLES = 5;			//Samples in each look of the color sensor
+	
+	private static final double	BLOCK_RADIUS = 8.0;			//Radius of the area a wooden block is remembered over, in cm
+	
+	private static final double	MIN_CONFIDENCE = 0.6;		//Confidence of a look above which the robot commits to it
+	
+	/**
+	 * What identify can find under the color sensor
+	 */
+	public static final int		BLUE_BLOCK = 0,
 								WOODEN_BLOCK = 1,
 								FLOOR = 2;
 	
@@ -43,26 +54,23 @@ public class BlockSearch implements DPMConstants{
 	private double[] nextDumpZone;
 	
 	private float[] usData;
+	private final ColorClassifier classifier = ColorClassifier.load();
 	
 	private boolean interrupted, greenZoneSearchable;
 	
-	private RegulatedMotor	leftMotor,
-							rightMotor;
+	private final DifferentialDrive	drive;
 	
-	private final SampleProvider	usSensor;
+	private final SensorChannel	usSensor;
 	
 	/**
 	 * Constructor
 	 */
 	public BlockSearch(){
 		
-		usSensor = Sensors.getSensor(Sensors.US_ACTIVE);
+		usSensor = SensorHub.getChannel(US_ACTIVE);
 		usData = new float[usSensor.sampleSize()];
 		
-		leftMotor = Motors.getMotor(Motors.LEFT);
-		rightMotor = Motors.getMotor(Motors.RIGHT);
-		leftMotor.setAcceleration(WHEEL_MOTOR_ACCELERATION);
-		rightMotor.setAcceleration(WHEEL_MOTOR_ACCELERATION);
+		drive = DifferentialDrive.getInstance();
 		
 		if(Repository.getRole() == BUILDER){
 			goodZone = Repository.getGreenZone();
@@ -358,23 +366,30 @@ public class BlockSearch implements DPMConstants{
 			scanPoint[0] = (region%4)* 3 * SQUARE_SIZE;
 			scanPoint[1] = (region/4)* 3 * SQUARE_SIZE;
 			
-			if(Repository.travelTo(scanPoint[0], scanPoint[1], AVOID_ALL)){
-				Repository.turnTo(currentOrientation);
+			if(Repository.travelPath(new double[][] {scanPoint}, currentOrientation, AVOID_ALL)){
 				
+				//The sensor is swung while the robot turns, and field walls in its scans correct the odometer
+				Repository.startSweep();
+				PolarScan scan = null;
 				while(!interrupted && Repository.getAng() < 180){
-					leftMotor.setSpeed(MOTOR_SCAN_SPEED);
-					rightMotor.setSpeed(-MOTOR_SCAN_SPEED);
-					usSensor.fetchSample(usData, 0);
-					if((int)(usData[0]*100) < SCAN_RANGE){
-						leftMotor.stop(true);
-						rightMotor.stop();
-						currentOrientation = Repository.getAng();
+					drive.spin(-MOTOR_SCAN_SPEED);
+					scan = Repository.awaitScan(scan);
+					//Only look at the readings that point into the region, and not at known wooden blocks
+					int nearest = nearestUnknown(scan, 0, 90);
+					if(nearest >= 0 && scan.getRange(nearest) < SCAN_RANGE){
+						drive.stop(false);
+						//The reading was tagged with the pose and the sensor's angle it was taken at
+						currentOrientation = scan.getWorldAngle(nearest);
+						usData[0] = scan.getRange(nearest)/100;
+						Repository.stopSweep();
 						checkObject(scanPoint);
+						Repository.startSweep();
+						scan = null;
 					}
 				}
+				Repository.stopSweep();
 				
-				leftMotor.stop(true);
-				rightMotor.stop();
+				drive.stop(false);
 			}
 			
 			currentOrientation = 270;
@@ -385,23 +400,30 @@ public class BlockSearch implements DPMConstants{
 			scanPoint[0] = ((region%4)* 3 + 2) * SQUARE_SIZE;
 			scanPoint[1] = ((region/4)* 3 + 2) * SQUARE_SIZE;
 		
-			if(Repository.travelTo(scanPoint[0], scanPoint[1], AVOID_ALL)){
-				Repository.turnTo(currentOrientation);
+			if(Repository.travelPath(new double[][] {scanPoint}, currentOrientation, AVOID_ALL)){
 			
+				//The sensor is swung while the robot turns, and field walls in its scans correct the odometer
+				Repository.startSweep();
+				PolarScan scan = null;
 				while(!interrupted && Repository.getAng() > 180){
-					leftMotor.setSpeed(MOTOR_SCAN_SPEED);
-					rightMotor.setSpeed(-MOTOR_SCAN_SPEED);
-					usSensor.fetchSample(usData, 0);
-					if((int)(usData[0]*100) < SCAN_RANGE){
-						leftMotor.stop(true);
-						rightMotor.stop();
-						currentOrientation = Repository.getAng();
+					drive.spin(-MOTOR_SCAN_SPEED);
+					scan = Repository.awaitScan(scan);
+					//Only look at the readings that point into the region, and not at known wooden blocks
+					int nearest = nearestUnknown(scan, 180, 270);
+					if(nearest >= 0 && scan.getRange(nearest) < SCAN_RANGE){
+						drive.stop(false);
+						//The reading was tagged with the pose and the sensor's angle it was taken at
+						currentOrientation = scan.getWorldAngle(nearest);
+						usData[0] = scan.getRange(nearest)/100;
+						Repository.stopSweep();
 						checkObject(scanPoint);
+						Repository.startSweep();
+						scan = null;
 					}
 				}
+				Repository.stopSweep();
 			
-				leftMotor.stop(true);
-				rightMotor.stop();
+				drive.stop(false);
 			}
 		
 			currentOrientation = 90;
@@ -409,25 +431,49 @@ public class BlockSearch implements DPMConstants{
 		}
 	}
 	
+	/*
+	 * Returns the reading with the shortest range among those whose beam pointed between two
+	 * directions on the field, leaving out those that hit a wooden block already identified
+	 */
+	private static int nearestUnknown(PolarScan scan, double from, double to){
+		double span = ((to - from) % 360.0 + 360.0) % 360.0;
+		int nearest = -1;
+		for(int i=0; i<scan.size(); i++){
+			double angle = scan.getWorldAngle(i),
+					offset = ((angle - from) % 360.0 + 360.0) % 360.0;
+			if(offset > span || (nearest >= 0 && scan.getRange(i) >= scan.getRange(nearest)))
+				continue;
+			double x = scan.getX(i) + scan.getRange(i) * Math.cos(Math.toRadians(angle)),
+					y = scan.getY(i) + scan.getRange(i) * Math.sin(Math.toRadians(angle));
+			if(!Repository.isKnownObstacle(x, y))
+				nearest = i;
+		}
+		return nearest;
+	}
+	
 	/*
 	 * Approaches a detected object, does appropriate interactions with it (i.e if the object is a blue foam block, picks it up),
 	 * and returns to the scan point with the appropriate orientation.
 	 * Checks in a 90 degree cone in front of robot to avoid false positives due to sensor's wide cone 
 	 */
 	private void checkObject(double[] scanPoint){
+		//Where the object was seen, and where its center is
+		double objectX = (usData[0]*100+BLOCK_RADIUS)*Math.cos(Math.toRadians(currentOrientation))+scanPoint[0],
+				objectY = (usData[0]*100+BLOCK_RADIUS)*Math.sin(Math.toRadians(currentOrientation))+scanPoint[1];
+		
 		//Moving towards where object was seen
 		Repository.travelTo((usData[0]*100-COLOR_SENSOR_RANGE)*Math.cos(Math.toRadians(currentOrientation))+scanPoint[0], 
 				(usData[0]*100-COLOR_SENSOR_RANGE)*Math.sin(Math.toRadians(currentOrientation))+scanPoint[1], NO_AVOIDANCE);
 		
-		//Loop to check multiple points around object
+		//Loop to check multiple points around object, only while the looks are inconclusive
 		for(int i=0; i<7; i++){
+			int object = identify();
+			boolean sure = classifier.getConfidence() >= MIN_CONFIDENCE;
 			//Check if object is block, if it is: back up, turn around, grab block, then exit object identification
-			if(identify() == BLUE_BLOCK){
-				leftMotor.setSpeed(-150);
-				rightMotor.setSpeed(-150);
+			if(sure && object == BLUE_BLOCK){
+				drive.straight(-150);
 				try{Thread.sleep(BACKUP_TIME);} catch(InterruptedException e){}
-				leftMotor.stop(true);
-				rightMotor.stop();
+				drive.stop(false);
 				Repository.turnTo(Repository.getAng()+180);
 				Repository.drop();
 				Repository.grab();
@@ -439,17 +485,18 @@ public class BlockSearch implements DPMConstants{
 			}
 			//Check if object is obstacle, if it is: back up, then exit object identification
 			//Also do not scan the next 30 degrees to avoid seeing block again
-			else if (identify() == WOODEN_BLOCK){
+			else if (sure && object == WOODEN_BLOCK){
+				//Remember it, so it is not checked again from this or any other scan point
+				Repository.markObstacle(objectX, objectY, BLOCK_RADIUS);
 				currentOrientation -= 30.0;
 				if(currentOrientation < 0.0)
 					currentOrientation += 360.0;
-				leftMotor.setSpeed(-150);
-				rightMotor.setSpeed(-150);
+				drive.straight(-150);
 				try{Thread.sleep(BACKUP_TIME);} catch(InterruptedException e){}
 				break;
 			}
-			//If no object has been identified, move in a cone of 90 degrees centered around the object and try to identify again
-			else if(i<6){
+			//If the look was inconclusive, move in a cone of 90 degrees centered around the object and try to identify again
+			else if(!sure && i<6){
 				if (i == 3){
 					Repository.turnTo(Repository.getAng()+15*6);
 				}
@@ -457,22 +504,21 @@ public class BlockSearch implements DPMConstants{
 					Repository.turnTo(Repository.getAng()-15);
 				}
 			}
-			//If no object identified for the whole 90 degree sweep, definite false positive: back up, then exit object identification
+			//If the floor was clearly seen, or no object identified for the whole 90 degree sweep, definite false positive:
+			//back up, then exit object identification
 			//Also do not scan the next 10 degrees to avoid seeing the same false positive again
 			else{
 				currentOrientation -= 10.0;
 				if(currentOrientation < 0.0)
 					currentOrientation += 360.0;
-				leftMotor.setSpeed(-150);
-				rightMotor.setSpeed(-150);
+				drive.straight(-150);
 				try{Thread.sleep(BACKUP_TIME);} catch(InterruptedException e){}
+				break;
 			}
 		}
 		//Return to scanning point and keep scanning
-		leftMotor.stop(true);
-		rightMotor.stop();
-		Repository.travelTo(scanPoint[0], scanPoint[1], NO_AVOIDANCE);
-		Repository.turnTo(currentOrientation);	
+		drive.stop(false);
+		Repository.travelPath(new double[][] {scanPoint}, currentOrientation, NO_AVOIDANCE);
 	}
 	
 	/**
@@ -490,15 +536,15 @@ public class BlockSearch implements DPMConstants{
 		Repository.travelTo(x + (distance) * Math.cos(Math.toRadians(angle)), y + (distance) * Math.sin(Math.toRadians(angle)), NO_AVOIDANCE);
 		boolean blockPickedUp = false;
 		
-		//Loop to check multiple points around object
+		//Loop to check multiple points around object, only while the looks are inconclusive
 		for(int i=0; i<7; i++){
+			int object = identify();
+			boolean sure = classifier.getConfidence() >= MIN_CONFIDENCE;
 			//Check if object is block, if it is: back up, turn around, grab block, then exit object identification
-			if(identify() == BLUE_BLOCK){
-				leftMotor.setSpeed(-150);
-				rightMotor.setSpeed(-150);
+			if(sure && object == BLUE_BLOCK){
+				drive.straight(-150);
 				try{Thread.sleep(BACKUP_TIME);} catch(InterruptedException e){}
-				leftMotor.stop(true);
-				rightMotor.stop();
+				drive.stop(false);
 				Repository.turnTo(Repository.getAng()+180);
 				Repository.turnTo(Repository.getAng()+20);
 				Repository.drop();
@@ -512,27 +558,29 @@ public class BlockSearch implements DPMConstants{
 			}
 			//Check if object is obstacle, if it is: back up, then exit object identification
 			//Also do not scan the next 30 degrees to avoid seeing block again
-			else if (identify() == WOODEN_BLOCK){
+			else if (sure && object == WOODEN_BLOCK){
+				Repository.markObstacle(x + (distance+BLOCK_RADIUS) * Math.cos(Math.toRadians(angle)),
+						y + (distance+BLOCK_RADIUS) * Math.sin(Math.toRadians(angle)), BLOCK_RADIUS);
 				Repository.turnTo(angle);
-				leftMotor.setSpeed(-150);
-				rightMotor.setSpeed(-150);
+				drive.straight(-150);
 				try{Thread.sleep(BACKUP_TIME*4);} catch(InterruptedException e){}
 				break;
 			}
-			//If no object has been identified, move in a cone of 90 degrees centered around the object and try to identify again
-			else {
+			//If the look was inconclusive, move in a cone of 90 degrees centered around the object and try to identify again
+			else if(!sure && i<6){
 				if (i == 3){
 					Repository.turnTo(Repository.getAng()+15*6);
 				}
 				else{
 					Repository.turnTo(Repository.getAng()-15);
 				}
-				if(i==6){
-					Repository.turnTo(angle);
-					leftMotor.setSpeed(-150);
-					rightMotor.setSpeed(-150);
-					try{Thread.sleep(BACKUP_TIME*4);} catch(InterruptedException e){}
-				}
+			}
+			//If the floor was clearly seen, or no object identified for the whole sweep: back up, then exit object identification
+			else{
+				Repository.turnTo(angle);
+				drive.straight(-150);
+				try{Thread.sleep(BACKUP_TIME*4);} catch(InterruptedException e){}
+				break;
 			}
 		}
 		
@@ -541,14 +589,21 @@ public class BlockSearch implements DPMConstants{
 	}
 	
 	/*
-	 * Determines if the object under the light sensor is a blue foam block, a wooden block or nothing (the floor).
+	 * Determines if the object under the light sensor is a blue foam block, a wooden block or nothing (the floor),
+	 * from a burst of samples. The confidence of the answer is then available from the classifier.
 	 */
-	private static int identify(){
-		
-		SampleProvider colorSensor = Sensors.getSensor(Sensors.COLOR_BLOCK_ID);
-		float[] colorData = new float[colorSensor.sampleSize()];
-		
-		colorSensor.fetchSample(colorData, 0);
+	private int identify(){
+		return classifier.look(LOOK_SAMPLES);
+	}
+	
+	/**
+	 * Determines if a color sample is a blue foam block, a wooden block or nothing (the floor),
+	 * with hand-tuned rules. Used by the ColorClassifier until it is trained.
+	 * 
+	 * @param colorData the red, green and blue reflections read by the block color sensor
+	 * @return BLUE_BLOCK, WOODEN_BLOCK or FLOOR
+	 */
+	public static int identify(float[] colorData){
 		if (colorData[1] > colorData[0] && 1000*(colorData[0]+colorData[1]+colorData[2]) > 8){
 			return BLUE_BLOCK;
 		}
@@ -565,14 +620,14 @@ public class BlockSearch implements DPMConstants{
 	 */
 	private void goDumpBlocks(){
 		
-		boolean foundDumpLocation;
-		
-		do{
+		//Plan routes to the dump locations first, then follow the obstacles' walls to them,
+		//and drop the blocks where the robot is if it still cannot get to any
+		for(int attempt=0; attempt<2*MAX_DUMP_ATTEMPTS; attempt++){
 			double[] dumpZone = getNextDumpZone();
-			foundDumpLocation = Repository.travelTo(dumpZone[0], dumpZone[1], AVOID_ALL);
-		}while (!foundDumpLocation);
+			if(Repository.travelPath(new double[][] {dumpZone}, 180, (attempt < MAX_DUMP_ATTEMPTS) ? AVOID_PLANNED : AVOID_ALL))
+				break;
+		}
 		
-		Repository.turnTo(180);
 		Repository.drop();
 	}
 	
@@ -0,0 +1,292 @@
+package dpm.blocksearch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import dpm.util.Sensors;
+
+/**
+ * Classifies the samples of the block color sensor as a blue block, a wooden block or the floor.
+ * <br>Each class is modeled as a normal distribution of red, green and blue reflections, trained
+ * from labeled samples. The model is compiled into a lookup table over the quantized RGB space, in
+ * which each cell holds its most likely class and the confidence of that class, so classifying a
+ * sample is a single array access. The reflections are quantized on a square root scale, which
+ * keeps the dark readings of the blue block apart.
+ * <br>A look takes a short burst of samples and lets them vote, weighted by their confidence.
+ * Its confidence is the sum of the confidences of the samples that voted for the winner,
+ * over the number of samples.
+ * <br>The class statistics are persisted to a file and loaded at startup. Without them,
+ * the table is compiled from BlockSearch's hand-tuned rules.
+ * <br>Not thread safe: trained, then used by one thread.
+ *
+ * @author Samuel Genois
+ */
+public class ColorClassifier {
+
+	private static final String	FILE_NAME = "colors.properties";
+	private static final String[]	CLASS_NAMES = {"blue", "wood", "floor"};
+
+	private static final int	CLASSES = CLASS_NAMES.length,
+								FLOOR_CLASS = BlockSearch.FLOOR,	//Wins ties, so an unclear look finds nothing
+								BITS = 5,
+								LEVELS = 1 << BITS,
+								CONFIDENCE_LEVELS = 63;				//Confidence is stored in 6 bits
+	private static final float	MAX_REFLECTION = 0.6f;				//Brighter reflections fall in the last level
+	private static final double	MIN_DEVIATION = 0.004,				//Floor on each channel's spread, so a tight class does not overfit
+								RULE_FLOOR_CONFIDENCE = 0.5;		//Confidence of the floor when the table is compiled from the rules
+
+	private final byte[] table = new byte[LEVELS * LEVELS * LEVELS];
+	private final float[] rgb = new float[3];
+	private final int[] votes = new int[CLASSES];
+
+	//Per class: sample count, then the sums and the sums of squares of each channel
+	private final int[] counts = new int[CLASSES];
+	private final double[][] sums = new double[CLASSES][3], squares = new double[CLASSES][3];
+
+	private double confidence;
+
+	private ColorClassifier(){
+	}
+
+	/**
+	 * Loads the class statistics from the file and compiles the table. If there is no file,
+	 * or it cannot be read, compiles the table from BlockSearch's rules.
+	 *
+	 * @return the loaded classifier
+	 */
+	public static ColorClassifier load(){
+		ColorClassifier classifier = new ColorClassifier();
+		File file = new File(FILE_NAME);
+		if(!file.exists()){
+			classifier.compileRules();
+			return classifier;
+		}
+
+		Properties properties = new Properties();
+		InputStream in = null;
+		try{
+			in = new FileInputStream(file);
+			properties.load(in);
+			for(int c=0; c<CLASSES; c++){
+				classifier.counts[c] = Integer.parseInt(properties.getProperty(CLASS_NAMES[c] + ".count", "0"));
+				for(int i=0; i<3; i++){
+					classifier.sums[c][i] = Double.parseDouble(properties.getProperty(CLASS_NAMES[c] + ".sum" + i, "0"));
+					classifier.squares[c][i] = Double.parseDouble(properties.getProperty(CLASS_NAMES[c] + ".square" + i, "0"));
+				}
+			}
+			classifier.compile();
+		} catch(IOException | NumberFormatException e){
+			classifier = new ColorClassifier();
+			classifier.compileRules();
+		} finally{
+			if(in != null)
+				try{in.close();}catch(IOException e){}
+		}
+		return classifier;
+	}
+
+	/**
+	 * Writes the class statistics to the file
+	 */
+	public void save(){
+		Properties properties = new Properties();
+		for(int c=0; c<CLASSES; c++){
+			properties.setProperty(CLASS_NAMES[c] + ".count", Integer.toString(counts[c]));
+			for(int i=0; i<3; i++){
+				properties.setProperty(CLASS_NAMES[c] + ".sum" + i, Double.toString(sums[c][i]));
+				properties.setProperty(CLASS_NAMES[c] + ".square" + i, Double.toString(squares[c][i]));
+			}
+		}
+
+		OutputStream out = null;
+		try{
+			out = new FileOutputStream(FILE_NAME);
+			properties.store(out, "Block color sensor classes, trained from labeled samples");
+		} catch(IOException e){
+		} finally{
+			if(out != null)
+				try{out.close();}catch(IOException e){}
+		}
+	}
+
+	/**
+	 * Adds a labeled sample to the training set. The table only changes once compile is called.
+	 *
+	 * @param label BlockSearch.BLUE_BLOCK, WOODEN_BLOCK or FLOOR
+	 * @param rgb the red, green and blue reflections of the sample
+	 */
+	public void train(int label, float[] rgb){
+		counts[label]++;
+		for(int i=0; i<3; i++){
+			sums[label][i] += rgb[i];
+			squares[label][i] += rgb[i] * rgb[i];
+		}
+	}
+
+	/**
+	 * Forgets the training set
+	 */
+	public void clear(){
+		for(int c=0; c<CLASSES; c++){
+			counts[c] = 0;
+			for(int i=0; i<3; i++)
+				sums[c][i] = squares[c][i] = 0;
+		}
+	}
+
+	/**
+	 * Compiles the table from the training set. A class without samples is never chosen.
+	 * If no class has samples, compiles the table from BlockSearch's rules.
+	 */
+	public void compile(){
+		double[][] mean = new double[CLASSES][3], deviation = new double[CLASSES][3];
+		boolean trained = false;
+		for(int c=0; c<CLASSES; c++){
+			if(counts[c] == 0)
+				continue;
+			trained = true;
+			for(int i=0; i<3; i++){
+				mean[c][i] = sums[c][i] / counts[c];
+				double variance = squares[c][i] / counts[c] - mean[c][i] * mean[c][i];
+				deviation[c][i] = Math.max(MIN_DEVIATION, Math.sqrt(Math.max(0, variance)));
+			}
+		}
+		if(!trained){
+			compileRules();
+			return;
+		}
+
+		double[] logLikelihood = new double[CLASSES];
+		for(int cell=0; cell<table.length; cell++){
+			center(cell, rgb);
+			int best = -1;
+			for(int c=0; c<CLASSES; c++){
+				if(counts[c] == 0){
+					logLikelihood[c] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+				double sum = 0;
+				for(int i=0; i<3; i++){
+					double z = (rgb[i] - mean[c][i]) / deviation[c][i];
+					sum -= z * z / 2 + Math.log(deviation[c][i]);
+				}
+				logLikelihood[c] = sum;
+				if(best < 0 || sum > logLikelihood[best])
+					best = c;
+			}
+			//Posterior of the best class, with equal priors
+			double total = 0;
+			for(int c=0; c<CLASSES; c++)
+				total += Math.exp(logLikelihood[c] - logLikelihood[best]);
+			table[cell] = entry(best, 1 / total);
+		}
+	}
+
+	/*
+	 * Compiles the table from BlockSearch's rules. A block the rules recognize is trusted fully, but
+	 * the floor is only what is left when they recognize nothing, so it is given a confidence below
+	 * what BlockSearch commits to, and the robot keeps looking around the object as it always did.
+	 */
+	private void compileRules(){
+		for(int cell=0; cell<table.length; cell++){
+			center(cell, rgb);
+			int label = BlockSearch.identify(rgb);
+			table[cell] = entry(label, (label == FLOOR_CLASS) ? RULE_FLOOR_CONFIDENCE : 1.0);
+		}
+	}
+
+	/**
+	 * Classifies one sample
+	 *
+	 * @param rgb the red, green and blue reflections read by the block color sensor
+	 * @return BlockSearch.BLUE_BLOCK, WOODEN_BLOCK or FLOOR
+	 */
+	public int classify(float[] rgb){
+		return table[cell(rgb)] & 0x3;
+	}
+
+	/**
+	 * Returns the confidence of the classification of one sample
+	 *
+	 * @param rgb the red, green and blue reflections read by the block color sensor
+	 * @return the confidence, between 0 and 1
+	 */
+	public double confidence(float[] rgb){
+		return ((table[cell(rgb)] & 0xff) >> 2) / (double)CONFIDENCE_LEVELS;
+	}
+
+	/**
+	 * Takes a burst of new samples from the block color sensor and returns the class
+	 * that gets the most votes, weighted by their confidence. The confidence of the
+	 * result is then available from getConfidence.
+	 *
+	 * @param samples the number of samples to take
+	 * @return BlockSearch.BLUE_BLOCK, WOODEN_BLOCK or FLOOR
+	 */
+	public int look(int samples){
+		for(int c=0; c<CLASSES; c++)
+			votes[c] = 0;
+		for(int i=0; i<samples; i++){
+			Sensors.nextRgb(rgb);
+			int entry = table[cell(rgb)] & 0xff;
+			votes[entry & 0x3] += entry >> 2;
+		}
+		int best = FLOOR_CLASS;
+		for(int c=0; c<CLASSES; c++){
+			if(votes[c] > votes[best])
+				best = c;
+		}
+		confidence = (samples == 0) ? 0.0 : (double)votes[best] / (samples * CONFIDENCE_LEVELS);
+		return best;
+	}
+
+	/**
+	 * Returns the confidence of the latest look: the sum of the confidences of the samples
+	 * that voted for its class, over the number of samples
+	 *
+	 * @return the confidence, between 0 and 1
+	 */
+	public double getConfidence(){
+		return confidence;
+	}
+
+	/*
+	 * Returns the cell of the table a sample falls in
+	 */
+	private static int cell(float[] rgb){
+		return (level(rgb[0]) << (2 * BITS)) | (level(rgb[1]) << BITS) | level(rgb[2]);
+	}
+
+	/*
+	 * Quantizes a reflection, on a square root scale
+	 */
+	private static int level(float reflection){
+		if(reflection <= 0)
+			return 0;
+		int level = (int)(Math.sqrt(reflection / MAX_REFLECTION) * LEVELS);
+		return Math.min(level, LEVELS - 1);
+	}
+
+	/*
+	 * Puts the reflections at the center of a cell into an array
+	 */
+	private static void center(int cell, float[] rgb){
+		for(int i=2; i>=0; i--){
+			double root = ((cell & (LEVELS - 1)) + 0.5) / LEVELS;
+			rgb[i] = (float)(root * root * MAX_REFLECTION);
+			cell >>= BITS;
+		}
+	}
+
+	/*
+	 * Packs a class and its confidence into a table entry
+	 */
+	private static byte entry(int label, double confidence){
+		return (byte)(label | ((int)Math.round(confidence * CONFIDENCE_LEVELS) << 2));
+	}
+}
@@ -2,13 +2,15 @@ package dpm.claw;
 
 import dpm.repository.Repository;
 import dpm.util.DPMConstants;
+import dpm.util.MotorScript;
 import dpm.util.Motors;
 import lejos.robotics.RegulatedMotor;
-import lejos.utility.Delay;
 
 /**
 * The claw of the robot. Can grab and drop stacks of styrofoam blocks.
 * <br>Grabbed blocks are kept at least a block's height above floor level.
+* <br>Each sequence of moves runs as one MotorScript, so when the claw's motors are
+* reached through a RemoteLink, it costs a single round trip to the slave brick.
 * @author Will Liang
 */
 public class Claw implements DPMConstants{
@@ -40,14 +42,16 @@ public class Claw implements DPMConstants{
     
     public void grab(){
 		if(blockCount == 0){
-			gripclawMotor.rotate(gripStrength);
-			Delay.msDelay(10);
-			liftMotor.rotate(height*3);
+			new MotorScript().rotate(gripclawMotor, gripStrength)
+							.delay(10)
+							.rotate(liftMotor, height*3)
+							.run();
 			
 		}else if(blockCount < CAPACITY){
-			gripclawMotor.rotate(gripStrength);
-			Delay.msDelay(10);
-			liftMotor.rotate(height*3);
+			new MotorScript().rotate(gripclawMotor, gripStrength)
+							.delay(10)
+							.rotate(liftMotor, height*3)
+							.run();
 			
 		}
 		blockCount++;
@@ -66,17 +70,20 @@ public class Claw implements DPMConstants{
 		Repository.turnTo(Repository.getAng()+15);
 		
 		if(blockCount == 0){
-			gripclawMotor.rotate(-gripStrength);
-			liftMotor.rotate(-height*3);
+			new MotorScript().rotate(gripclawMotor, -gripStrength)
+							.rotate(liftMotor, -height*3)
+							.run();
 			
 		}else if(blockCount < CAPACITY && blockCount != 0){
-			liftMotor.rotate(-height*4/3);
-			gripclawMotor.rotate(-gripStrength);
-			liftMotor.rotate(-height*3/2);
+			new MotorScript().rotate(liftMotor, -height*4/3)
+							.rotate(gripclawMotor, -gripStrength)
+							.rotate(liftMotor, -height*3/2)
+							.run();
 			
 		}else{ //when it's fully loaded with 3 blocks and ready to drop it in the GZ.
-			liftMotor.rotate(-height*5/3);
-			gripclawMotor.rotate(-gripStrength);
+			new MotorScript().rotate(liftMotor, -height*5/3)
+							.rotate(gripclawMotor, -gripStrength)
+							.run();
 			blockCount = 0;
 		}
 	}
@@ -86,8 +93,9 @@ public class Claw implements DPMConstants{
      * Resets the claw back to the initial position
      */
     public void reset(){
-    	 liftMotor.rotate(height*3);
-    	 gripclawMotor.rotate(gripStrength);
+    	 new MotorScript().rotate(liftMotor, height*3)
+    	 				.rotate(gripclawMotor, gripStrength)
+    	 				.run();
     }
     
     /**
@@ -14,6 +14,8 @@ public class Finalization implements DPMConstants{
 	
 	private static final double FINAL_POSITON_OFFSET = 10;
 	
+	private static final int MAX_ATTEMPTS = 4;		//Travels tried with each avoidance setting before giving up on a destination
+	
 	/**
 	 * Constructor
 	 */
@@ -29,6 +31,7 @@ public class Finalization implements DPMConstants{
 	 * <br> 	-> navigate to the appropriate zone (green or red)
 	 * <br> 	-> deposit the blocks
 	 * <br> - Navigate to the starting corner
+	 * <br> - Save the wheel calibration refined during the round
 	 * <br> - Request the termination of the program
 	 * 
 	 */
@@ -39,43 +42,44 @@ public class Finalization implements DPMConstants{
 		
 		if(!Repository.clawIsEmpty()){
 			
-			boolean foundDumpLocation;
-			
-			do{
+			//Plan routes to the dump locations first, then follow the obstacles' walls to them,
+			//and drop the blocks where the robot is if it still cannot get to any
+			for(int attempt=0; attempt<2*MAX_ATTEMPTS; attempt++){
 				double[] dumpZone = Repository.getNextDumpZone();
-				foundDumpLocation = Repository.travelTo(dumpZone[0], dumpZone[1], AVOID_ALL);
-			}while (!foundDumpLocation);
+				if(Repository.travelPath(new double[][] {dumpZone}, 180, (attempt < MAX_ATTEMPTS) ? AVOID_PLANNED : AVOID_ALL))
+					break;
+			}
 			
-			Repository.turnTo(180);
 			Repository.drop();
 		}
 		
-		boolean destinationReached;
-		
 		switch(Repository.getStartZone()){
 			
 			case LOWER_RIGHT:
-				do{
-					destinationReached = Repository.travelTo(10*SQUARE_SIZE + FINAL_POSITON_OFFSET, -FINAL_POSITON_OFFSET, AVOID_ALL);
-				}while (!destinationReached);
+				returnTo(10*SQUARE_SIZE + FINAL_POSITON_OFFSET, -FINAL_POSITON_OFFSET);
 				break;
 			case UPPER_LEFT:
-				do{
-					destinationReached = Repository.travelTo(-FINAL_POSITON_OFFSET, 10*SQUARE_SIZE + FINAL_POSITON_OFFSET, AVOID_ALL);
-				}while (!destinationReached);
+				returnTo(-FINAL_POSITON_OFFSET, 10*SQUARE_SIZE + FINAL_POSITON_OFFSET);
 				break;
 			case UPPER_RIGHT:
-				do{
-					destinationReached = Repository.travelTo(10*SQUARE_SIZE + FINAL_POSITON_OFFSET, 10*SQUARE_SIZE + FINAL_POSITON_OFFSET, AVOID_ALL);
-				}while (!destinationReached);
+				returnTo(10*SQUARE_SIZE + FINAL_POSITON_OFFSET, 10*SQUARE_SIZE + FINAL_POSITON_OFFSET);
 				break;
 			case LOWER_LEFT:
 			default:
-				do{
-					destinationReached = Repository.travelTo(-FINAL_POSITON_OFFSET, -FINAL_POSITON_OFFSET, AVOID_ALL);
-				}while (!destinationReached);
+				returnTo(-FINAL_POSITON_OFFSET, -FINAL_POSITON_OFFSET);
 		}
+		Repository.saveCalibration();
 		System.exit(0);
 	}
+	
+	/*
+	 * Travels to the starting corner along planned routes, then following the obstacles' walls,
+	 * MAX_ATTEMPTS times each at most, and stays where it is if it still cannot get there
+	 */
+	private void returnTo(double x, double y){
+		for(int attempt=0; attempt<2*MAX_ATTEMPTS; attempt++)
+			if(Repository.travelTo(x, y, (attempt < MAX_ATTEMPTS) ? AVOID_PLANNED : AVOID_ALL))
+				return;
+	}
 
 }
\ No newline at end of file
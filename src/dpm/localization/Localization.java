@@ -1,11 +1,10 @@
 package dpm.localization;
 
 import dpm.repository.Repository;
-import dpm.util.Motors;
-import dpm.util.Sensors;
+import dpm.util.DifferentialDrive;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
 import lejos.hardware.Sound;
-import lejos.robotics.RegulatedMotor;
-import lejos.robotics.SampleProvider;
 import lejos.utility.Delay;
 import dpm.util.DPMConstants;
 
@@ -16,8 +15,8 @@ import dpm.util.DPMConstants;
  */
 public class Localization implements DPMConstants{
 	private static int motorRotate = 100;
-	private RegulatedMotor leftMotor, rightMotor;
-	private SampleProvider usSensor;
+	private DifferentialDrive drive;
+	private SensorChannel usSensor;
 	private float[] usData;
 	private double wallDist = 55;
 	private double angleA, angleB;
@@ -28,9 +27,8 @@ public class Localization implements DPMConstants{
 	 * Constructor
 	 */
 	public Localization() {
-		this.leftMotor = Motors.getMotor(Motors.LEFT);
-		this.rightMotor = Motors.getMotor(Motors.RIGHT);
-		this.usSensor = Sensors.getSensor(Sensors.US_ACTIVE);
+		this.drive = DifferentialDrive.getInstance();
+		this.usSensor = SensorHub.getChannel(US_ACTIVE);
 		this.usData = new float[usSensor.sampleSize()];
 	}
 	
@@ -41,7 +39,6 @@ public class Localization implements DPMConstants{
 	 * Finally, travels to (0,0) and turns facing north
 	 */
 	public void doLocalization() {
-		Repository.setRT(2.14,12.9);
 		boolean startWithWall = getFilteredData() <= wallDist;
         angleA = angleB = 0;
 		Sound.setVolume(20);
@@ -69,8 +66,7 @@ public class Localization implements DPMConstants{
         
         // Move on to the other side
         if (startWithWall){
-        	/*leftMotor.stop(true);
-        	rightMotor.stop();
+        	/*drive.stop(false);
         	Delay.msDelay(100);*/
         	cwRotation(); 
         }
@@ -109,8 +105,7 @@ public class Localization implements DPMConstants{
         // the wall and the tile, which will give us the correctedX
         
         Repository.turnTo(180);
-        leftMotor.stop(true);
-        rightMotor.stop();
+        drive.stop(false);
         distanceA = getFilteredData();
         correctedX = distanceA + sensorDist - 30.48;
         
@@ -123,8 +118,7 @@ public class Localization implements DPMConstants{
         // correctedY when we subtract the distance from the tile distance
 
 		Repository.turnTo(270);
-		leftMotor.stop(true);
-        rightMotor.stop();
+		drive.stop(false);
         distanceB = getFilteredData();
 		correctedY = distanceB + sensorDist - 30.48;
         newPositions = new double[] { Repository.getX(), correctedY, Repository.getAng() };
@@ -133,10 +127,8 @@ public class Localization implements DPMConstants{
         
         // Travel to the origin, and then face North
 
-		Repository.travelTo(0, 0, NO_AVOIDANCE);
-		Repository.turnTo(90);
+		Repository.travelPath(new double[][] {{0, 0}}, 90, NO_AVOIDANCE);
 		Sound.beep();	//Indicate end of localization
-		Repository.setRT(2.1, 12.3); //Set the radius and track to navigation-expected values
 		Delay.msDelay(3000); // Delay
 		switch(Repository.getStartZone()){
 			case LOWER_RIGHT:
@@ -171,27 +163,23 @@ public class Localization implements DPMConstants{
 	}
 	
 	/**
-	 * Get ultrasonic sensor distance reading
+	 * Get ultrasonic sensor distance reading, and offer it to the odometer as a field wall,
+	 * so the walls seen while localizing are fused and narrow the pose's uncertainty
 	 * @return US sensor distance reading normalized to cm
 	 */
 	public float getFilteredData() {
 
-		usSensor.fetchSample(usData, 0);
+		long time = usSensor.awaitNext(usData, US_TIMEOUT);
 		float distance= usData[0]*100;		
+		Repository.observeWallRange(distance, 0, time); //The sensor faces forward while localizing
 		return distance;
 	}
 
 	private void cwRotation(){
-		leftMotor.setSpeed(motorRotate);
-		rightMotor.setSpeed(motorRotate);
-		leftMotor.forward();
-		rightMotor.backward();
+		drive.spin(-motorRotate);
 	}
 
 	private void ccwRotation(){
-		leftMotor.setSpeed(motorRotate);
-		rightMotor.setSpeed(motorRotate);
-		leftMotor.backward();
-		rightMotor.forward();
+		drive.spin(motorRotate);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package dpm.navigation;
+
+/**
+ * Keeps track of how much time Navigation's control loops spend working
+ * versus blocked waiting for the odometer, so the CPU a control loop takes
+ * away from the other threads can be measured. With Navigation polling (see setPolling),
+ * the loops never wait, as before they blocked on the odometer, so both can be compared.
+ *
+ * @author Samuel Genois
+ *
+ */
+public class LoopStats {
+
+	private long iterations, busyTime, waitTime;
+	private long lastMark;
+
+	/**
+	 * Clears all of the statistics
+	 */
+	public synchronized void reset(){
+		iterations = busyTime = waitTime = 0;
+		lastMark = 0;
+	}
+
+	/*
+	 * Marks the start of a wait. The time since the previous mark counts as busy.
+	 */
+	synchronized void startWait(){
+		long now = System.nanoTime();
+		if(lastMark != 0)
+			busyTime += now - lastMark;
+		lastMark = now;
+		iterations++;
+	}
+
+	/*
+	 * Marks the end of a wait. The time since the previous mark counts as waiting.
+	 */
+	synchronized void endWait(){
+		long now = System.nanoTime();
+		waitTime += now - lastMark;
+		lastMark = now;
+	}
+
+	/*
+	 * Marks the end of a control loop. The time since the previous mark counts as busy.
+	 */
+	synchronized void endLoop(){
+		if(lastMark != 0)
+			busyTime += System.nanoTime() - lastMark;
+		lastMark = 0;
+	}
+
+	/**
+	 * Returns the number of control loop iterations
+	 * @return the number of control loop iterations
+	 */
+	public synchronized long getIterations(){
+		return iterations;
+	}
+
+	/**
+	 * Returns the time spent working in the control loops
+	 * @return the busy time, in ms
+	 */
+	public synchronized long getBusyTime(){
+		return busyTime / 1000000l;
+	}
+
+	/**
+	 * Returns the time spent blocked waiting for the odometer
+	 * @return the waiting time, in ms
+	 */
+	public synchronized long getWaitTime(){
+		return waitTime / 1000000l;
+	}
+
+	/**
+	 * Returns the fraction of the control loops' time spent working
+	 * @return the busy fraction, between 0 and 1
+	 */
+	public synchronized double getBusyFraction(){
+		return (busyTime + waitTime == 0) ? 0.0 : (double)busyTime / (busyTime + waitTime);
+	}
+}
@@ -0,0 +1,125 @@
+package dpm.navigation;
+
+import dpm.repository.Repository;
+
+/**
+ * A trapezoidal velocity profile for a rotation in place or a straight segment.
+ * <br>The wheels' regulators already ramp their speed up and down at the configured
+ * acceleration, so the profile only has to say how fast the wheels may still turn with
+ * the distance that is left: as fast as allows them to stop on the target when decelerating
+ * at the profile's acceleration, capped by the maximum speed. The distance the robot covers
+ * before the next update, one control period later, is counted as already covered. Close to
+ * the target, the speed never goes below the minimum speed, so the robot still gets there
+ * against the wheels' friction.
+ * <br>Distances and speeds are in wheel degrees; the conversions from the robot's
+ * distances and turns use the nominal wheel radius and track.
+ *
+ * @author Samuel Genois
+ */
+public class MotionProfile {
+
+	private final int maxSpeed, minSpeed;
+	private final double acceleration, period;
+	private int speed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSpeed the cruising speed, in degrees/s
+	 * @param minSpeed the speed the wheels reach the target at, in degrees/s
+	 * @param acceleration the deceleration the profile plans for, in degrees/s/s. It should be
+	 * lower than the wheels' acceleration, which the regulators cannot exceed.
+	 * @param period the time between two updates of the speed, in ms
+	 */
+	public MotionProfile(int maxSpeed, int minSpeed, double acceleration, long period){
+		this.maxSpeed = maxSpeed;
+		this.minSpeed = minSpeed;
+		this.acceleration = acceleration;
+		this.period = period / 1000.0;
+	}
+
+	/**
+	 * Starts a new motion, from rest
+	 */
+	public void start(){
+		speed = 0;
+	}
+
+	/**
+	 * Returns the speed the wheels should turn at until the next update
+	 *
+	 * @param remaining the distance left to the target, in wheel degrees
+	 * @return the speed, in degrees/s, or 0 if the target is reached
+	 */
+	public int next(double remaining){
+		//The wheels keep turning at the current speed until the next update
+		double left = remaining - speed * period;
+		if(remaining <= 0)
+			speed = 0;
+		else if(left <= 0)
+			speed = minSpeed;
+		else
+			speed = (int)Math.max(minSpeed, Math.min(maxSpeed, Math.sqrt(2 * acceleration * left)));
+		return speed;
+	}
+
+	/**
+	 * Returns the shortest time the wheels can cover a distance in, from rest to rest,
+	 * following the profile with updates infinitely often
+	 *
+	 * @param distance the distance, in wheel degrees
+	 * @return the time, in ms
+	 */
+	public double time(double distance){
+		distance = Math.abs(distance);
+		//A triangle if the cruising speed is never reached, a trapezoid otherwise
+		if(distance < maxSpeed * (double)maxSpeed / acceleration)
+			return 2000 * Math.sqrt(distance / acceleration);
+		return 1000 * (distance / maxSpeed + maxSpeed / acceleration);
+	}
+
+	/**
+	 * Returns how far the wheels turn while the robot drives straight over a distance,
+	 * with the wheel geometry the odometer currently uses
+	 *
+	 * @param distance the distance, in cm
+	 * @return the distance, in wheel degrees
+	 */
+	public static double wheelDistance(double distance){
+		return wheelDistance(distance, Repository.getWheelRadius());
+	}
+
+	/**
+	 * Returns how far wheels of a radius turn while the robot drives straight over a distance
+	 *
+	 * @param distance the distance, in cm
+	 * @param radius the mean radius of the wheels, in cm
+	 * @return the distance, in wheel degrees
+	 */
+	public static double wheelDistance(double distance, double radius){
+		return distance * 180.0 / (Math.PI * radius);
+	}
+
+	/**
+	 * Returns how far the wheels turn while the robot turns in place by an angle,
+	 * with the wheel geometry the odometer currently uses
+	 *
+	 * @param angle the angle, in degrees
+	 * @return the distance, in wheel degrees
+	 */
+	public static double wheelTurn(double angle){
+		return wheelTurn(angle, Repository.getWheelRadius(), Repository.getTrack());
+	}
+
+	/**
+	 * Returns how far wheels of a radius turn while the robot turns in place by an angle
+	 *
+	 * @param angle the angle, in degrees
+	 * @param radius the mean radius of the wheels, in cm
+	 * @param track the distance between the wheels, in cm
+	 * @return the distance, in wheel degrees
+	 */
+	public static double wheelTurn(double angle, double radius, double track){
+		return angle * track / (2 * radius);
+	}
+}
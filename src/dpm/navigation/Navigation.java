@@ -1,9 +1,13 @@
 package dpm.navigation;
 
+import dpm.odometry.Pose;
+import dpm.odometry.PoseCondition;
 import dpm.repository.Repository;
 import dpm.util.DPMConstants;
-import dpm.util.Motors;
-import lejos.robotics.RegulatedMotor;
+import dpm.util.DifferentialDrive;
+import dpm.util.MotorEvent;
+import dpm.util.MotorListener;
+import dpm.util.MotorMonitor;
 
 /**
  * File: Navigation.java
@@ -15,26 +19,45 @@ import lejos.robotics.RegulatedMotor;
  * Modified by: Samuel Genois and Emile Traor
  * Fall 2016
  * 
- * Movement control class (turnTo, travelTo, flt, setSpeeds...)
+ * Movement control class (turnTo, travelTo...)
  */
 public class Navigation implements DPMConstants{
-	private final static int FAST = 300, SLOW = 100;						//Motor speed parameters
+	private final static int FAST = 300, SLOW = 100, CREEP = 40;			//Motor speed parameters
 	private final static double DEG_ERR = 3.0, CM_ERR = 1.0;				//Tolerances for turnTo and travelTo
-	private RegulatedMotor leftMotor, rightMotor;							//Motor objects
+	private final static double LOOKAHEAD = 15.0, SPIN_ANGLE = 45.0;		//How far ahead on its path travelTo steers to, and the heading error it pivots from
+	private final static double CORNER_RADIUS = 5.0;						//How close to a waypoint travelPath moves on to the next segment
+	private final static int MAX_REPLANS = 20, LOOK_CONE = 15;				//Most routes planned to one waypoint, and half the cone looked ahead in, in degrees
+	private final static long CONTROL_PERIOD = 50l,							//Longest wait between two control loop iterations
+								BACKUP_TIME = 300l;							//How long the robot backs away from what holds its wheels, in ms
+	private final static double PROFILE_ACCELERATION = WHEEL_MOTOR_ACCELERATION / 4.0;	//Deceleration the profiles plan for, below what the regulators can do
+	private final DifferentialDrive drive;									//Both wheels, commanded at once
+	private final MotionProfile turnProfile = new MotionProfile(FAST, CREEP, PROFILE_ACCELERATION, CONTROL_PERIOD),
+								travelProfile = new MotionProfile(FAST, SLOW, PROFILE_ACCELERATION, CONTROL_PERIOD);
+	private boolean profiled = true;										//Whether the control loops follow the profiles and steer, or pivot and drive at constant speeds
+	private boolean polling;												//Whether the control loops spin on the pose instead of waiting for the odometer
 	boolean interrupted;													//Determines whether methods are interrupted or not
+	volatile boolean blocked;												//Set when a wheel stalls or slips, until a control loop reacts
 	private double travel_x, travel_y;										//Coordinates of current travel
 	private double[] badZone;
+	private volatile double progress;										//Segments of the current path completed, plus the fraction of the current one
+	private final double[] lookaheadPoint = new double[2];					//Reused by every pass of the control loop
+	private final LoopStats stats = new LoopStats();						//Time spent working versus waiting in the control loops
 	
 	/**
 	 * Constructor
 	 */
 	public Navigation() {
 
-		this.leftMotor = Motors.getMotor(Motors.LEFT);
-		this.rightMotor = Motors.getMotor(Motors.RIGHT);
-		// set acceleration
-		this.leftMotor.setAcceleration(WHEEL_MOTOR_ACCELERATION);
-		this.rightMotor.setAcceleration(WHEEL_MOTOR_ACCELERATION);
+		this.drive = DifferentialDrive.getInstance();
+		
+		//A wheel held back means the robot is pushing something its sensors did not see
+		MotorMonitor.getInstance().addListener(new MotorListener(){
+			@Override
+			public void motorFault(MotorEvent event){
+				if(event.getMotor() == LEFT || event.getMotor() == RIGHT)
+					blocked = true;
+			}
+		});
 		
 		//Get absolute coordinates of the zone to avoid
 		int[] badZoneSquareCoordinates;
@@ -51,13 +74,25 @@ public class Navigation implements DPMConstants{
 	}
 
 	/**
-	 * Function to set the motor speeds jointly
-	 * @param lSpd the speed of the left motor
-	 * @param rSpd the speed of the right motor
+	 * Chooses how the control loops drive the wheels: following motion profiles that slow
+	 * down close to the target while travelTo steers along its path, or at constant speeds
+	 * until the target is reached while travelTo pivots towards the destination
+	 * 
+	 * @param profiled true to follow the motion profiles and steer
+	 */
+	public void setProfiled(boolean profiled){
+		this.profiled = profiled;
+	}
+
+	/**
+	 * Chooses how the control loops wait between two iterations: blocked until the odometer
+	 * reports the target reached or CONTROL_PERIOD ms went by, or not at all, re-reading the
+	 * pose and re-issuing their commands as fast as they can, as they used to
+	 * 
+	 * @param polling true to spin instead of waiting
 	 */
-	void setSpeeds(int lSpd, int rSpd) {
-		this.leftMotor.setSpeed(lSpd);
-		this.rightMotor.setSpeed(rSpd);
+	public void setPolling(boolean polling){
+		this.polling = polling;
 	}
 
 	/**
@@ -69,46 +104,284 @@ public class Navigation implements DPMConstants{
 
 	/**
 	 * TravelTo function which takes as arguments the x and y position in cm Will travel to designated position, while
-	 * constantly updating it's heading
+	 * constantly updating it's heading. The robot steers along arcs towards a point LOOKAHEAD cm ahead on the
+	 * straight path to the destination, and only pivots in place when it is headed more than SPIN_ANGLE away.
+	 * While obstacles are avoided, the ultrasonic sensor is swung so they are looked for in its scans.
 	 * 
 	 * @param x x coordinate of destination
 	 * @param y y coordinate of destination
 	 */
 	public boolean travelTo(double x, double y, int avoidanceSetting) {
-		travel_x = x;
-		travel_y = y;
+		return travelPath(new double[][] {{x, y}}, Double.NaN, avoidanceSetting);
+	}
+	
+	/**
+	 * Travels through a list of waypoints without stopping at them, then stops at the last one and
+	 * optionally turns to a heading. The robot steers along the straight segments between the waypoints
+	 * as travelTo does, and its lookahead point rounds each corner before the robot gets there, so the
+	 * corners are blended into arcs and the speed only drops as much as their curvature asks. The robot
+	 * moves on to the next segment once it is within CORNER_RADIUS cm of a waypoint, or past it.
+	 * <br>At constant speeds (see setProfiled), the robot pivots at each waypoint instead, as it would
+	 * with one travelTo per waypoint.
+	 * <br>With AVOID_PLANNED, the robot follows a route planned to each waypoint around the obstacles mapped
+	 * so far and the zone to avoid, and plans a new one whenever the sweep finds an obstacle on it, instead
+	 * of following the obstacle's wall. Its progress is then the progress along the current route.
+	 * 
+	 * @param waypoints the x and y coordinates of each waypoint, in cm
+	 * @param heading the heading to turn to at the last waypoint, in degrees, or NaN to keep the one the robot arrives with
+	 * @param avoidanceSetting NO_AVOIDANCE, AVOID_ALL, AVOID_OR_PICKUP or AVOID_PLANNED
+	 * @return false if the robot gave up before the last waypoint
+	 */
+	public boolean travelPath(double[][] waypoints, double heading, int avoidanceSetting) {
+		if(waypoints.length == 0)
+			return true;
+		boolean arrived;
+		if(avoidanceSetting == NO_AVOIDANCE)
+			arrived = travel(waypoints, avoidanceSetting);
+		else {
+			Repository.startSweep();
+			arrived = (avoidanceSetting == AVOID_PLANNED) ? travelPlanned(waypoints) : travel(waypoints, avoidanceSetting);
+			Repository.stopSweep();
+		}
+		if(arrived && !Double.isNaN(heading))
+			turnTo(heading, true);
+		return arrived;
+	}
+	
+	/**
+	 * Returns how far the robot got along the path of the latest travelPath or travelTo
+	 * 
+	 * @return the number of segments completed, plus the fraction of the current segment covered
+	 */
+	public double getPathProgress() {
+		return progress;
+	}
+	
+	/*
+	 * Travels to each waypoint in turn along a route planned around the obstacles mapped so far,
+	 * and plans a new one each time the sweep finds an obstacle on it. Only the cells the new
+	 * obstacles changed are searched again.
+	 */
+	private boolean travelPlanned(double[][] waypoints) {
+		for (double[] waypoint : waypoints) {
+			boolean escaped = false;
+			for (int plans = 0; ; plans++) {
+				if (interrupted || plans == MAX_REPLANS)
+					return false;
+				Pose pose = Repository.getPose();
+				double[][] route = Repository.planRoute(pose.getX(), pose.getY(), waypoint[0], waypoint[1], badZone);
+				if (route == null) {
+					//The map may have to see more before a way opens, and the robot may be boxed in by what
+					//just stopped it: back away from it, and look again, once
+					if (escaped)
+						return false;
+					if (plans > 0)
+						backOff();
+					Repository.awaitScan(Repository.getScan());
+					escaped = true;
+					continue;
+				}
+				if (travel(route, AVOID_PLANNED))
+					break;
+				if (interrupted || blocked)
+					return false;
+				//Let the sweep map the obstacle that stopped the robot before planning around it
+				Repository.awaitScan(Repository.getScan());
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * The control loop of travelPath
+	 */
+	private boolean travel(double[][] waypoints, int avoidanceSetting) {
 		double minAng;
 		interrupted = false;
-		while (!interrupted && (Math.abs(x - Repository.getX()) > CM_ERR || Math.abs(y - Repository.getY()) > CM_ERR)) {
-			minAng = (Math.atan2(y - Repository.getY(), x - Repository.getX())) * (180.0 / Math.PI);
+		blocked = false;
+		travelProfile.start();
+		//The path starts where the robot is
+		Pose pose = Repository.getPose();
+		double[][] path = new double[waypoints.length + 1][];
+		path[0] = new double[] {pose.getX(), pose.getY()};
+		System.arraycopy(waypoints, 0, path, 1, waypoints.length);
+		int segment = 1, last = path.length - 1;
+		double x = path[last][0], y = path[last][1];
+		progress = 0;
+		PoseCondition reached = waypointReached(path, segment);
+		//One avoidance serves the whole travel, aimed at the current waypoint on each pass
+		ObstacleAvoidance avoidance = (avoidanceSetting == AVOID_ALL || avoidanceSetting == AVOID_OR_PICKUP)
+				? new ObstacleAvoidance(this, x, y, badZone) : null;
+		while (!interrupted && !blocked && (segment < last || Math.abs(x - pose.getX()) > CM_ERR || Math.abs(y - pose.getY()) > CM_ERR)) {
+			travel_x = path[segment][0];
+			travel_y = path[segment][1];
+			double along = along(path, segment, pose), length = length(path, segment);
+			//Move on to the next segment once its corner is close, or behind
+			if (segment < last && (profiled ? calculateDistance(travel_x, travel_y) < CORNER_RADIUS || along >= length
+											: Math.abs(travel_x - pose.getX()) <= CM_ERR && Math.abs(travel_y - pose.getY()) <= CM_ERR)) {
+				segment++;
+				reached = waypointReached(path, segment);
+				continue;
+			}
+			progress = segment - 1 + ((length > 0) ? Math.max(0, Math.min(1, along / length)) : 1);
+			
+			double remaining = MotionProfile.wheelDistance(remaining(path, segment) - CM_ERR);
+			double[] target = profiled ? lookahead(path, segment, pose) : path[segment];
+			minAng = (Math.atan2(target[1] - pose.getY(), target[0] - pose.getX())) * (180.0 / Math.PI);
 			if (minAng < 0)
 				minAng += 360.0;
-			this.turnTo(minAng, false);
-			this.setSpeeds(FAST, FAST);
+			if (profiled && Math.abs(headingError(minAng)) < SPIN_ANGLE)
+				this.pursue(target, remaining, pose);
+			else {
+				this.turn(minAng, false);
+				if(blocked)
+					break;
+				drive.straight(profiled ? travelProfile.next(remaining) : FAST);
+			}
 			
-			if(avoidanceSetting != NO_AVOIDANCE){
-				ObstacleAvoidance avoidance = new ObstacleAvoidance(this, travel_x, travel_y, badZone);
+			if(avoidanceSetting == AVOID_PLANNED){
+				//Stop as soon as the segment ahead is no longer clear on the map, or something is right in front
+				PolarScan scan = Repository.getScan();
+				if(!Repository.isRouteClear(pose.getX(), pose.getY(), travel_x, travel_y)
+						|| (scan != null && scan.minRange(-LOOK_CONE, LOOK_CONE) < Math.min(AVOIDANCE_THRESHOLD, calculateDistance(travel_x, travel_y)))){
+					drive.stop(true);
+					stats.endLoop();
+					return false;
+				}
+			}
+			else if(avoidanceSetting != NO_AVOIDANCE){
+				avoidance.setDestination(travel_x, travel_y);
 				int obstacleDistance = avoidance.look();
-				if(obstacleDistance < calculateDistance(x, y) && obstacleDistance < AVOIDANCE_THRESHOLD){
-					this.setSpeeds(0, 0);
+				if(obstacleDistance < calculateDistance(travel_x, travel_y) && obstacleDistance < AVOIDANCE_THRESHOLD){
+					drive.stop(true);
 					if(avoidanceSetting == AVOID_ALL){
 						if(!avoidance.avoid()){
+							stats.endLoop();
 							return false;
 						}
 					}
 					if(avoidanceSetting == AVOID_OR_PICKUP){
 						if(!Repository.quickPickup(obstacleDistance))
 							if(!avoidance.avoid()){
+								stats.endLoop();
 								return false;
 							}
 					}
+					//The robot left the path to go around the obstacle: the segment now starts from where it is
+					pose = Repository.getPose();
+					path[segment - 1] = new double[] {pose.getX(), pose.getY()};
 				}
 			}
 			
+			//Sleep until the waypoint is reached, or until it is time to correct the heading
+			await(reached);
+			pose = Repository.getPose();
+		}
+		stats.endLoop();
+		//Something holds the wheels back: back away from it, and give up on the destination
+		if(blocked){
+			backOff();
+			return false;
 		}
-		this.setSpeeds(0, 0);
+		progress = last;
+		drive.stop(true);
 		return true;
 	}
+	
+	/*
+	 * Waits between two iterations of a control loop, until a condition holds or for
+	 * CONTROL_PERIOD ms at most. When polling, returns at once.
+	 */
+	private void await(PoseCondition condition) {
+		stats.startWait();
+		if (!polling)
+			Repository.waitFor(condition, CONTROL_PERIOD);
+		stats.endWait();
+	}
+	
+	/*
+	 * Returns the condition the control loop of travelPath waits for on a segment: being
+	 * close enough to its waypoint to move on to the next segment, or to stop at the last one
+	 */
+	private PoseCondition waypointReached(double[][] path, int segment) {
+		double radius = (segment == path.length - 1 || !profiled) ? CM_ERR : CORNER_RADIUS;
+		return PoseCondition.distanceBelow(path[segment][0], path[segment][1], radius);
+	}
+	
+	/*
+	 * Returns the length of a segment of a path, from the previous waypoint to its own
+	 */
+	private static double length(double[][] path, int segment) {
+		return Math.hypot(path[segment][0] - path[segment - 1][0], path[segment][1] - path[segment - 1][1]);
+	}
+	
+	/*
+	 * Returns how far along a segment of a path the robot's projection on it is.
+	 * Negative before its start, and longer than the segment past its end.
+	 */
+	private static double along(double[][] path, int segment, Pose pose) {
+		double length = length(path, segment);
+		if (length == 0)
+			return 0;
+		double dx = path[segment][0] - path[segment - 1][0], dy = path[segment][1] - path[segment - 1][1];
+		return ((pose.getX() - path[segment - 1][0])*dx + (pose.getY() - path[segment - 1][1])*dy) / length;
+	}
+	
+	/*
+	 * Returns the distance left to travel: to the waypoint of the current segment, then along the next segments
+	 */
+	private double remaining(double[][] path, int segment) {
+		double remaining = calculateDistance(path[segment][0], path[segment][1]);
+		for (int i = segment + 1; i < path.length; i++)
+			remaining += length(path, i);
+		return remaining;
+	}
+	
+	/*
+	 * Returns the point LOOKAHEAD cm further along the path than the robot's projection on the current
+	 * segment, going on to the next segments past its waypoint, or the last waypoint once it is closer.
+	 * The point is put in lookaheadPoint, which the next call overwrites.
+	 */
+	private double[] lookahead(double[][] path, int segment, Pose pose) {
+		double along = Math.max(0, along(path, segment, pose)) + LOOKAHEAD;
+		for (int i = segment; i < path.length; i++) {
+			double length = length(path, i);
+			if (along < length) {
+				double fraction = along / length;
+				lookaheadPoint[0] = path[i - 1][0] + (path[i][0] - path[i - 1][0]) * fraction;
+				lookaheadPoint[1] = path[i - 1][1] + (path[i][1] - path[i - 1][1]) * fraction;
+				return lookaheadPoint;
+			}
+			along -= length;
+		}
+		return path[path.length - 1];
+	}
+	
+	/*
+	 * Steers along the arc that leads to a point, tangent to the robot's heading, at the speed
+	 * the travel profile allows for the distance left to travel, in wheel degrees
+	 */
+	private void pursue(double[] target, double remaining, Pose pose) {
+		double lx = target[0] - pose.getX(), ly = target[1] - pose.getY();
+		double distance = Math.sqrt(lx*lx + ly*ly);
+		double alpha = Math.toRadians(headingError(Math.toDegrees(Math.atan2(ly, lx))));
+		double curvature = (distance > 0) ? 2 * Math.sin(alpha) / distance : 0;
+		//The outer wheel turns faster than the robot's center, and may not go over FAST
+		int speed = travelProfile.next(remaining);
+		double track = Repository.getTrack();
+		speed = (int)Math.min(speed, FAST / (1 + Math.abs(curvature) * track / 2));
+		drive.steer(speed, curvature, track);
+	}
+	
+	/*
+	 * Backs away from whatever holds the wheels back
+	 */
+	private void backOff(){
+		drive.straight(-FAST);
+		try{Thread.sleep(BACKUP_TIME);}catch(InterruptedException e){}
+		drive.stop(false);
+		blocked = false;
+	}
 
 	/**
 	 * TurnTo function which takes an angle and boolean as arguments. The boolean controls whether or not to stop the
@@ -118,41 +391,56 @@ public class Navigation implements DPMConstants{
 	 * @param whether or not to stop the motors when the turn is completed
 	 */
 	public void turnTo(double angle, boolean stop) {
+		blocked = false;
+		turn(angle, stop);
+	}
+	
+	/*
+	 * The control loop of turnTo. Gives up on the turn if a wheel is held back.
+	 */
+	private void turn(double angle, boolean stop) {
 		interrupted = true;
-		double error = angle - Repository.getAng();
-		if (error > 180){
-			error-=360;
-		}
-		if (error <= -180){
-			error +=360;
-		}
+		double error = headingError(angle);
 		if (Math.abs(error) > DEG_ERR){
-			while (Math.abs(error) > DEG_ERR) {
-				error = angle - Repository.getAng();
-				if (error > 180){
-					error-=360;
-				}
-				if (error <= -180){
-					error +=360;
-				}
-				if (error < -180.0) {
-					this.setSpeeds(-SLOW, SLOW);
-				} else if (error < 0.0) {
-					this.setSpeeds(SLOW, -SLOW);
-				} else if (error > 180.0) {
-					this.setSpeeds(SLOW, -SLOW);
+			PoseCondition onHeading = PoseCondition.headingWithin(angle, DEG_ERR);
+			turnProfile.start();
+			while (!blocked && Math.abs(error) > DEG_ERR) {
+				int speed = profiled ? turnProfile.next(MotionProfile.wheelTurn(Math.abs(error) - DEG_ERR)) : SLOW;
+				if (error < 0.0) {
+					drive.spin(-speed);
 				} else {
-					this.setSpeeds(-SLOW, SLOW);
+					drive.spin(speed);
 				}
+				//Sleep until the heading is reached. Waking up on the timeout
+				//re-checks the direction in case the robot overshot.
+				await(onHeading);
+				error = headingError(angle);
 			}
 		}
 
 		if (stop) {
-			this.setSpeeds(0, 0);
+			drive.stop(true);
+			stats.endLoop();
 		}
+		else if (blocked)
+			drive.stop(true);
 		interrupted = false;
 	}
 	
+	/*
+	 * Returns the smallest signed angle, in (-180, 180], from the robot's heading to the specified angle
+	 */
+	private static double headingError(double angle){
+		double error = (angle - Repository.getAng()) % 360.0;
+		if (error > 180){
+			error-=360;
+		}
+		if (error <= -180){
+			error +=360;
+		}
+		return error;
+	}
+	
 	/**
 	 * TurnTo function which takes an angle as argument.
 
@@ -162,6 +450,16 @@ public class Navigation implements DPMConstants{
 		turnTo(angle, true);
 	}
 	
+	/**
+	 * Returns the time spent working versus waiting in the control loops
+	 * of turnTo and travelTo.
+	 * 
+	 * @return the control loop statistics
+	 */
+	public LoopStats getLoopStats(){
+		return stats;
+	}
+	
 	/**
 	 * Calculates the euclidean distance between point (x,y) and the robot's current location
 	 * 
@@ -170,7 +468,8 @@ public class Navigation implements DPMConstants{
 	 * @return The euclidean distance
 	 */
 	double calculateDistance(double x, double y){
-		return Math.sqrt(Math.pow(y-Repository.getY(), 2.0)+Math.pow(x-Repository.getX(), 2.0));
+		Pose pose = Repository.getPose();
+		return Math.sqrt(Math.pow(y-pose.getY(), 2.0)+Math.pow(x-pose.getX(), 2.0));
 	}
 	
 	/**
@@ -181,4 +480,13 @@ public class Navigation implements DPMConstants{
 	double[] getPosition(){
 		return Repository.getPosition();
 	}
+	
+	/**
+	 * Returns the latest pose of the robot.
+	 * 
+	 * @return the latest pose of the robot
+	 */
+	Pose getPose(){
+		return Repository.getPose();
+	}
 }
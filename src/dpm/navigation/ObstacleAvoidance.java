@@ -3,10 +3,14 @@ package dpm.navigation;
 import java.util.Timer;
 import java.util.TimerTask;
 
+import dpm.odometry.Pose;
+import dpm.repository.Repository;
 import dpm.util.DPMConstants;
+import dpm.util.DifferentialDrive;
 import dpm.util.Motors;
 import dpm.util.Printer;
-import dpm.util.Sensors;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
 
 /**
  * This class handles the routines Navigation uses to avoid obstacles in its path.
@@ -25,11 +29,18 @@ public class ObstacleAvoidance implements DPMConstants{
 								MOTOR_STRAIGHT = 150,				//The default speed of a motor
 								MAX_VALUE = 50,						//The maximum offset that can be added or removed from a motor's speed
 								BAND_CENTER = AVOIDANCE_THRESHOLD,	//The nominal distance from the wall
-								BAND_WIDTH = 5;						//The maximum deviation from the nominal distance before adjustment
+								BAND_WIDTH = 5,						//The maximum deviation from the nominal distance before adjustment
+								LOOK_CONE = 15;						//Half the width of the cone a scan is looked at in, in degrees
 	
 	private Navigation navigation;
+	private final DifferentialDrive drive = DifferentialDrive.getInstance();
+	
+	//Ultrasonic samples are read into the same array every time, so looking around allocates nothing
+	private final SensorChannel usSensor = SensorHub.getChannel(US_ACTIVE);
+	private final float[] usData = new float[usSensor.sampleSize()];
 	
 	private boolean timedOut;
+	private PolarScan scan;												//The scan the current pass of the avoidance loop looks at
 	
 	private int direction;
 	private double x_init, y_init, a, b, initialDistanceFromDestination;
@@ -45,38 +56,50 @@ public class ObstacleAvoidance implements DPMConstants{
 	 */
 	public ObstacleAvoidance(Navigation navigation, double x_fin, double y_fin, double[] badZone) {
 		this.navigation = navigation;
-		this.x_init = this.navigation.getPosition()[0];
-		this.y_init = this.navigation.getPosition()[1];
+		this.badZone = badZone;
+		setDestination(x_fin, y_fin);
+	}
+	
+	/*
+	 * Aims the avoidance at a new destination, from where the robot is now, so the same
+	 * ObstacleAvoidance serves every pass of Navigation's control loop
+	 */
+	void setDestination(double x_fin, double y_fin) {
+		Pose pose = this.navigation.getPose();
+		this.x_init = pose.getX();
+		this.y_init = pose.getY();
 		this.a = (x_fin-x_init)/Math.sqrt((x_fin-x_init)*(x_fin-x_init)+(y_fin-y_init)*(y_fin-y_init));
 		this.b = (y_fin-y_init)/Math.sqrt((x_fin-x_init)*(x_fin-x_init)+(y_fin-y_init)*(y_fin-y_init));
-		this.badZone = badZone;
 		this.initialDistanceFromDestination = navigation.calculateDistance(x_fin, y_fin);
 		this.startedAvoidance = false;
+		this.scan = null;
 	}
 	
 	/*
 	 * Calculates the error (deviation of robot from its initial path)
 	 */
 	private double calculateError(){
+		Pose pose = navigation.getPose();
 		if (a < 0.1){
-			return Math.abs(navigation.getPosition()[0]-x_init)/b;
+			return Math.abs(pose.getX()-x_init)/b;
 		}
 		if (b < 0.1){
-			return Math.abs(navigation.getPosition()[1]-y_init)/a;
+			return Math.abs(pose.getY()-y_init)/a;
 		}
-		return Math.abs((navigation.getPosition()[0]-x_init)/a-(navigation.getPosition()[1]-y_init)/b);
+		return Math.abs((pose.getX()-x_init)/a-(pose.getY()-y_init)/b);
 	}
 	
 	/*
 	 * Returns true as long as the robot is not done avoiding the obstacle
 	 */
 	private boolean avoiding(){
-		Printer.getInstance().display(""+calculateError());
-		if (calculateError() > 8.0){
+		double error = calculateError();
+		Printer.getInstance().display(""+error);
+		if (error > 8.0){
 			startedAvoidance = true;
 		}
 		
-		if(startedAvoidance && calculateError() < 4.0){
+		if(startedAvoidance && error < 4.0){
 			return false;
 		}
 		return true;
@@ -88,10 +111,10 @@ public class ObstacleAvoidance implements DPMConstants{
 	 */
 	private void direction(){
 		int left_dist, right_dist;
-		//Check distance on the left
-		left_dist = look(RIGHT);
-		//Check distance on the right
-		right_dist = look(LEFT);
+		//Check distance on the left, as seen now and as remembered from before
+		left_dist = Math.min(look(RIGHT), clearance(90));
+		//Check distance on the right, as seen now and as remembered from before
+		right_dist = Math.min(look(LEFT), clearance(-90));
 		//If largest distance on the left, align robot to be on left of wall
 		if (left_dist > right_dist){
 			direction = LEFT;
@@ -104,12 +127,23 @@ public class ObstacleAvoidance implements DPMConstants{
 		}
 	}
 	
+	/*
+	 * Returns how far the occupancy grid remembers the way to be free from the robot, at an angle
+	 * from its heading. Walls the sensor no longer sees, like the one the robot just followed, count.
+	 */
+	private int clearance(double angle){
+		Pose pose = navigation.getPose();
+		return (int)Repository.getClearance(pose.getX(), pose.getY(), pose.getAng() + angle, PolarScan.NO_RANGE);
+	}
+	
 	/*
 	 * Process ultrasonic sensor distance method
 	 * Adjusts motor speeds based on distance to the wall using PController algorithm
 	 */
 	private void processUSDistance(){
 		int fwd_dist, side_dist, actual_dist;
+		//While the sensor is swung, wait for a new scan, as turning the sensor used to pace the loop
+		scan = Repository.awaitScan(scan);
 		//Get distance from wall on the side of the robot, rotate sensor, and get distance in front of the robot
 		side_dist = look(direction);
 		fwd_dist = look(FORWARD);
@@ -129,16 +163,16 @@ public class ObstacleAvoidance implements DPMConstants{
 			}
 			//If robot on left of wall, add adjustment to left motor speed and remove from right motor speed
 			if (direction == LEFT){
-				navigation.setSpeeds(MOTOR_STRAIGHT+adjustment, MOTOR_STRAIGHT-adjustment);
+				drive.setSpeeds(MOTOR_STRAIGHT+adjustment, MOTOR_STRAIGHT-adjustment);
 			}
 			//If robot on right of wall, add adjustment to right motor speed and remove from right motor speed
 			else{
-				navigation.setSpeeds(MOTOR_STRAIGHT-adjustment, MOTOR_STRAIGHT+adjustment);
+				drive.setSpeeds(MOTOR_STRAIGHT-adjustment, MOTOR_STRAIGHT+adjustment);
 			}
 		}
 		//If within tolerance, set both motors to move forward (no adjustment)
 		else{
-			navigation.setSpeeds(MOTOR_STRAIGHT, MOTOR_STRAIGHT);
+			drive.setSpeeds(MOTOR_STRAIGHT, MOTOR_STRAIGHT);
 		}
 	}
 	
@@ -153,10 +187,10 @@ public class ObstacleAvoidance implements DPMConstants{
 		
 		(new Timer()).schedule(new ObstacleAvoidanceTimer(this), 20000l);
 		
-		while (avoiding() && !navigation.interrupted && !timedOut){
+		while (avoiding() && !navigation.interrupted && !navigation.blocked && !timedOut){
 			processUSDistance();
 		}
-		navigation.setSpeeds(0, 0);
+		drive.stop(true);
 		
 		return navigation.calculateDistance(x_init, y_init) < initialDistanceFromDestination;
 	}
@@ -171,7 +205,13 @@ public class ObstacleAvoidance implements DPMConstants{
 	}
 	
 	//Returns the distance read by the ultrasonic sensor when the sensor is facing the specified direction.
+	//While the sensor is swung, the latest scan is used instead of turning the sensor and waiting.
 	private int look(int direction){
+		PolarScan scan = (this.scan != null) ? this.scan : Repository.getScan();
+		if(scan != null){
+			int angle = (direction == LEFT) ? -SENSOR_TURN_ANGLE : (direction == RIGHT) ? SENSOR_TURN_ANGLE : 0;
+			return (int)scan.minRange(angle - LOOK_CONE, angle + LOOK_CONE);
+		}
 		switch(direction){
 		case LEFT:
 			Motors.getMotor(Motors.SENSOR).rotateTo(-SENSOR_TURN_ANGLE);
@@ -188,9 +228,14 @@ public class ObstacleAvoidance implements DPMConstants{
 	
 	//Returns the distance read by the ultrasonic sensor.
 	private int getDistance(int direction){
-		float[] data = new float[Sensors.getSensor(Sensors.US_ACTIVE).sampleSize()];
-		Sensors.getSensor(Sensors.US_ACTIVE).fetchSample(data, 0);
-		int distance = (int)(data[0]*100);
+		//Wait for a sample taken after the sensor finished turning
+		long sampleTime = usSensor.awaitNext(usData, US_TIMEOUT);
+		int distance = (int)(usData[0]*100);
+		
+		//If the reading is a field wall, use it to correct the odometer, and remember what it saw
+		int sensorAngle = Motors.getMotor(Motors.SENSOR).getTachoCount();
+		Repository.observeWallRange(usData[0]*100, sensorAngle, sampleTime);
+		Repository.mapRange(usData[0]*100, sensorAngle, sampleTime);
 		
 		//Code to treat badZone as a physical obstacle.
 		//For some reason, using it causes ObstacleAvoidance to fail its avoidance maneuvers after
@@ -0,0 +1,293 @@
+package dpm.navigation;
+
+import dpm.util.DPMConstants;
+
+/**
+ * A map of the field, remembering where the ultrasonic sensor saw something and where it saw nothing.
+ * <br>The field, walls included, is cut into square cells of a fixed size. Each cell holds the log-odds
+ * that something occupies it, 0 when nothing is known about it, in one float array.
+ * <br>Each ultrasonic range is spread over the sensor's cone, of half width BEAM_WIDTH: the cells
+ * closer than the range are made more likely to be free, and those at the range more likely to be
+ * occupied, since the echo came from somewhere on that arc. Cells off the axis of the beam are
+ * updated less than those on it. A range too long to be trusted, no echo, only clears the cells
+ * up to MAX_RANGE. A range too short says nothing about the cone, so it is not mapped at all.
+ * The log-odds are clamped, so the map keeps up with what moves.
+ * <br>A cell can also be marked as holding a known obstacle. The ultrasonic sensor never clears it.
+ * <br>Updates are synchronized. Queries read the cells as they are, without waiting, so they are cheap
+ * enough for a control loop; a query made during an update may see part of it.
+ *
+ * @author Samuel Genois
+ */
+public class OccupancyGrid implements DPMConstants {
+
+	/**
+	 * The default size of a cell, in cm: a sixth of a square
+	 */
+	public static final double DEFAULT_CELL_SIZE = SQUARE_SIZE / 6;
+
+	private static final double	FIELD_LOW = -SQUARE_SIZE,			//Coordinates of the field walls
+								FIELD_SIZE = 12 * SQUARE_SIZE,
+								US_OFFSET = 8.0,					//Distance from the center of the robot to the ultrasonic sensor, in cm
+								MIN_RANGE = 5.0,					//Below this, something is too close to the sensor to be placed
+								MAX_RANGE = 150.0,					//Beyond this, ranges are too noisy to be mapped
+								BEAM_WIDTH = 15.0,					//Half the width of the sensor's cone, in degrees
+								HIT_DEPTH = 6.0;					//Depth of the arc an echo is spread over, in cm
+	private static final float	FREE_LOG_ODDS = -0.4f,				//Added to a free cell on the beam's axis
+								OCCUPIED_LOG_ODDS = 0.85f,			//Added to an occupied cell on the beam's axis
+								MAX_LOG_ODDS = 5f,
+								OCCUPIED = 1f,						//Log-odds above which a cell is occupied (p > 0.73)
+								MARKED = Float.POSITIVE_INFINITY;	//Log-odds of a known obstacle
+
+	private final double cellSize;
+	private final int size;
+	private final float[] cells;
+
+	/**
+	 * Constructor. Nothing is known about the field yet.
+	 *
+	 * @param cellSize the size of the side of a cell, in cm
+	 */
+	public OccupancyGrid(double cellSize){
+		this.size = (int)Math.ceil(FIELD_SIZE / cellSize);
+		this.cellSize = FIELD_SIZE / size;
+		this.cells = new float[size * size];
+	}
+
+	/**
+	 * Returns the size of the side of a cell. It is the size asked for, adjusted so a whole
+	 * number of cells covers the field.
+	 *
+	 * @return the size, in cm
+	 */
+	public double getCellSize(){
+		return cellSize;
+	}
+
+	/**
+	 * Maps an ultrasonic range. A range below MIN_RANGE is ignored.
+	 *
+	 * @param range the measured range, in cm
+	 * @param sensorAngle the angle of the sensor relative to the robot's heading, in degrees
+	 * @param x the robot's x coordinate when the range was measured, in cm
+	 * @param y the robot's y coordinate when the range was measured, in cm
+	 * @param heading the robot's heading when the range was measured, in degrees
+	 */
+	public synchronized void update(double range, double sensorAngle, double x, double y, double heading){
+		//Something right against the sensor hides the whole cone, so nothing can be said to be free
+		if(range < MIN_RANGE)
+			return;
+		double ox = x, oy = y, beam = Math.toRadians(heading + sensorAngle);
+		//The sensor is ahead of the robot's center, along the beam
+		boolean echo = range <= MAX_RANGE;
+		double hit = range + US_OFFSET,
+				reach = echo ? hit + HIT_DEPTH / 2 : MAX_RANGE + US_OFFSET;
+		double cos = Math.cos(beam), sin = Math.sin(beam),
+				halfWidth = Math.toRadians(BEAM_WIDTH),
+				minCos2 = Math.cos(halfWidth) * Math.cos(halfWidth),
+				maxSin2 = Math.sin(halfWidth) * Math.sin(halfWidth);
+
+		//The cone's bounding box: its apex, the ends of its edges, and the ends of any axis it spans
+		double minX = ox, maxX = ox, minY = oy, maxY = oy;
+		for(int i=-1; i<=1; i+=2){
+			double edge = beam + i * halfWidth;
+			minX = Math.min(minX, ox + reach * Math.cos(edge));
+			maxX = Math.max(maxX, ox + reach * Math.cos(edge));
+			minY = Math.min(minY, oy + reach * Math.sin(edge));
+			maxY = Math.max(maxY, oy + reach * Math.sin(edge));
+		}
+		if(cos > Math.cos(halfWidth))
+			maxX = ox + reach;
+		else if(-cos > Math.cos(halfWidth))
+			minX = ox - reach;
+		if(sin > Math.cos(halfWidth))
+			maxY = oy + reach;
+		else if(-sin > Math.cos(halfWidth))
+			minY = oy - reach;
+
+		int fromCol = Math.max(0, column(minX)), toCol = Math.min(size - 1, column(maxX)),
+			fromRow = Math.max(0, column(minY)), toRow = Math.min(size - 1, column(maxY));
+		for(int row=fromRow; row<=toRow; row++){
+			double dy = center(row) - oy;
+			for(int col=fromCol; col<=toCol; col++){
+				double dx = center(col) - ox;
+				double along = dx*cos + dy*sin, distance2 = dx*dx + dy*dy;
+				//Within the cone, and within reach, without a square root or an arc tangent
+				if(along <= 0 || along*along < minCos2 * distance2 || distance2 > reach * reach)
+					continue;
+				float weight = (float)(1 - (1 - along*along / distance2) / maxSin2);
+				int index = row * size + col;
+				if(cells[index] == MARKED)
+					continue;
+				if(echo && Math.sqrt(distance2) >= hit - HIT_DEPTH / 2)
+					cells[index] = Math.min(MAX_LOG_ODDS, cells[index] + weight * OCCUPIED_LOG_ODDS);
+				else
+					cells[index] = Math.max(-MAX_LOG_ODDS, cells[index] + weight * FREE_LOG_ODDS);
+			}
+		}
+	}
+
+	/**
+	 * Marks the cells around a point as holding a known obstacle, which the ultrasonic sensor
+	 * will not clear
+	 *
+	 * @param x the x coordinate of the obstacle, in cm
+	 * @param y the y coordinate of the obstacle, in cm
+	 * @param radius the radius of the obstacle, in cm
+	 */
+	public synchronized void mark(double x, double y, double radius){
+		for(int row=Math.max(0, column(y - radius)); row<=Math.min(size - 1, column(y + radius)); row++)
+			for(int col=Math.max(0, column(x - radius)); col<=Math.min(size - 1, column(x + radius)); col++){
+				double dx = center(col) - x, dy = center(row) - y;
+				if(dx*dx + dy*dy <= radius * radius || (col == column(x) && row == column(y)))
+					cells[row * size + col] = MARKED;
+			}
+	}
+
+	/**
+	 * Returns true if the cell at a point holds a known obstacle
+	 *
+	 * @param x the x coordinate, in cm
+	 * @param y the y coordinate, in cm
+	 * @return true if the cell was marked, false if it was not or if the point is off the field
+	 */
+	public boolean isMarked(double x, double y){
+		int col = column(x), row = column(y);
+		return inside(col, row) && cells[row * size + col] == MARKED;
+	}
+
+	/**
+	 * Returns the probability that the cell at a point is occupied
+	 *
+	 * @param x the x coordinate, in cm
+	 * @param y the y coordinate, in cm
+	 * @return the probability, 0.5 if nothing is known, and 1 off the field
+	 */
+	public double getOccupancy(double x, double y){
+		int col = column(x), row = column(y);
+		if(!inside(col, row))
+			return 1;
+		return 1 - 1 / (1 + Math.exp(cells[row * size + col]));
+	}
+
+	/**
+	 * Returns true if the cell at a point is occupied
+	 *
+	 * @param x the x coordinate, in cm
+	 * @param y the y coordinate, in cm
+	 * @return true if the cell is likely occupied, or if the point is off the field
+	 */
+	public boolean isOccupied(double x, double y){
+		int col = column(x), row = column(y);
+		return !inside(col, row) || cells[row * size + col] > OCCUPIED;
+	}
+
+	/**
+	 * Returns true if no occupied cell is within a distance of a point
+	 *
+	 * @param x the x coordinate of the point, in cm
+	 * @param y the y coordinate of the point, in cm
+	 * @param radius the distance, in cm
+	 * @return true if every cell whose center is that close is on the field and not occupied
+	 */
+	public boolean isClear(double x, double y, double radius){
+		int fromCol = column(x - radius), toCol = column(x + radius),
+			fromRow = column(y - radius), toRow = column(y + radius);
+		for(int row=fromRow; row<=toRow; row++){
+			double dy = center(row) - y;
+			for(int col=fromCol; col<=toCol; col++){
+				double dx = center(col) - x;
+				if(dx*dx + dy*dy > radius * radius && (col != column(x) || row != column(y)))
+					continue;
+				if(!inside(col, row) || cells[row * size + col] > OCCUPIED)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if no occupied cell lies on the segment between two points. The cell of
+	 * the first point, where the robot usually is, is not checked.
+	 *
+	 * @param fromX the x coordinate of the first point, in cm
+	 * @param fromY the y coordinate of the first point, in cm
+	 * @param toX the x coordinate of the second point, in cm
+	 * @param toY the y coordinate of the second point, in cm
+	 * @return true if the segment is free
+	 */
+	public boolean isRayFree(double fromX, double fromY, double toX, double toY){
+		double length = Math.hypot(toX - fromX, toY - fromY);
+		return trace(fromX, fromY, toX, toY, length) >= length;
+	}
+
+	/**
+	 * Returns how far a ray goes from a point before it enters an occupied cell. The cell of
+	 * the point is not checked.
+	 *
+	 * @param x the x coordinate of the point, in cm
+	 * @param y the y coordinate of the point, in cm
+	 * @param angle the direction of the ray, in degrees
+	 * @param maxDistance the farthest to look, in cm
+	 * @return the distance to the first occupied cell, in cm, or maxDistance if there is none
+	 * that close. The field walls count as occupied.
+	 */
+	public double getClearance(double x, double y, double angle, double maxDistance){
+		double rad = Math.toRadians(angle);
+		return trace(x, y, x + maxDistance * Math.cos(rad), y + maxDistance * Math.sin(rad), maxDistance);
+	}
+
+	/*
+	 * Walks the cells a segment crosses, one cell border at a time, and returns the distance
+	 * along it to the first occupied one, or length if there is none
+	 */
+	private double trace(double fromX, double fromY, double toX, double toY, double length){
+		if(length == 0)
+			return 0;
+		double dx = (toX - fromX) / length, dy = (toY - fromY) / length;
+		int col = column(fromX), row = column(fromY);
+		int stepCol = (dx > 0) ? 1 : -1, stepRow = (dy > 0) ? 1 : -1;
+		//Distance along the segment to the next vertical and horizontal cell border, and between two of them
+		double deltaX = (dx == 0) ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dx),
+				deltaY = (dy == 0) ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dy),
+				nextX = (dx == 0) ? Double.POSITIVE_INFINITY : (FIELD_LOW + (col + (dx > 0 ? 1 : 0)) * cellSize - fromX) / dx,
+				nextY = (dy == 0) ? Double.POSITIVE_INFINITY : (FIELD_LOW + (row + (dy > 0 ? 1 : 0)) * cellSize - fromY) / dy;
+		while(true){
+			double distance;
+			if(nextX < nextY){
+				distance = nextX;
+				nextX += deltaX;
+				col += stepCol;
+			}
+			else{
+				distance = nextY;
+				nextY += deltaY;
+				row += stepRow;
+			}
+			if(distance >= length)
+				return length;
+			if(!inside(col, row) || cells[row * size + col] > OCCUPIED)
+				return Math.max(0, distance);
+		}
+	}
+
+	/*
+	 * Returns the column, or the row, of the cell holding a coordinate
+	 */
+	private int column(double coordinate){
+		return (int)Math.floor((coordinate - FIELD_LOW) / cellSize);
+	}
+
+	/*
+	 * Returns the coordinate of the center of a column, or of a row
+	 */
+	private double center(int column){
+		return FIELD_LOW + (column + 0.5) * cellSize;
+	}
+
+	/*
+	 * Returns true if a cell is on the field
+	 */
+	private boolean inside(int col, int row){
+		return col >= 0 && row >= 0 && col < size && row < size;
+	}
+}
@@ -0,0 +1,166 @@
+package dpm.navigation;
+
+/**
+ * One sweep of the ultrasonic sensor, from one end of the servo's range to the other.
+ * <br>Each reading is tagged with the angle of the sensor relative to the robot's heading
+ * (counter clockwise positive, as the SENSOR motor's tacho count) and with the robot's pose
+ * at the time of the reading, so a scan taken while the robot moves still places every
+ * reading correctly on the field.
+ * <br>A scan is filled by the UltrasonicSweep, then published. The sweep fills two scans in turn,
+ * so a scan stays as published until the next one is, half a sweep later, and is then emptied
+ * and filled again. What a consumer needs from a scan must be read from it before then.
+ *
+ * @author Samuel Genois
+ */
+public class PolarScan {
+
+	/**
+	 * The range given for directions no reading covers, in cm
+	 */
+	public static final float NO_RANGE = 255f;
+
+	private final float[] angles, ranges, xs, ys, headings;
+	private final long[] times;
+	private int size;
+
+	/*
+	 * Constructor
+	 *
+	 * capacity	the largest number of readings the scan can hold
+	 */
+	PolarScan(int capacity){
+		angles = new float[capacity];
+		ranges = new float[capacity];
+		xs = new float[capacity];
+		ys = new float[capacity];
+		headings = new float[capacity];
+		times = new long[capacity];
+	}
+
+	/*
+	 * Adds a reading, with the robot's position and heading at its time, unless the scan is full
+	 */
+	void add(float angle, float range, double x, double y, double heading, long time){
+		if(size == angles.length)
+			return;
+		angles[size] = angle;
+		ranges[size] = range;
+		xs[size] = (float)x;
+		ys[size] = (float)y;
+		headings[size] = (float)heading;
+		times[size] = time;
+		size++;
+	}
+
+	/*
+	 * Removes every reading, so the scan can be filled again
+	 */
+	void clear(){
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of readings in the scan
+	 * @return the number of readings
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the angle of the sensor at a reading, relative to the robot's heading
+	 * @param i the index of the reading
+	 * @return the angle, in degrees, counter clockwise positive
+	 */
+	public float getAngle(int i){
+		return angles[i];
+	}
+
+	/**
+	 * Returns the range measured at a reading
+	 * @param i the index of the reading
+	 * @return the range, in cm
+	 */
+	public float getRange(int i){
+		return ranges[i];
+	}
+
+	/**
+	 * Returns the robot's x coordinate at a reading
+	 * @param i the index of the reading
+	 * @return the x coordinate, in cm
+	 */
+	public float getX(int i){
+		return xs[i];
+	}
+
+	/**
+	 * Returns the robot's y coordinate at a reading
+	 * @param i the index of the reading
+	 * @return the y coordinate, in cm
+	 */
+	public float getY(int i){
+		return ys[i];
+	}
+
+	/**
+	 * Returns the robot's heading at a reading
+	 * @param i the index of the reading
+	 * @return the heading, in degrees
+	 */
+	public float getHeading(int i){
+		return headings[i];
+	}
+
+	/**
+	 * Returns the direction of the beam at a reading, on the field
+	 * @param i the index of the reading
+	 * @return the angle of the beam, in degrees, between 0 and 360
+	 */
+	public double getWorldAngle(int i){
+		double angle = ((double)headings[i] + angles[i]) % 360.0;
+		return (angle < 0) ? angle + 360.0 : angle;
+	}
+
+	/**
+	 * Returns the time of the last reading
+	 * @return the time, as given by System.nanoTime(), or 0 if the scan is empty
+	 */
+	public long getTime(){
+		return (size == 0) ? 0 : times[size - 1];
+	}
+
+	/**
+	 * Returns the shortest range read with the sensor between two angles relative to the robot
+	 *
+	 * @param from the smallest angle, in degrees
+	 * @param to the largest angle, in degrees
+	 * @return the shortest range, in cm, or NO_RANGE if no reading was taken between those angles
+	 */
+	public float minRange(double from, double to){
+		float min = NO_RANGE;
+		for(int i=0; i<size; i++)
+			if(angles[i] >= from && angles[i] <= to)
+				min = Math.min(min, ranges[i]);
+		return min;
+	}
+
+	/**
+	 * Returns the reading with the shortest range among those whose beam pointed between
+	 * two directions on the field
+	 *
+	 * @param from the first direction, in degrees
+	 * @param to the last direction, counter clockwise from the first, in degrees
+	 * @return the index of the reading, or -1 if no reading pointed between those directions
+	 */
+	public int nearest(double from, double to){
+		double span = ((to - from) % 360.0 + 360.0) % 360.0;
+		int nearest = -1;
+		for(int i=0; i<size; i++){
+			double offset = ((getWorldAngle(i) - from) % 360.0 + 360.0) % 360.0;
+			if(offset <= span && (nearest < 0 || ranges[i] < ranges[nearest]))
+				nearest = i;
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,407 @@
+package dpm.navigation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import dpm.util.DPMConstants;
+
+/**
+ * RoutePlanner finds the shortest route across the field to a destination, around the obstacles
+ * the occupancy grid knows about and around a zone the robot must keep out of.
+ * <br>The field is cut into square cells, coarser than the grid's. A cell is blocked when the robot,
+ * centered on it, would overlap an occupied cell of the grid, a field wall or the keep out zone. The
+ * robot moves from a cell to any of its eight neighbors that is not blocked, and never cuts the
+ * corner of a blocked cell.
+ * <br>Routes are planned with D* Lite: the costs to the destination are searched backward from it,
+ * and kept from one plan to the next. When the robot moved and the sensor found new obstacles, only
+ * the cells whose cost they changed are searched again, instead of the whole field. A new
+ * destination starts a new search.
+ * <br>The route is then cut short wherever a straight line is clear, so the robot only turns
+ * where it has to.
+ *
+ * @author Samuel Genois
+ */
+public class RoutePlanner implements DPMConstants {
+
+	/**
+	 * The default size of a cell, in cm: a third of a square
+	 */
+	public static final double DEFAULT_CELL_SIZE = SQUARE_SIZE / 3;
+
+	/**
+	 * The default clearance, in cm: half the width of the robot, and a margin for the odometer's error
+	 */
+	public static final double DEFAULT_CLEARANCE = 15.0;
+
+	private static final double	FIELD_LOW = -SQUARE_SIZE,			//Coordinates of the field walls
+								FIELD_SIZE = 12 * SQUARE_SIZE;
+	//Costs are whole tenths of a cell, so keys compare exactly and ties break the same way every time
+	private static final int	STRAIGHT = 10,
+								DIAGONAL = 14,
+								INFINITY = Integer.MAX_VALUE / 4;
+	private static final int[]	NEIGHBOR_COLS = {1, 1, 0, -1, -1, -1, 0, 1},
+								NEIGHBOR_ROWS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+	private final OccupancyGrid grid;
+	private final double cellSize, clearance;
+	private final int size;
+
+	private final boolean[] blocked;
+	private final int[] g, rhs, key1, key2;							//Key of each cell while it is open, in tenths of a cell
+	private final boolean[] open;
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(64, new Comparator<Entry>(){
+		@Override
+		public int compare(Entry a, Entry b){
+			return (a.key1 != b.key1) ? (a.key1 < b.key1 ? -1 : 1) : (a.key2 < b.key2 ? -1 : (a.key2 == b.key2 ? 0 : 1));
+		}
+	});
+
+	private double[] keepOut;
+	private int start = -1, goal = -1, lastStart;
+	private int km;
+	private int expanded;
+
+	/*
+	 * An entry of the open list. Entries whose cell was closed or given a new key since are skipped.
+	 */
+	private static class Entry {
+		final int key1, key2, cell;
+
+		Entry(int key1, int key2, int cell){
+			this.key1 = key1;
+			this.key2 = key2;
+			this.cell = cell;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param grid the occupancy grid the obstacles are read from
+	 * @param cellSize the size of the side of a cell, in cm
+	 * @param clearance how far from the center of the robot an obstacle must stay, in cm
+	 */
+	public RoutePlanner(OccupancyGrid grid, double cellSize, double clearance){
+		this.grid = grid;
+		this.size = (int)Math.ceil(FIELD_SIZE / cellSize);
+		this.cellSize = FIELD_SIZE / size;
+		this.clearance = clearance;
+		blocked = new boolean[size * size];
+		open = new boolean[size * size];
+		g = new int[size * size];
+		rhs = new int[size * size];
+		key1 = new int[size * size];
+		key2 = new int[size * size];
+	}
+
+	/**
+	 * Sets the zone the robot must keep out of
+	 *
+	 * @param zone the x coordinate of its left edge, the y coordinate of its top edge, the x
+	 * coordinate of its right edge and the y coordinate of its bottom edge, in cm, or null
+	 */
+	public synchronized void setKeepOut(double[] zone){
+		keepOut = (zone == null) ? null : zone.clone();
+	}
+
+	/**
+	 * Plans the shortest route from a point to a destination, repairing the previous plan if
+	 * the destination did not change
+	 *
+	 * @param fromX the x coordinate of the start, usually the robot's, in cm
+	 * @param fromY the y coordinate of the start, in cm
+	 * @param toX the x coordinate of the destination, in cm
+	 * @param toY the y coordinate of the destination, in cm
+	 * @return the waypoints of the route, the last one being the destination, or null if there is
+	 * no route, or if the destination is blocked
+	 */
+	public synchronized double[][] plan(double fromX, double fromY, double toX, double toY){
+		int from = cell(fromX, fromY), to = cell(toX, toY);
+		if(from < 0 || to < 0)
+			return null;
+		expanded = 0;
+		if(to != goal){
+			reset(to, from);
+		}
+		else{
+			//The heuristic is measured from the start: keys already in the queue are lower bounds by km
+			km += heuristic(lastStart, from);
+			lastStart = start = from;
+			//The costs around every cell that became blocked or free since the last plan changed
+			for(int cell=0; cell<blocked.length; cell++){
+				boolean now = isBlocked(cell);
+				if(now != blocked[cell]){
+					blocked[cell] = now;
+					for(int i=0; i<NEIGHBOR_COLS.length; i++){
+						int neighbor = neighbor(cell, i);
+						if(neighbor >= 0)
+							updateCell(neighbor);
+					}
+				}
+			}
+		}
+		search();
+		if(g[start] >= INFINITY)
+			return null;
+		return route(fromX, fromY, toX, toY);
+	}
+
+	/**
+	 * Returns how many cells the latest plan searched. A repaired plan searches fewer than a new one.
+	 *
+	 * @return the number of cells expanded
+	 */
+	public synchronized int getExpanded(){
+		return expanded;
+	}
+
+	/**
+	 * Returns the length of the shortest route from the start's cell to the destination's cell,
+	 * as found by the latest plan, along the centers of the cells
+	 *
+	 * @return the length, in cm, or infinity if there is no route
+	 */
+	public synchronized double getCost(){
+		if(start < 0 || g[start] >= INFINITY)
+			return Double.POSITIVE_INFINITY;
+		return g[start] * cellSize / STRAIGHT;
+	}
+
+	/**
+	 * Returns true if the robot can drive straight between two points without getting closer to an
+	 * obstacle than the clearance. Leaving a blocked area the first point is in is allowed; entering
+	 * one is not.
+	 *
+	 * @param fromX the x coordinate of the first point, in cm
+	 * @param fromY the y coordinate of the first point, in cm
+	 * @param toX the x coordinate of the second point, in cm
+	 * @param toY the y coordinate of the second point, in cm
+	 * @return true if the segment is clear
+	 */
+	public boolean isSegmentClear(double fromX, double fromY, double toX, double toY){
+		double length = Math.hypot(toX - fromX, toY - fromY);
+		int steps = (int)Math.ceil(2 * length / cellSize);
+		boolean leaving = true;
+		for(int i=0; i<=steps; i++){
+			double t = (steps == 0) ? 1 : (double)i / steps;
+			boolean clear = isClear(fromX + t * (toX - fromX), fromY + t * (toY - fromY));
+			if(clear)
+				leaving = false;
+			else if(!leaving)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Starts a new search towards a destination
+	 */
+	private void reset(int to, int from){
+		queue.clear();
+		for(int cell=0; cell<blocked.length; cell++){
+			blocked[cell] = isBlocked(cell);
+			g[cell] = rhs[cell] = INFINITY;
+			open[cell] = false;
+		}
+		km = 0;
+		goal = to;
+		lastStart = start = from;
+		rhs[goal] = 0;
+		push(goal);
+	}
+
+	/*
+	 * Expands the cells of the open list in order until the start's cost is known
+	 */
+	private void search(){
+		while(true){
+			Entry top = peek();
+			if(top == null)
+				break;
+			int startKey1 = Math.min(g[start], rhs[start]) + km, startKey2 = Math.min(g[start], rhs[start]);
+			boolean before = top.key1 < startKey1 || (top.key1 == startKey1 && top.key2 < startKey2);
+			if(!before && rhs[start] == g[start])
+				break;
+			queue.poll();
+			open[top.cell] = false;
+			int cell = top.cell;
+			int new1 = Math.min(g[cell], rhs[cell]) + heuristic(start, cell) + km, new2 = Math.min(g[cell], rhs[cell]);
+			expanded++;
+			if(top.key1 < new1 || (top.key1 == new1 && top.key2 < new2)){
+				push(cell);
+			}
+			else if(g[cell] > rhs[cell]){
+				g[cell] = rhs[cell];
+				for(int i=0; i<NEIGHBOR_COLS.length; i++){
+					int neighbor = neighbor(cell, i);
+					if(neighbor >= 0)
+						updateCell(neighbor);
+				}
+			}
+			else{
+				g[cell] = INFINITY;
+				updateCell(cell);
+				for(int i=0; i<NEIGHBOR_COLS.length; i++){
+					int neighbor = neighbor(cell, i);
+					if(neighbor >= 0)
+						updateCell(neighbor);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Recomputes the cost to the destination of a cell from its neighbors', and opens it if it
+	 * no longer matches the one it was expanded with
+	 */
+	private void updateCell(int cell){
+		if(cell != goal){
+			int best = INFINITY;
+			for(int i=0; i<NEIGHBOR_COLS.length; i++){
+				int neighbor = neighbor(cell, i);
+				if(neighbor >= 0)
+					best = Math.min(best, Math.min(INFINITY, cost(cell, i) + g[neighbor]));
+			}
+			rhs[cell] = best;
+		}
+		open[cell] = false;
+		if(g[cell] != rhs[cell])
+			push(cell);
+	}
+
+	/*
+	 * Returns the cost of moving from a cell to one of its neighbors: the distance between their
+	 * centers, in tenths of a cell, or INFINITY if the neighbor is blocked or if the move cuts the
+	 * corner of a blocked cell
+	 */
+	private int cost(int cell, int direction){
+		int col = cell % size, row = cell / size;
+		int dc = NEIGHBOR_COLS[direction], dr = NEIGHBOR_ROWS[direction];
+		if(blocked[(row + dr) * size + col + dc])
+			return INFINITY;
+		if(dc != 0 && dr != 0){
+			if(blocked[row * size + col + dc] || blocked[(row + dr) * size + col])
+				return INFINITY;
+			return DIAGONAL;
+		}
+		return STRAIGHT;
+	}
+
+	/*
+	 * Returns the octile distance between two cells: the cost of the shortest route between them
+	 * on an empty field
+	 */
+	private int heuristic(int a, int b){
+		int dc = Math.abs(a % size - b % size), dr = Math.abs(a / size - b / size);
+		return STRAIGHT * Math.max(dc, dr) + (DIAGONAL - STRAIGHT) * Math.min(dc, dr);
+	}
+
+	/*
+	 * Opens a cell with its current key
+	 */
+	private void push(int cell){
+		int k2 = Math.min(g[cell], rhs[cell]);
+		key1[cell] = k2 + heuristic(start, cell) + km;
+		key2[cell] = k2;
+		open[cell] = true;
+		queue.add(new Entry(key1[cell], key2[cell], cell));
+	}
+
+	/*
+	 * Returns the open entry with the lowest key, dropping those that are no longer current
+	 */
+	private Entry peek(){
+		Entry top = queue.peek();
+		while(top != null && (!open[top.cell] || top.key1 != key1[top.cell] || top.key2 != key2[top.cell])){
+			queue.poll();
+			top = queue.peek();
+		}
+		return top;
+	}
+
+	/*
+	 * Follows the cheapest neighbors from the start to the destination, then keeps only the
+	 * cells a straight line from the previous waypoint cannot reach. Returns null if the costs
+	 * do not lead down to the destination, rather than a route that goes back and forth.
+	 */
+	private double[][] route(double fromX, double fromY, double toX, double toY){
+		ArrayList<double[]> cells = new ArrayList<double[]>();
+		int cell = start;
+		while(cell != goal && cells.size() < blocked.length){
+			int next = -1, best = INFINITY;
+			for(int i=0; i<NEIGHBOR_COLS.length; i++){
+				int neighbor = neighbor(cell, i);
+				if(neighbor >= 0 && cost(cell, i) < INFINITY && cost(cell, i) + g[neighbor] < best){
+					best = cost(cell, i) + g[neighbor];
+					next = neighbor;
+				}
+			}
+			if(next < 0 || g[next] >= g[cell])
+				return null;
+			cell = next;
+			cells.add((cell == goal) ? new double[] {toX, toY} : new double[] {center(cell % size), center(cell / size)});
+		}
+		if(cells.isEmpty())
+			cells.add(new double[] {toX, toY});
+
+		ArrayList<double[]> waypoints = new ArrayList<double[]>();
+		double[] from = {fromX, fromY};
+		int i = 0;
+		while(i < cells.size()){
+			//The farthest cell of the route a straight line reaches
+			int farthest = cells.size() - 1;
+			while(farthest > i && !isSegmentClear(from[0], from[1], cells.get(farthest)[0], cells.get(farthest)[1]))
+				farthest--;
+			from = cells.get(farthest);
+			waypoints.add(from);
+			i = farthest + 1;
+		}
+		return waypoints.toArray(new double[waypoints.size()][]);
+	}
+
+	/*
+	 * Returns true if the robot, centered on a cell, would overlap an obstacle or the keep out zone
+	 */
+	private boolean isBlocked(int cell){
+		return !isClear(center(cell % size), center(cell / size));
+	}
+
+	/*
+	 * Returns true if the robot, centered on a point, would not overlap an obstacle or the keep out zone
+	 */
+	private boolean isClear(double x, double y){
+		double[] zone = keepOut;
+		if(zone != null && x > zone[0] - clearance && x < zone[2] + clearance
+				&& y > zone[3] - clearance && y < zone[1] + clearance)
+			return false;
+		return grid.isClear(x, y, clearance);
+	}
+
+	/*
+	 * Returns one of the eight neighbors of a cell, or -1 if it is off the field
+	 */
+	private int neighbor(int cell, int direction){
+		int col = cell % size + NEIGHBOR_COLS[direction], row = cell / size + NEIGHBOR_ROWS[direction];
+		if(col < 0 || row < 0 || col >= size || row >= size)
+			return -1;
+		return row * size + col;
+	}
+
+	/*
+	 * Returns the cell holding a point, or -1 if it is off the field
+	 */
+	private int cell(double x, double y){
+		int col = (int)Math.floor((x - FIELD_LOW) / cellSize), row = (int)Math.floor((y - FIELD_LOW) / cellSize);
+		if(col < 0 || row < 0 || col >= size || row >= size)
+			return -1;
+		return row * size + col;
+	}
+
+	/*
+	 * Returns the coordinate of the center of a column, or of a row
+	 */
+	private double center(int column){
+		return FIELD_LOW + (column + 0.5) * cellSize;
+	}
+}
@@ -0,0 +1,168 @@
+package dpm.navigation;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Motors;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * UltrasonicSweep swings the ultrasonic sensor on the SENSOR motor back and forth without
+ * stopping, and turns the readings taken on the way into PolarScans.
+ * <br>Each reading is tagged with the servo's angle and the robot's pose at the time it was
+ * taken, is offered to the odometer as a possible field wall, and is mapped into the
+ * occupancy grid. Each time the servo reaches one end of its range, the readings of the
+ * half sweep are published as a complete scan. A published scan is valid until the next one
+ * is published; then it is emptied and filled again.
+ * Consumers take the latest scan instead of turning the sensor and waiting for a reading.
+ * <br>While it is not sweeping, the servo faces forward, and the sensor can be used as before.
+ *
+ * @author Samuel Genois
+ */
+public class UltrasonicSweep extends Thread implements DPMConstants {
+
+	private static final int	SWEEP_ANGLE = 60,			//Half the sweep, in degrees
+								SWEEP_SPEED = 240,			//In degrees/s
+								END_TOLERANCE = 3,			//How close to the end of the sweep the servo turns back, in degrees
+								CAPACITY = 64;				//Readings per scan; a half sweep takes about 16
+
+	private final RegulatedMotor servo;
+	private final SensorChannel usSensor;
+	private final float[] usData;
+	private final double[] position = new double[3];		//The pose of each reading is read into it
+	//The sweep fills one scan while the other is published, so no scan is allocated while sweeping
+	private final PolarScan[] scans = {new PolarScan(CAPACITY), new PolarScan(CAPACITY)};
+	private final Object lock = new Object();
+
+	private volatile PolarScan latest;
+	private volatile boolean sweeping;
+	private boolean centered = true;						//Guarded by lock
+
+	/**
+	 * Constructor. The thread waits until startSweeping is called.
+	 */
+	public UltrasonicSweep(){
+		servo = Motors.getMotor(Motors.SENSOR);
+		//Every rotation of the servo is made at the sweep's speed
+		Motors.setRotationSpeed(servo, SWEEP_SPEED);
+		usSensor = SensorHub.getChannel(US_ACTIVE);
+		usData = new float[usSensor.sampleSize()];
+		setDaemon(true);
+		this.start();
+	}
+
+	/**
+	 * The run method of the sweep. Swings the servo from one end of its range to the other,
+	 * filling a scan with the readings taken on the way, and publishes it at each end.
+	 */
+	@Override
+	public void run(){
+		int target = SWEEP_ANGLE, next = 0;
+		while(true){
+			synchronized(lock){
+				while(!sweeping){
+					if(!centered){
+						servo.rotateTo(0);
+						latest = null;
+						centered = true;
+						lock.notifyAll();
+					}
+					try{lock.wait();}catch(InterruptedException e){}
+				}
+				centered = false;
+			}
+
+			//A half sweep started from the center only covers one side, so it is not published
+			boolean complete = Math.abs(servo.getTachoCount() + target) <= END_TOLERANCE;
+			servo.rotateTo(target, true);
+			int direction = (target > 0) ? 1 : -1;
+			//Never the published scan, which consumers may still be reading
+			PolarScan scan = scans[next];
+			if(scan == latest)
+				scan = scans[next = 1 - next];
+			scan.clear();
+			while(sweeping){
+				long time = usSensor.awaitNext(usData, US_TIMEOUT);
+				//The servo kept turning since the reading was taken
+				float angle = servo.getTachoCount() - direction * SWEEP_SPEED * (System.nanoTime() - time) / 1e9f;
+				float range = usData[0] * 100;
+				Repository.getPoseAt(time, position);
+				scan.add(angle, range, position[0], position[1], position[2], time);
+				Repository.observeWallRange(range, angle, time);
+				Repository.mapRange(range, angle, time);
+				if(Math.abs(servo.getTachoCount() - target) <= END_TOLERANCE)
+					break;
+			}
+			if(sweeping){
+				if(complete){
+					latest = scan;
+					next = 1 - next;
+					synchronized(lock){
+						lock.notifyAll();
+					}
+				}
+				target = -target;
+			}
+		}
+	}
+
+	/**
+	 * Starts swinging the sensor
+	 */
+	public void startSweeping(){
+		synchronized(lock){
+			sweeping = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Stops swinging the sensor, and returns once it faces forward again
+	 */
+	public void stopSweeping(){
+		synchronized(lock){
+			sweeping = false;
+			lock.notifyAll();
+			while(!centered){
+				try{lock.wait();}catch(InterruptedException e){}
+			}
+		}
+	}
+
+	/**
+	 * Returns true while the sensor is being swung
+	 * @return true if sweeping
+	 */
+	public boolean isSweeping(){
+		return sweeping;
+	}
+
+	/**
+	 * Returns the latest complete scan. If none is complete yet since the sweep started,
+	 * waits for the first one.
+	 *
+	 * @return the latest scan, or null if the sensor is not being swung
+	 */
+	public PolarScan getScan(){
+		PolarScan scan = latest;
+		if(scan != null || !sweeping)
+			return scan;
+		return awaitScan(null);
+	}
+
+	/**
+	 * Waits for the next complete scan
+	 *
+	 * @param previous the scan the caller already has, or null
+	 * @return the next scan, or null if the sensor stopped being swung
+	 */
+	public PolarScan awaitScan(PolarScan previous){
+		synchronized(lock){
+			while(sweeping && (latest == null || latest == previous)){
+				try{lock.wait();}catch(InterruptedException e){}
+			}
+			return sweeping ? latest : null;
+		}
+	}
+}
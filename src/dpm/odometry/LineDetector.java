@@ -0,0 +1,242 @@
+package dpm.odometry;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dpm.util.DPMConstants;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
+
+/**
+ * LineDetector follows every sample of the odometry correction light sensor, taken by
+ * the SensorHub, and finds the grid lines the sensor crosses. A LineScheduler sets the hub's
+ * sampling period for the sensor: fast while a line may be under the sensor, slow otherwise.
+ * <br>Instead of a fixed threshold, it keeps running baselines of the floor's and the
+ * lines' reflection, so changes in ambient light shift both thresholds with them.
+ * A line starts when the reflection falls below the upper threshold and is confirmed
+ * once it falls below the lower one; it ends when the reflection rises back above the
+ * upper threshold. The entry and exit times are interpolated between samples at the
+ * same level, so their midpoint is the time the sensor was over the line's center.
+ * <br>The detector also follows the odometer to count the lines the sensor should have
+ * crossed but did not see, and rejects the dark patches the scheduler did not expect.
+ *
+ * @author Samuel Genois
+ *
+ */
+public class LineDetector extends Thread implements DPMConstants {
+
+	private static final float	FLOOR_WEIGHT = 0.01f,			//Weight of each floor sample in the floor baseline
+								LINE_WEIGHT = 0.25f,			//Weight of each line in the line baseline
+								DEFAULT_DEPTH = 0.5f,			//Assumed depth of the lines until one is seen, as a fraction of the floor
+								MIN_DEPTH = 0.15f,				//Least depth of the line baseline, as a fraction of the floor
+								UPPER_LEVEL = 0.3f,				//Thresholds, as fractions of the way from the floor to the line baseline
+								LOWER_LEVEL = 0.6f;
+	private static final double	MATCH_DISTANCE = 5.0;			//Largest travel between an expected and a detected line, in cm
+
+	private final Odometer odometer;
+	private final LineScheduler scheduler;
+	private final SensorChannel sensor;
+	private final float[] sensorData;
+	private final CopyOnWriteArrayList<LineListener> listeners = new CopyOnWriteArrayList<LineListener>();
+
+	//Only ever touched by the detector thread
+	private float floor, line, lastValue, minimum;
+	private long lastTime, entryTime;
+	private int samplingPeriod;
+	private boolean entering, onLine;
+	private double lastX, lastY, travel, lastLineTravel = Double.NEGATIVE_INFINITY, expectedTravel = Double.NaN;
+
+	private volatile int detected, missed, rejected;
+
+	/**
+	 * Constructor
+	 *
+	 * @param odometer the odometer followed to count missed lines
+	 */
+	public LineDetector(Odometer odometer){
+		this.odometer = odometer;
+		this.scheduler = new LineScheduler(odometer);
+		sensor = SensorHub.getChannel(COLOR_ODO_CORR);
+		sensorData = new float[sensor.sampleSize()];
+		setDaemon(true);
+		this.start();
+	}
+
+	/**
+	 * The run method of the line detector. Takes each new light sample,
+	 * follows the reflection through the floor and line states,
+	 * and keeps track of the lines expected from the odometer.
+	 */
+	@Override
+	public void run(){
+		Pose pose = odometer.getPose();
+		lastX = pose.getX();
+		lastY = pose.getY();
+		lastTime = sensor.awaitNext(sensorData, COLOR_TIMEOUT);
+		floor = lastValue = sensorData[0];
+		line = floor * (1 - DEFAULT_DEPTH);
+
+		while(true){
+			int period = scheduler.choosePeriod();
+			if(period != samplingPeriod){
+				SensorHub.setPeriod(COLOR_ODO_CORR, period);
+				samplingPeriod = period;
+			}
+			long time = sensor.awaitNext(sensorData, COLOR_TIMEOUT);
+			if(time == lastTime)
+				continue;
+			detect(sensorData[0], time);
+			expect(odometer.getPose());
+		}
+	}
+
+	/*
+	 * Moves through the floor and line states with a new sample
+	 */
+	private void detect(float value, long time){
+		float	contrast = floor - line,
+				upper = floor - UPPER_LEVEL * contrast,
+				lower = floor - LOWER_LEVEL * contrast;
+
+		if(!onLine){
+			if(value < upper){
+				//Falling edge: the sensor may be entering a line
+				if(!entering){
+					entering = true;
+					entryTime = crossingTime(lastValue, lastTime, value, time, upper);
+					minimum = value;
+				}
+				minimum = Math.min(minimum, value);
+				if(value < lower)
+					onLine = true;
+			}
+			else{
+				//Back on the floor. If the dip never reached the lower threshold, it was noise.
+				entering = false;
+				floor += FLOOR_WEIGHT * (value - floor);
+				line = Math.min(line, floor * (1 - MIN_DEPTH));
+			}
+		}
+		else{
+			minimum = Math.min(minimum, value);
+			if(value > upper){
+				//Rising edge: the sensor left the line
+				long exitTime = crossingTime(lastValue, lastTime, value, time, upper);
+				onLine = false;
+				entering = false;
+				LineEvent event = new LineEvent(entryTime, exitTime, (floor - minimum) / floor);
+				//A dark patch where no line can be is not a line, and must not skew the line baseline
+				if(scheduler.isExpected(event.getTime())){
+					line += LINE_WEIGHT * (minimum - line);
+					line = Math.min(line, floor * (1 - MIN_DEPTH));
+					publish(event);
+				}
+				else
+					rejected++;
+			}
+		}
+		lastValue = value;
+		lastTime = time;
+	}
+
+	/*
+	 * Returns the time at which the reflection crossed a level between two samples
+	 */
+	private static long crossingTime(float value0, long time0, float value1, long time1, float level){
+		if(value0 == value1)
+			return time1;
+		double fraction = (value0 - level) / (value0 - value1);
+		fraction = Math.max(0.0, Math.min(1.0, fraction));
+		return time0 + (long)(fraction * (time1 - time0));
+	}
+
+	/*
+	 * Follows the odometer to find the lines the sensor should be crossing. A line not
+	 * detected within MATCH_DISTANCE of travel, before or after, is counted as missed.
+	 */
+	private void expect(Pose pose){
+		double x = pose.getX(), y = pose.getY();
+		travel += Math.hypot(x - lastX, y - lastY);
+
+		if(crossesLine(lastX, x) || crossesLine(lastY, y)){
+			//Unless a line was just detected, or another crossing is already expected
+			//(an intersection), a line should be detected soon
+			if(travel - lastLineTravel > MATCH_DISTANCE && Double.isNaN(expectedTravel))
+				expectedTravel = travel;
+		}
+		if(!Double.isNaN(expectedTravel) && travel - expectedTravel > MATCH_DISTANCE){
+			missed++;
+			expectedTravel = Double.NaN;
+		}
+		lastX = x;
+		lastY = y;
+	}
+
+	/*
+	 * Returns true if a grid line lies between two coordinates
+	 */
+	private static boolean crossesLine(double from, double to){
+		double	before = Math.floor(from / SQUARE_SIZE),
+				after = Math.floor(to / SQUARE_SIZE),
+				line = Math.max(before, after);
+		return before != after && line >= 0 && line <= 10;
+	}
+
+	/*
+	 * Counts a detected line and tells the listeners about it
+	 */
+	private void publish(LineEvent event){
+		detected++;
+		lastLineTravel = travel;
+		expectedTravel = Double.NaN;
+		for(LineListener listener : listeners)
+			listener.lineDetected(event);
+	}
+
+	/**
+	 * Registers a listener to be told about every detected line
+	 * @param listener the listener to register
+	 */
+	public void addListener(LineListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with addListener
+	 * @param listener the listener to unregister
+	 */
+	public void removeListener(LineListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the number of lines detected so far
+	 * @return the number of detected lines
+	 */
+	public int getLinesDetected(){
+		return detected;
+	}
+
+	/**
+	 * Returns the number of lines the odometer says the sensor crossed, but which were not detected
+	 * @return the number of missed lines
+	 */
+	public int getLinesMissed(){
+		return missed;
+	}
+
+	/**
+	 * Returns the number of dark patches rejected because no line was expected there
+	 * @return the number of rejected lines
+	 */
+	public int getLinesRejected(){
+		return rejected;
+	}
+
+	/**
+	 * Returns the fraction of the time the sensor was sampled at the fast period
+	 * @return the fraction of fast sampling, between 0 and 1
+	 */
+	public double getFastFraction(){
+		return scheduler.getFastFraction();
+	}
+}
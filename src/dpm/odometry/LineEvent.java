@@ -0,0 +1,57 @@
+package dpm.odometry;
+
+/**
+ * An immutable description of one grid line crossed by the light sensor, as published by the LineDetector.
+ *
+ * @author Samuel Genois
+ */
+public final class LineEvent {
+
+	private final long entryTime, exitTime;
+	private final float depth;
+
+	/**
+	 * Constructor
+	 *
+	 * @param entryTime the time at which the sensor entered the line, as given by System.nanoTime()
+	 * @param exitTime the time at which the sensor left the line, as given by System.nanoTime()
+	 * @param depth how much darker than the floor the line was, as a fraction of the floor's reflection
+	 */
+	public LineEvent(long entryTime, long exitTime, float depth){
+		this.entryTime = entryTime;
+		this.exitTime = exitTime;
+		this.depth = depth;
+	}
+
+	/**
+	 * Returns the time at which the sensor was over the center of the line
+	 * @return the time of the line's center, as given by System.nanoTime()
+	 */
+	public long getTime(){
+		return entryTime + (exitTime - entryTime)/2;
+	}
+
+	/**
+	 * Returns the time at which the sensor entered the line
+	 * @return the entry time, as given by System.nanoTime()
+	 */
+	public long getEntryTime(){
+		return entryTime;
+	}
+
+	/**
+	 * Returns the time at which the sensor left the line
+	 * @return the exit time, as given by System.nanoTime()
+	 */
+	public long getExitTime(){
+		return exitTime;
+	}
+
+	/**
+	 * Returns how much darker than the floor the line was
+	 * @return the depth of the line, as a fraction of the floor's reflection
+	 */
+	public float getDepth(){
+		return depth;
+	}
+}
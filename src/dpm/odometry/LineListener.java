@@ -0,0 +1,18 @@
+package dpm.odometry;
+
+/**
+ * Interface for objects that want to be told about every grid line the LineDetector finds.
+ * <br>Listeners are called from the detector's thread, so they must return quickly
+ * to avoid missing the next line.
+ *
+ * @author Samuel Genois
+ */
+public interface LineListener {
+
+	/**
+	 * Called when the light sensor has finished crossing a grid line
+	 *
+	 * @param event the detected line
+	 */
+	public void lineDetected(LineEvent event);
+}
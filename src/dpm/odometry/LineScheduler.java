@@ -0,0 +1,128 @@
+package dpm.odometry;
+
+import dpm.util.DPMConstants;
+
+/**
+ * LineScheduler predicts, from the odometer's pose, velocity and uncertainty, when the
+ * light sensor will next cross a grid line, so the LineDetector samples quickly only
+ * around that time.
+ * <br>Around each line lies a window as wide as the odometer's position could be wrong.
+ * While the sensor is in a window, the detector samples at the fast period; outside, it
+ * samples at the slow period, but never sleeps past the start of the next window.
+ * When the odometer is too uncertain to predict anything, every sample is fast.
+ * <br>Dark readings outside of every window cannot be grid lines, so they are rejected.
+ * <br>Not thread safe: only the detector's thread uses it.
+ *
+ * @author Samuel Genois
+ */
+public class LineScheduler implements DPMConstants {
+
+	private static final int	FAST_PERIOD = 2,				//In ms
+								SLOW_PERIOD = 25;
+	private static final double	WINDOW_MARGIN = 2.0,			//Half the line's width plus the sensor's spot, in cm
+								SIGMAS = 3.0,					//Width of the windows, in standard deviations of the position
+								MAX_MARGIN = SQUARE_SIZE / 3,	//Beyond this, the windows cover most of the field
+								MIN_SPEED = 0.5;				//Below this, the robot is not moving towards any line, in cm/s
+
+	private final Odometer odometer;
+	private final double[] deviations = new double[3];
+
+	private volatile long fastTime, slowTime;			//Time spent at each period, in ms
+
+	/**
+	 * Constructor
+	 *
+	 * @param odometer the odometer the predictions come from
+	 */
+	public LineScheduler(Odometer odometer){
+		this.odometer = odometer;
+	}
+
+	/**
+	 * Returns the period until the next sample, according to how soon the
+	 * sensor may reach a grid line
+	 *
+	 * @return the sampling period, in ms
+	 */
+	public int choosePeriod(){
+		Pose pose = odometer.getPose();
+		double margin = margin();
+		int period;
+		if(margin > MAX_MARGIN || inWindow(pose, margin))
+			period = FAST_PERIOD;
+		else{
+			//Time until the sensor enters the nearest window ahead
+			double speed = Math.abs(pose.getVelocity());
+			if(speed < MIN_SPEED)
+				period = SLOW_PERIOD;
+			else{
+				double	heading = Math.toRadians(pose.getAng()),
+						direction = Math.signum(pose.getVelocity()),
+						toWindow = Math.min(distanceToWindow(pose.getX(), direction * Math.cos(heading), margin),
+											distanceToWindow(pose.getY(), direction * Math.sin(heading), margin));
+				period = (int)Math.max(FAST_PERIOD, Math.min(SLOW_PERIOD, 1000 * toWindow / speed));
+			}
+		}
+		if(period == FAST_PERIOD)
+			fastTime += period;
+		else
+			slowTime += period;
+		return period;
+	}
+
+	/**
+	 * Returns true if the sensor was in the window of a grid line at the specified time
+	 *
+	 * @param time the time to check, as given by System.nanoTime()
+	 * @return true if a grid line could be under the sensor at that time
+	 */
+	public boolean isExpected(long time){
+		double margin = margin();
+		return margin > MAX_MARGIN || inWindow(odometer.getPoseAt(time), margin);
+	}
+
+	/**
+	 * Returns the fraction of the time spent sampling at the fast period
+	 * @return the fraction of fast sampling, between 0 and 1
+	 */
+	public double getFastFraction(){
+		return (fastTime + slowTime == 0) ? 1.0 : (double)fastTime / (fastTime + slowTime);
+	}
+
+	/*
+	 * Returns how far from a line the odometer could place the sensor while it is on the line
+	 */
+	private double margin(){
+		odometer.getUncertainty(deviations);
+		return SIGMAS * Math.max(deviations[0], deviations[1]) + WINDOW_MARGIN;
+	}
+
+	/*
+	 * Returns true if a pose lies within the margin of a vertical or horizontal line
+	 */
+	private static boolean inWindow(Pose pose, double margin){
+		return Math.abs(pose.getX() - nearestLine(pose.getX())) < margin
+				|| Math.abs(pose.getY() - nearestLine(pose.getY())) < margin;
+	}
+
+	/*
+	 * Returns the distance to travel before the coordinate enters the window of the next
+	 * line in the direction of travel, given the component of the direction along the axis
+	 */
+	private static double distanceToWindow(double coordinate, double component, double margin){
+		if(Math.abs(component) < 1e-3)
+			return Double.POSITIVE_INFINITY;
+		double next = (component > 0) ? Math.ceil(coordinate / SQUARE_SIZE) * SQUARE_SIZE
+									: Math.floor(coordinate / SQUARE_SIZE) * SQUARE_SIZE;
+		if(next < 0 || next > 10 * SQUARE_SIZE)
+			return Double.POSITIVE_INFINITY;
+		return Math.max(0.0, (Math.abs(next - coordinate) - margin) / Math.abs(component));
+	}
+
+	/*
+	 * Returns the coordinate of the grid line nearest to the specified coordinate
+	 */
+	private static double nearestLine(double coordinate){
+		return Math.max(0, Math.min(10, Math.round(coordinate / SQUARE_SIZE))) * SQUARE_SIZE;
+	}
+}
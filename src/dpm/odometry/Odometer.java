@@ -1,7 +1,8 @@
 package dpm.odometry;
 
-import lejos.utility.Timer;
-import lejos.utility.TimerListener;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import dpm.util.DPMConstants;
 import dpm.util.Motors;
 import lejos.robotics.RegulatedMotor;
 
@@ -34,15 +35,52 @@ import lejos.robotics.RegulatedMotor;
  * The odometer is initalized to 90 degrees, assuming the robot is facing up the positive y-axis
  * 
  */
-public class Odometer implements TimerListener {
+public class Odometer implements DPMConstants {
 
-	private Timer timer;
+	private OdometryEngine engine;
 	private RegulatedMotor leftMotor, rightMotor;
 	private static final int	DEFAULT_TIMEOUT_PERIOD = 20,
-								DEFAULT_INTERVAL = 30;
-	public double leftRadius, rightRadius, width;
-	private double x, y, theta;
-	private double[] oldDH, dDH;
+								DEFAULT_INTERVAL = 30,
+								HISTORY_SIZE = 64;						//About 1.3 s of updates at 20 ms
+	private static final long	MAX_EXTRAPOLATION = 100000000l;			//Furthest getPoseAt predicts ahead, in ns
+	private static final double	GATE = 9.0,								//Largest accepted squared Mahalanobis distance (3 sigma)
+								LINE_VARIANCE = 1.0,					//Variance of a grid line observation, in cm^2
+								US_OFFSET = 8.0,						//Distance from the center of the robot to the ultrasonic sensor, in cm
+								US_MIN_RANGE = 5.0,
+								US_MAX_RANGE = 150.0,					//Beyond this, ranges are too noisy to be useful
+								US_MIN_INCIDENCE = 0.8,					//Smallest cosine between the beam and the normal of the wall
+								WALL_LOW = -SQUARE_SIZE,				//Coordinates of the field walls
+								WALL_HIGH = 11 * SQUARE_SIZE;
+	private volatile double leftRadius, rightRadius, width;
+	
+	//Online refinement of the wheel geometry. Only active while the geometry in use comes from it.
+	private final WheelCalibration calibration = WheelCalibration.load();
+	private boolean calibrating;
+	private double straightTravel, spinTravel;								//Signed wheel rotation since the last heading correction, in degrees
+	
+	//Distance travelled (cm) and rotation turned (degrees) since startup, never corrected. Guarded by writeLock.
+	private double travelled, rotated;
+	
+	//Only ever touched by the engine thread
+	private int lastLeftTacho, lastRightTacho;
+	private long lastUpdate;
+	
+	//The latest pose. Readers only ever dereference it, so they never
+	//block the timer; writers replace it while holding writeLock.
+	private volatile Pose pose;
+	//Corrections accepted since the pose was published. The engine's next update publishes them,
+	//so a correction allocates nothing. Guarded by writeLock.
+	private double pendingX, pendingY, pendingTheta;
+	private final Object writeLock = new Object();
+	private final PoseHistory history = new PoseHistory(HISTORY_SIZE);
+	
+	//The uncertainty of the pose, and scratch arrays for its observations. Guarded by writeLock.
+	private final PoseEstimator estimator = new PoseEstimator();
+	private final double[] jacobian = new double[3], correction = new double[3], past = new double[3];
+	
+	private final OdometryCorrection lineCorrection;
+	private final CopyOnWriteArrayList<PoseListener> listeners = new CopyOnWriteArrayList<PoseListener>();
+	private final CopyOnWriteArrayList<PoseCondition> conditions = new CopyOnWriteArrayList<PoseCondition>();
 	
 	/**
 	 * Constructor
@@ -53,82 +91,185 @@ public class Odometer implements TimerListener {
 	
 	/**
 	 * Alternative constructor
+	 * 
+	 * @param INTERVAL the longest period between updates, in ms, used when the robot is idle
 	 */
 	public Odometer (RegulatedMotor leftMotor, RegulatedMotor rightMotor, int INTERVAL, boolean autostart) {
 		
 		this.leftMotor = leftMotor;
 		this.rightMotor = rightMotor;
 		
-		// default values, modify for your robot
-		this.rightRadius = 2.14;
-		this.leftRadius = 2.14;
-		this.width = 12.9;
+		// calibrated values, refined while the robot runs
+		useCalibration();
 		
-		this.x = 0.0;
-		this.y = 0.0;
-		this.theta = 90.0;
-		this.oldDH = new double[2];
-		this.dDH = new double[2];
+		this.lastLeftTacho = leftMotor.getTachoCount();
+		this.lastRightTacho = rightMotor.getTachoCount();
+		this.lastUpdate = System.nanoTime();
+		this.pose = new Pose(0.0, 0.0, 90.0, lastUpdate);
+		this.history.record(pose);
 
 		if (autostart) {
 			// if the timeout interval is given as <= 0, default to 20ms timeout 
-			this.timer = new Timer((INTERVAL <= 0) ? INTERVAL : DEFAULT_TIMEOUT_PERIOD, this);
-			this.timer.start();
+			this.engine = new OdometryEngine(this, (INTERVAL <= 0) ? DEFAULT_TIMEOUT_PERIOD : INTERVAL);
+			this.engine.start();
 		} else
-			this.timer = null;
-		new OdometryCorrection(this);
+			this.engine = null;
+		this.lineCorrection = new OdometryCorrection(this);
+	}
+	
+	/**
+	 * Returns the detector that finds the grid lines used to correct the odometer
+	 * @return the line detector
+	 */
+	public LineDetector getLineDetector() {
+		return lineCorrection.getDetector();
 	}
 	
-	// functions to start/stop the timerlistener
+	// functions to pause/resume the odometry engine
 	/**
-	 * Stops the TimerListener
+	 * Stops updating the odometer
 	 */
 	public void stop() {
-		if (this.timer != null)
-			this.timer.stop();
+		if (this.engine != null)
+			this.engine.pause();
+		synchronized (writeLock) {
+			publishCorrections();
+		}
 	}
 	
 	/**
-	 * Starts the TimerListener
+	 * Resumes updating the odometer
 	 */
 	public void start() {
-		if (this.timer != null)
-			this.timer.start();
+		if (this.engine != null)
+			this.engine.unpause();
 	}
 	
 	/**
-	 * Calculates displacement and heading as title suggests
-	 * 
-	 * @param data
+	 * Returns the rate at which the odometer is actually being updated
+	 * @return the achieved update rate, in Hz
 	 */
-	private void getDisplacementAndHeading(double[] data) {
-		int leftTacho, rightTacho;
-		leftTacho = leftMotor.getTachoCount();
-		rightTacho = rightMotor.getTachoCount();
-
-		data[0] = (leftTacho * leftRadius + rightTacho * rightRadius) * Math.PI / 360.0;
-		data[1] = (rightTacho * rightRadius - leftTacho * leftRadius) / width;
+	public double getUpdateRate() {
+		return (engine == null) ? 0.0 : engine.getAchievedRate();
 	}
 	
 	/**
-	 * Recompute the odometer values using the displacement and heading changes
+	 * Returns the mean deviation between the planned and the actual update periods
+	 * @return the update jitter, in ms
+	 */
+	public double getUpdateJitter() {
+		return (engine == null) ? 0.0 : engine.getJitter();
+	}
+	
+	/**
+	 * Recomputes the odometer values from the tacho counts accumulated since the
+	 * previous update and the time actually elapsed since then. The heading is
+	 * integrated along the arc the wheels describe, so a constant curvature between
+	 * two updates introduces no error however long the period is.
+	 * 
+	 * @param now the time of the update, as given by System.nanoTime()
+	 * @return the speed of the fastest wheel, in degrees/s
 	 */
-	public void timedOut() {
-		this.getDisplacementAndHeading(dDH);
-		dDH[0] -= oldDH[0];
-		dDH[1] -= oldDH[1];
+	double update(long now) {
+		int leftTacho = leftMotor.getTachoCount(),
+			rightTacho = rightMotor.getTachoCount();
+		int dLeft = leftTacho - lastLeftTacho,
+			dRight = rightTacho - lastRightTacho;
+		double dt = (now - lastUpdate) / 1e9;
+		lastLeftTacho = leftTacho;
+		lastRightTacho = rightTacho;
+		lastUpdate = now;
 
-		// update the position in a critical region
-		synchronized (this) {
-			theta += dDH[1];
-			theta = fixDegAngle(theta);
+		double leftRadius = this.leftRadius, rightRadius = this.rightRadius, width = this.width;
+		double distance = (dLeft * leftRadius + dRight * rightRadius) * Math.PI / 360.0;
+		double dTheta = (dRight * rightRadius - dLeft * leftRadius) / width;
 
-			x += dDH[0] * Math.cos(Math.toRadians(theta));
-			y += dDH[0] * Math.sin(Math.toRadians(theta));
+		// publish the new pose, with the pending corrections, in a critical region shared with setPosition
+		synchronized (writeLock) {
+			Pose old = pose;
+			double oldX = old.getX() + pendingX, oldY = old.getY() + pendingY,
+					oldAng = fixDegAngle(old.getAng() + pendingTheta);
+			pendingX = pendingY = pendingTheta = 0;
+			estimator.predict(Math.toRadians(oldAng), dLeft * leftRadius * Math.PI / 180.0,
+								dRight * rightRadius * Math.PI / 180.0, width);
+			straightTravel += (dLeft + dRight) / 2.0;
+			spinTravel += (dRight - dLeft) / 2.0;
+			travelled += Math.abs(distance);
+			rotated += Math.abs(dTheta);
+			double startRad = Math.toRadians(oldAng),
+					dThetaRad = Math.toRadians(dTheta),
+					dx, dy;
+			if (Math.abs(dThetaRad) < 1e-6) {
+				// straight line: midpoint and exact arc are equivalent
+				dx = distance * Math.cos(startRad + dThetaRad / 2);
+				dy = distance * Math.sin(startRad + dThetaRad / 2);
+			} else {
+				double radius = distance / dThetaRad;
+				dx = radius * (Math.sin(startRad + dThetaRad) - Math.sin(startRad));
+				dy = radius * (Math.cos(startRad) - Math.cos(startRad + dThetaRad));
+			}
+			pose = new Pose(oldX + dx, oldY + dy, fixDegAngle(oldAng + dTheta), now,
+							(dt > 0) ? distance / dt : 0.0, (dt > 0) ? dTheta / dt : 0.0);
+			history.record(pose);
 		}
+		notifyPose(pose);
 
-		oldDH[0] += dDH[0];
-		oldDH[1] += dDH[1];
+		return (dt > 0) ? Math.max(Math.abs(dLeft), Math.abs(dRight)) / dt : 0.0;
+	}
+
+	/*
+	 * Pushes a new pose to the listeners and to the threads waiting on a condition
+	 */
+	private void notifyPose(Pose current) {
+		for (PoseListener listener : listeners)
+			listener.poseChanged(current);
+		for (PoseCondition condition : conditions)
+			condition.check(current);
+	}
+	
+	/** Registers a listener to be called after every odometer update
+	 * 
+	 * @param listener the listener to register
+	 */
+	public void addListener(PoseListener listener) {
+		listeners.add(listener);
+	}
+	
+	/** Unregisters a listener
+	 * 
+	 * @param listener the listener to unregister
+	 */
+	public void removeListener(PoseListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/** Blocks the calling thread until the specified condition holds or
+	 * the timeout expires. The condition is evaluated after each odometer
+	 * update, and the calling thread is only woken up once it holds.
+	 * 
+	 * @param condition the condition to wait for
+	 * @param timeout the maximum time to wait, in ms
+	 * @return true if the condition holds, false if the timeout expired first
+	 */
+	public boolean waitFor(PoseCondition condition, long timeout) {
+		condition.reset();
+		conditions.add(condition);
+		try {
+			return condition.await(pose, timeout);
+		} finally {
+			conditions.remove(condition);
+		}
+	}
+
+	/** Returns the latest pose. The returned object is never modified,
+	 * so its x, y and theta values are always consistent with one another.
+	 * The corrections fused by the observe methods show in it from the next
+	 * update of the engine on, while getPoseAt includes them right away.
+	 * 
+	 * @return the latest pose
+	 */
+	public Pose getPose() {
+		return pose;
 	}
 
 	/** Returns the X value
@@ -136,9 +277,7 @@ public class Odometer implements TimerListener {
 	 * @return X value
 	 */
 	public double getX() {
-		synchronized (this) {
-			return x;
-		}
+		return pose.getX();
 	}
 
 	/** Returns the Y value
@@ -146,9 +285,7 @@ public class Odometer implements TimerListener {
 	 * @return Y value
 	 */
 	public double getY() {
-		synchronized (this) {
-			return y;
-		}
+		return pose.getY();
 	}
 
 	/** Returns the theta value
@@ -156,9 +293,7 @@ public class Odometer implements TimerListener {
 	 * @return theta value
 	 */
 	public double getAng() {
-		synchronized (this) {
-			return theta;
-		}
+		return pose.getAng();
 	}
 
 	/** Sets x, y and theta
@@ -167,26 +302,348 @@ public class Odometer implements TimerListener {
 	 * @param update which values to update
 	 */
 	public void setPosition(double[] position, boolean[] update) {
-		synchronized (this) {
-			if (update[0])
-				x = position[0];
-			if (update[1])
-				y = position[1];
-			if (update[2])
-				theta = position[2];
+		synchronized (writeLock) {
+			publishCorrections();
+			Pose old = pose;
+			pose = new Pose(update[0] ? position[0] : old.getX(),
+							update[1] ? position[1] : old.getY(),
+							update[2] ? position[2] : old.getAng(),
+							old.getTimestamp(), old.getVelocity(), old.getAngularVelocity());
+			history.shift(pose.getX() - old.getX(), pose.getY() - old.getY(), pose.getAng() - old.getAng());
+			estimator.reset(update[0], update[1], update[2]);
+		}
+	}
+
+	/** Fuses an observation of the x coordinate (for instance, the crossing of a vertical
+	 * grid line) made at the specified time. The correction is weighted against the
+	 * current uncertainty of the pose, and observations too unlikely to be right are rejected.
+	 * 
+	 * @param x the observed x coordinate
+	 * @param time the time of the observation, as given by System.nanoTime()
+	 * @return true if the observation was accepted
+	 */
+	public boolean observeX(double x, long time) {
+		synchronized (writeLock) {
+			positionAt(time, past);
+			return observe(1, 0, 0, x - past[0], LINE_VARIANCE);
+		}
+	}
+
+	/** Fuses an observation of the y coordinate (for instance, the crossing of a horizontal
+	 * grid line) made at the specified time. The correction is weighted against the
+	 * current uncertainty of the pose, and observations too unlikely to be right are rejected.
+	 * 
+	 * @param y the observed y coordinate
+	 * @param time the time of the observation, as given by System.nanoTime()
+	 * @return true if the observation was accepted
+	 */
+	public boolean observeY(double y, long time) {
+		synchronized (writeLock) {
+			positionAt(time, past);
+			return observe(0, 1, 0, y - past[1], LINE_VARIANCE);
+		}
+	}
+
+	/** Fuses an observation of the heading made at the specified time.
+	 * 
+	 * @param theta the observed heading, in degrees
+	 * @param time the time of the observation, as given by System.nanoTime()
+	 * @param deviation the standard deviation of the observation, in degrees
+	 * @return true if the observation was accepted
+	 */
+	public boolean observeHeading(double theta, long time, double deviation) {
+		synchronized (writeLock) {
+			positionAt(time, past);
+			double innovation = minimumAngleFromTo(past[2], theta);
+			return observe(0, 0, 1, Math.toRadians(innovation), Math.toRadians(deviation) * Math.toRadians(deviation));
+		}
+	}
+
+	/** Fuses an ultrasonic range, taken at the specified time, with the field wall the
+	 * beam is expected to hit. Ranges that do not match a wall (obstacles, blocks, echoes)
+	 * are rejected.
+	 * 
+	 * @param range the measured range, in cm
+	 * @param sensorAngle the angle of the sensor relative to the robot's heading, in degrees
+	 * @param time the time of the observation, as given by System.nanoTime()
+	 * @return true if the observation was accepted
+	 */
+	public boolean observeWallRange(double range, double sensorAngle, long time) {
+		if (range < US_MIN_RANGE || range > US_MAX_RANGE)
+			return false;
+		synchronized (writeLock) {
+			positionAt(time, past);
+			return observeWall(range, Math.toRadians(past[2] + sensorAngle));
+		}
+	}
+
+	/*
+	 * Fuses a range along a beam from the robot's position in past with the wall it points at.
+	 * Must be called while holding writeLock.
+	 */
+	private boolean observeWall(double range, double beam) {
+		double cos = Math.cos(beam),
+				sin = Math.sin(beam);
+
+		//Distance along the beam to the vertical and the horizontal wall it points at
+		double toVertical = Double.POSITIVE_INFINITY, toHorizontal = Double.POSITIVE_INFINITY;
+		double wallX = (cos > 0) ? WALL_HIGH : WALL_LOW,
+				wallY = (sin > 0) ? WALL_HIGH : WALL_LOW;
+		if (Math.abs(cos) > 1e-3)
+			toVertical = (wallX - past[0]) / cos;
+		if (Math.abs(sin) > 1e-3)
+			toHorizontal = (wallY - past[1]) / sin;
+
+		double variance = 4.0 + (0.02 * range) * (0.02 * range);
+		if (toVertical < toHorizontal) {
+			if (Math.abs(cos) < US_MIN_INCIDENCE)
+				return false;
+			return observe(-1 / cos, 0, toVertical * sin / cos,
+							range - (toVertical - US_OFFSET), variance);
+		} else {
+			if (Math.abs(sin) < US_MIN_INCIDENCE)
+				return false;
+			return observe(0, -1 / sin, -toHorizontal * cos / sin,
+							range - (toHorizontal - US_OFFSET), variance);
+		}
+	}
+
+	/** Returns the total distance travelled by the robot, forward or backward, up to
+	 * the specified time. Unlike the pose, it is never corrected, so the difference
+	 * between two readings is the distance the odometer measured between them.
+	 * 
+	 * @param time the time of the reading, as given by System.nanoTime()
+	 * @return the distance travelled since startup, in cm
+	 */
+	public double getTravelledAt(long time) {
+		synchronized (writeLock) {
+			Pose latest = pose;
+			return travelled - Math.abs(latest.getVelocity()) * (latest.getTimestamp() - time) / 1e9;
+		}
+	}
+
+	/** Returns the total rotation turned by the robot in either direction. Like
+	 * getTravelledAt, it is never corrected.
+	 * 
+	 * @return the rotation turned since startup, in degrees
+	 */
+	public double getRotated() {
+		synchronized (writeLock) {
+			return rotated;
 		}
 	}
 
+	/** Puts the standard deviations of x, y (in cm) and theta (in degrees)
+	 * into a provided array
+	 * 
+	 * @param deviations array to put the standard deviations into
+	 */
+	public void getUncertainty(double[] deviations) {
+		synchronized (writeLock) {
+			deviations[0] = Math.sqrt(estimator.variance(0));
+			deviations[1] = Math.sqrt(estimator.variance(1));
+			deviations[2] = Math.toDegrees(Math.sqrt(estimator.variance(2)));
+		}
+	}
+
+	/*
+	 * Gates a scalar observation against the current uncertainty and, if accepted,
+	 * applies the resulting correction to the pose and its history
+	 */
+	private boolean observe(double hx, double hy, double hTheta, double innovation, double variance) {
+		synchronized (writeLock) {
+			jacobian[0] = hx;
+			jacobian[1] = hy;
+			jacobian[2] = hTheta;
+			if (estimator.mahalanobis(jacobian, innovation, variance) > GATE)
+				return false;
+			estimator.update(jacobian, innovation, variance, correction);
+			history.shift(correction[0], correction[1], correction[2]);
+			pendingX += correction[0];
+			pendingY += correction[1];
+			pendingTheta += correction[2];
+			//Without the engine, nothing else would publish the correction
+			if (engine == null || engine.isPaused())
+				publishCorrections();
+			
+			//A heading correction reveals how far the geometry was off for the motion since the previous one
+			if (correction[2] != 0) {
+				if (calibrating && calibration.observeHeadingError(correction[2], straightTravel, spinTravel))
+					applyCalibration();
+				straightTravel = 0;
+				spinTravel = 0;
+			}
+			return true;
+		}
+	}
+
+	/** Refines the wheel radii from a distance between two grid lines. Ignored
+	 * unless the geometry in use comes from the calibration.
+	 * 
+	 * @param ratio the true distance divided by the distance measured by the odometer
+	 */
+	public void observeDistanceRatio(double ratio) {
+		synchronized (writeLock) {
+			if (calibrating && calibration.observeDistanceRatio(ratio))
+				applyCalibration();
+		}
+	}
+
+	/** Sets the wheel geometry. The geometry is no longer refined
+	 * online until useCalibration is called.
+	 * 
+	 * @param leftRadius the radius of the left wheel, in cm
+	 * @param rightRadius the radius of the right wheel, in cm
+	 * @param width the distance between the wheels, in cm
+	 */
+	public void setGeometry(double leftRadius, double rightRadius, double width) {
+		synchronized (writeLock) {
+			calibrating = false;
+			this.leftRadius = leftRadius;
+			this.rightRadius = rightRadius;
+			this.width = width;
+		}
+	}
+
+	/** Returns the mean radius of the wheels the odometer currently uses
+	 * 
+	 * @return the radius, in cm
+	 */
+	public double getWheelRadius() {
+		return (leftRadius + rightRadius) / 2;
+	}
+
+	/** Returns the distance between the wheels the odometer currently uses
+	 * 
+	 * @return the width, in cm
+	 */
+	public double getWidth() {
+		return width;
+	}
+
+	/** Switches to the calibrated wheel geometry, and refines it online from then on.
+	 */
+	public void useCalibration() {
+		synchronized (writeLock) {
+			calibrating = true;
+			straightTravel = 0;
+			spinTravel = 0;
+			applyCalibration();
+		}
+	}
+
+	/** Writes the calibrated wheel geometry to the calibration file, to be loaded at next startup
+	 */
+	public void saveCalibration() {
+		calibration.save();
+	}
+
+	//Must be called while holding writeLock
+	private void applyCalibration() {
+		leftRadius = calibration.getLeftRadius();
+		rightRadius = calibration.getRightRadius();
+		width = calibration.getWidth();
+	}
+
+	/** Adds offsets to x, y and theta in a single update. Unlike setPosition,
+	 * this is safe to use with a correction computed from a past pose (see getPoseAt),
+	 * since the odometer may have moved since then.
+	 * 
+	 * @param dx the offset to add to x
+	 * @param dy the offset to add to y
+	 * @param dTheta the offset to add to theta
+	 */
+	public void shiftPosition(double dx, double dy, double dTheta) {
+		synchronized (writeLock) {
+			pendingX += dx;
+			pendingY += dy;
+			pendingTheta += dTheta;
+			publishCorrections();
+			history.shift(dx, dy, dTheta);
+		}
+	}
+
+	/*
+	 * Publishes a pose with the pending corrections, if there are any. Must be called while holding writeLock.
+	 */
+	private void publishCorrections() {
+		if (pendingX == 0 && pendingY == 0 && pendingTheta == 0)
+			return;
+		Pose old = pose;
+		pose = new Pose(old.getX() + pendingX, old.getY() + pendingY, fixDegAngle(old.getAng() + pendingTheta),
+						old.getTimestamp(), old.getVelocity(), old.getAngularVelocity());
+		pendingX = pendingY = pendingTheta = 0;
+	}
+
+	/** Returns the pose the robot had at the specified time. Times between two
+	 * odometer updates are interpolated, times after the latest update are
+	 * extrapolated from the latest measured velocities (up to a short horizon)
+	 * and times older than the recorded history return the oldest recorded pose.
+	 * 
+	 * @param time the time of interest, as given by System.nanoTime()
+	 * @return the pose of the robot at that time
+	 */
+	public Pose getPoseAt(long time) {
+		Pose latest = pose;
+		if (time - latest.getTimestamp() > 0) {
+			double[] position = new double[3];
+			synchronized (writeLock) {
+				positionAt(time, position);
+			}
+			return new Pose(position[0], position[1], position[2], time,
+							latest.getVelocity(), latest.getAngularVelocity());
+		}
+		synchronized (writeLock) {
+			return history.interpolate(time);
+		}
+	}
+
+	/** Puts the x, y and theta the robot had at the specified time into a provided
+	 * array, like getPoseAt, but without allocating anything
+	 * 
+	 * @param time the time of interest, as given by System.nanoTime()
+	 * @param position array to put x, y and theta values
+	 */
+	public void getPoseAt(long time, double[] position) {
+		synchronized (writeLock) {
+			positionAt(time, position);
+		}
+	}
+
+	/*
+	 * Puts the pose at the specified time, corrections included, into a provided array.
+	 * Must be called while holding writeLock.
+	 */
+	private void positionAt(long time, double[] position) {
+		Pose latest = pose;
+		if (time - latest.getTimestamp() > 0) {
+			extrapolate(latest, time, position);
+			position[0] += pendingX;
+			position[1] += pendingY;
+			position[2] = fixDegAngle(position[2] + pendingTheta);
+		}
+		else
+			history.interpolate(time, position);
+	}
+
+	/*
+	 * Puts the pose reached at the specified time, by keeping the latest pose's velocities, into a provided array
+	 */
+	private static void extrapolate(Pose latest, long time, double[] position) {
+		double dt = Math.min(time - latest.getTimestamp(), MAX_EXTRAPOLATION) / 1e9;
+		double distance = latest.getVelocity() * dt;
+		double theta = latest.getAng() + latest.getAngularVelocity() * dt / 2;
+		position[0] = latest.getX() + distance * Math.cos(Math.toRadians(theta));
+		position[1] = latest.getY() + distance * Math.sin(Math.toRadians(theta));
+		position[2] = fixDegAngle(theta + latest.getAngularVelocity() * dt / 2);
+	}
+
 	/** Puts x, y and theta into a provided array
 	 * 
 	 * @param position array to put x, y and theta values
 	 */
 	public void getPosition(double[] position) {
-		synchronized (this) {
-			position[0] = x;
-			position[1] = y;
-			position[2] = theta;
-		}
+		pose.getPosition(position);
 	}
 
 	/** Returns x, y and theta as an array
@@ -194,8 +651,71 @@ public class Odometer implements TimerListener {
 	 * @param position new x, y and theta values
 	 */
 	public double[] getPosition() {
-		synchronized (this) {
-			return new double[] { x, y, theta };
+		Pose current = pose;
+		return new double[] { current.getX(), current.getY(), current.getAng() };
+	}
+
+	/*
+	 * Fixed-size ring buffer of past poses, stored in primitive arrays so
+	 * recording an update allocates nothing. Guarded by the odometer's writeLock.
+	 */
+	private static class PoseHistory {
+
+		private final long[] times;
+		private final double[] xs, ys, thetas;
+		private int newest = -1, count = 0;
+
+		private PoseHistory(int size) {
+			times = new long[size];
+			xs = new double[size];
+			ys = new double[size];
+			thetas = new double[size];
+		}
+
+		private void record(Pose pose) {
+			newest = (newest + 1) % times.length;
+			times[newest] = pose.getTimestamp();
+			xs[newest] = pose.getX();
+			ys[newest] = pose.getY();
+			thetas[newest] = pose.getAng();
+			if (count < times.length)
+				count++;
+		}
+
+		//Moves the whole history along with a correction so it stays in the corrected frame
+		private void shift(double dx, double dy, double dTheta) {
+			for (int i = 0; i < count; i++) {
+				xs[i] += dx;
+				ys[i] += dy;
+				thetas[i] = fixDegAngle(thetas[i] + dTheta);
+			}
+		}
+
+		private Pose interpolate(long time) {
+			double[] position = new double[3];
+			long found = interpolate(time, position);
+			return new Pose(position[0], position[1], position[2], found);
+		}
+
+		//Puts the pose at the specified time into a provided array, and returns the time actually found
+		private long interpolate(long time, double[] position) {
+			int later = newest;
+			for (int n = 1; n < count; n++) {
+				int earlier = (later - 1 + times.length) % times.length;
+				if (times[earlier] - time <= 0) {
+					double ratio = (times[later] == times[earlier]) ? 1.0
+							: (double) (time - times[earlier]) / (times[later] - times[earlier]);
+					position[0] = xs[earlier] + ratio * (xs[later] - xs[earlier]);
+					position[1] = ys[earlier] + ratio * (ys[later] - ys[earlier]);
+					position[2] = fixDegAngle(thetas[earlier] + ratio * minimumAngleFromTo(thetas[earlier], thetas[later]));
+					return time;
+				}
+				later = earlier;
+			}
+			position[0] = xs[later];
+			position[1] = ys[later];
+			position[2] = thetas[later];
+			return times[later];
 		}
 	}
 
@@ -207,7 +727,6 @@ public class Odometer implements TimerListener {
 		return angle % 360.0;
 	}
 
-	@SuppressWarnings("unused")
 	private static double minimumAngleFromTo(double a, double b) {
 		double d = fixDegAngle(b - a);
 
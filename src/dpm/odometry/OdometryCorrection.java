@@ -1,25 +1,39 @@
 package dpm.odometry;
 
 import dpm.util.DPMConstants;
-import dpm.util.Sensors;
-import lejos.robotics.SampleProvider;
 
 /**
- * OdometryCorrection uses grid lines on the field to correct the odometer's (x,y) position
+ * OdometryCorrection uses grid lines on the field to correct the odometer's (x,y) position,
+ * and through the odometer's covariance, its heading. The lines are found by a LineDetector.
+ * <br>It also remembers the last few lines it identified. Two adjacent parallel lines crossed
+ * on a straight path are SQUARE_SIZE apart across the lines, so the distance the odometer
+ * measured between them gives the angle of the path to the lines: a direct observation of
+ * the heading. When the path is nearly perpendicular to the lines, that angle is too
+ * insensitive to use, and the same distance instead calibrates the wheel radii.
  * 
  * @author Samuel Genois
  *
  */
-public class OdometryCorrection extends Thread implements DPMConstants{
+public class OdometryCorrection implements DPMConstants, LineListener{
 	
-	private static final long POLLING_DELAY = 50l;
-	private static final float LIGHT_THRESHOLD = 0.5f;
-	private static final double CORRECTION_THRESHOLD = 2.0;
-	private static final double REJECTION_THRESHOLD = 5.0;
+	private static final double GATE = 9.0;					//Largest accepted squared normalized distance (3 sigma)
+	private static final double LINE_VARIANCE = 1.0;		//Variance of the line's position under the sensor, in cm^2
+	private static final double AMBIGUITY_MARGIN = 4.0;		//How much less likely the other line must be before correcting
+	private static final double MAX_ROTATION = 5.0;			//Largest rotation between two parallel lines used together, in degrees
+	private static final double MAX_SPACING = 3.5;			//Longest path between two parallel lines used together, in squares
+	private static final double CALIBRATION_ALIGNMENT = 0.97;	//Least |cos| between the path and the lines' normal for calibration
+	private static final double MIN_OBLIQUITY = 0.3;		//Least |sin| between the path and the lines' normal for heading
+	private static final double PATH_DEVIATION = 0.7;		//Deviation of the path measured between two lines, in cm
+	private static final double PATH_SCALE_DEVIATION = 0.01;	//Relative deviation of that path due to the wheel radii
+	private static final int HISTORY_SIZE = 4;
+	private static final int VERTICAL = 1, HORIZONTAL = 2;
 	
 	private final Odometer odometer;
-	private final SampleProvider sensor;
-	private final float[] sensorData;
+	private final LineDetector detector;
+	private final double[] deviations = new double[3];
+	
+	//The last lines observed, oldest first
+	private final Crossing[] crossings = new Crossing[HISTORY_SIZE];
 
 	/**
 	 * Constructor.
@@ -28,100 +42,141 @@ public class OdometryCorrection extends Thread implements DPMConstants{
 	 */
 	public OdometryCorrection(Odometer odometer){
 		this.odometer = odometer;
-		sensor = Sensors.getSensor(Sensors.COLOR_ODO_CORR);
-		sensorData = new float[sensor.sampleSize()];
-		this.start();
+		detector = new LineDetector(odometer);
+		detector.addListener(this);
 	}
 	
 	/**
-	 * The run method of the odometry correction thread. Continuously
-	 * searches for a grid line. When a grid line is found, calculates
-	 * which x or y value the line represents and changes the odometer's
-	 * x or y value to the line's value.
+	 * Returns the detector that finds the grid lines
+	 * @return the line detector
+	 */
+	public LineDetector getDetector(){
+		return detector;
+	}
+	
+	/**
+	 * Called by the line detector for each grid line. Calculates which
+	 * vertical and which horizontal line the robot could be on when it
+	 * was over the center of the line. If one of them is plausible and
+	 * clearly more likely than the other given the odometer's current
+	 * uncertainty, that line is fed to the odometer as an observation
+	 * of x or y, which it weighs against its own estimate.
 	 */
 	@Override
-	public void run(){
-		while(true){
-			sensor.fetchSample(sensorData, 0);
-			
-			if(sensorData[0] < LIGHT_THRESHOLD){
-				
-				boolean increaseX = false, increaseY = false;
-				double xDistanceFromGrid, yDistanceFromGrid;
-				//Get x and y coordinates
-				double	x = odometer.getX(),
-						y = odometer.getY();
-				//Calculate distance from grid
-				//If x-position positive, distance is x-position mod spacing between lines
-				//If this is larger than half the distance between lines, distance is spacing between lines - value calculated above
-				//and set that x will be increased during adjustment, not decreased
-				if(x>0){
-					xDistanceFromGrid = x%SQUARE_SIZE;
-					if(xDistanceFromGrid > SQUARE_SIZE/2){
-						xDistanceFromGrid = SQUARE_SIZE - xDistanceFromGrid;
-						increaseX = true;
-					}
-				}
-				//If x-position negative, only possible distance from a line is negative of x-position
-				else{
-					xDistanceFromGrid = -x;
-				}
-				
-				//Same logic for y coordinate as for x
-				if(y>0){
-					yDistanceFromGrid = y%SQUARE_SIZE;
-					if(yDistanceFromGrid > SQUARE_SIZE/2){
-						yDistanceFromGrid = SQUARE_SIZE - yDistanceFromGrid;
-						increaseY = true;
-					}
-				}
-				else{
-					yDistanceFromGrid = -y;
-				}
-				
-				//If vertical line (x distance from grid is within correction threshold, not y distance): correct x coordinate
-				if(xDistanceFromGrid < CORRECTION_THRESHOLD && yDistanceFromGrid > REJECTION_THRESHOLD){
-						if(x>0){
-							//If x was not set to be increased, decrease it to the position of the previous vertical line
-							if (!increaseX){
-								odometer.setPosition(new double[] {Math.floor(x/SQUARE_SIZE)*SQUARE_SIZE, 0, 0},
-												new boolean[] {true, false, false});
-							}
-							//If x was set to be increased, increase it to the position of the next vertical line
-							else{
-								odometer.setPosition(new double[] {Math.ceil(x/SQUARE_SIZE)*SQUARE_SIZE, 0, 0},
-										new boolean[] {true, false, false});
-							}
-						}
-						//If x is negative, only correction that makes sense is 0
-						else{
-							odometer.setPosition(new double[] {0, 0, 0}, new boolean[] {true, false, false});
-						}
-				}
-				//If horizontal line (y distance from grid is within correction threshold, not x distance): correct y coordinate
-				//Same logic as for x
-				else if(yDistanceFromGrid < CORRECTION_THRESHOLD && xDistanceFromGrid > REJECTION_THRESHOLD){
-					if(y>0){
-						if (!increaseY){
-							odometer.setPosition(new double[] {0, Math.floor(y/SQUARE_SIZE)*SQUARE_SIZE, 0},
-								new boolean[] {false, true, false});
-						}
-						else{
-							odometer.setPosition(new double[] {0, Math.ceil(y/SQUARE_SIZE)*SQUARE_SIZE, 0},
-									new boolean[] {false, true, false});
-						}
-					}
-					else{
-						odometer.setPosition(new double[] {0, 0, 0}, new boolean[] {false, true, false});
-					}
-				}
-				//If line crossing (both x distance or y distance from grid are within correction threshold): skip correction to prevent mistakes
-				//For debugging purposes, indicates where correction has not occurred due to line crossing
-				else if (yDistanceFromGrid < REJECTION_THRESHOLD && xDistanceFromGrid < REJECTION_THRESHOLD){
-				}
+	public void lineDetected(LineEvent event){
+		long lineTime = event.getTime();
+		
+		//Get x and y coordinates where the robot was when the sensor was over the line,
+		//since the robot may have moved a fair bit since then
+		Pose pose = odometer.getPoseAt(lineTime);
+		double	x = pose.getX(),
+				y = pose.getY();
+		
+		//The nearest vertical and horizontal lines. If a coordinate is negative,
+		//the only line that makes sense is 0
+		double	lineX = nearestLine(x),
+				lineY = nearestLine(y);
+		
+		//Normalize the distance to each line by how uncertain the odometer is
+		//about that coordinate
+		odometer.getUncertainty(deviations);
+		double	toVertical = normalizedDistance(lineX - x, deviations[0]),
+				toHorizontal = normalizedDistance(lineY - y, deviations[1]);
+		
+		//If vertical line (within the gate, and clearly more likely than the horizontal line): correct x coordinate
+		if(toVertical < GATE && toHorizontal > toVertical + AMBIGUITY_MARGIN){
+			if(odometer.observeX(lineX, lineTime))
+				crossed(VERTICAL, lineX, lineTime);
+		}
+		//If horizontal line (within the gate, and clearly more likely than the vertical line): correct y coordinate
+		else if(toHorizontal < GATE && toVertical > toHorizontal + AMBIGUITY_MARGIN){
+			if(odometer.observeY(lineY, lineTime))
+				crossed(HORIZONTAL, lineY, lineTime);
+		}
+		//If line crossing (both lines are about as likely): skip correction to prevent mistakes.
+		//If neither line is within the gate, the event was not a grid line.
+	}
+	
+	/*
+	 * Remembers an accepted line and, if the adjacent parallel line was crossed on the
+	 * same straight path, uses the distance measured between the two
+	 */
+	private void crossed(int axis, double line, long time){
+		Crossing crossing = new Crossing(axis, line, odometer.getTravelledAt(time), odometer.getRotated());
+		
+		//Perpendicular lines crossed in between (on a diagonal path) do not matter
+		for(int i=HISTORY_SIZE-1; i>=0; i--){
+			Crossing previous = crossings[i];
+			if(previous == null || crossing.rotated - previous.rotated > MAX_ROTATION)
+				break;
+			if(previous.axis == axis){
+				double path = crossing.travelled - previous.travelled;
+				if(Math.abs(Math.abs(line - previous.line) - SQUARE_SIZE) < 1e-6
+						&& path > 0 && path < MAX_SPACING * SQUARE_SIZE)
+					useSpacing(axis, path, time);
+				break;
 			}
-			try{Thread.sleep(POLLING_DELAY);}catch(InterruptedException e){}
 		}
+		
+		System.arraycopy(crossings, 1, crossings, 0, HISTORY_SIZE-1);
+		crossings[HISTORY_SIZE-1] = crossing;
+	}
+	
+	/*
+	 * Uses the path the odometer measured between two adjacent parallel lines.
+	 * Across the lines, the path covered exactly SQUARE_SIZE.
+	 */
+	private void useSpacing(int axis, double path, long time){
+		double heading = Math.toRadians(odometer.getPoseAt(time).getAng());
+		//Components of the heading across (normal to) and along the lines
+		double	across = (axis == VERTICAL) ? Math.cos(heading) : Math.sin(heading),
+				along = (axis == VERTICAL) ? Math.sin(heading) : Math.cos(heading);
+		
+		//Nearly perpendicular to the lines: the heading hardly changes the path, but the wheel radii do
+		if(Math.abs(across) > CALIBRATION_ALIGNMENT){
+			odometer.observeDistanceRatio(SQUARE_SIZE / (path * Math.abs(across)));
+		}
+		//Oblique to the lines: the path gives the angle to the lines
+		else if(Math.abs(along) > MIN_OBLIQUITY && path > SQUARE_SIZE){
+			double	normal = SQUARE_SIZE * Math.signum(across),
+					lateral = Math.sqrt(path*path - SQUARE_SIZE*SQUARE_SIZE) * Math.signum(along),
+					observed = (axis == VERTICAL) ? Math.atan2(lateral, normal) : Math.atan2(normal, lateral);
+			
+			//How much the angle changes with an error on the path
+			double	pathDeviation = PATH_DEVIATION + PATH_SCALE_DEVIATION * path,
+					deviation = pathDeviation * SQUARE_SIZE / (path * Math.abs(lateral));
+			odometer.observeHeading(Math.toDegrees(observed), time, Math.toDegrees(deviation));
+		}
+	}
+	
+	/*
+	 * Returns the coordinate of the grid line nearest to the specified coordinate
+	 */
+	private static double nearestLine(double coordinate){
+		if(coordinate <= 0)
+			return 0;
+		return Math.round(coordinate/SQUARE_SIZE)*SQUARE_SIZE;
 	}
 	
+	/*
+	 * Returns the squared distance to a line, normalized by the uncertainty of the coordinate
+	 */
+	private static double normalizedDistance(double distance, double deviation){
+		return distance*distance / (deviation*deviation + LINE_VARIANCE);
+	}
+	
+	/*
+	 * A line identified and accepted by the odometer
+	 */
+	private static class Crossing {
+		private final int axis;
+		private final double line, travelled, rotated;
+		
+		private Crossing(int axis, double line, double travelled, double rotated){
+			this.axis = axis;
+			this.line = line;
+			this.travelled = travelled;
+			this.rotated = rotated;
+		}
+	}
 }
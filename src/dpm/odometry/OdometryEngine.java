@@ -0,0 +1,117 @@
+package dpm.odometry;
+
+import dpm.util.HardwareLog;
+
+/**
+ * OdometryEngine is the thread that drives the Odometer's updates. Instead of
+ * a fixed timer period, it measures the time actually elapsed between updates
+ * and adapts its period to the speed of the wheels: it samples quickly while the
+ * robot moves fast, so each update covers only a few degrees of wheel rotation,
+ * and backs off to the Odometer's nominal period while the robot is idle.
+ *
+ * @author Samuel Genois
+ *
+ */
+public class OdometryEngine extends Thread {
+
+	private static final int	MIN_PERIOD = 5;					//Shortest period between updates, in ms
+	private static final double	WHEEL_STEP = 2.0,				//Targeted wheel rotation per update, in degrees
+								STATS_WEIGHT = 0.05;			//Weight of the newest period in the running statistics
+
+	private final Odometer odometer;
+	private final int maxPeriod;
+
+	private volatile boolean paused;
+	private volatile double averagePeriod, averageJitter;		//In ns
+
+	/**
+	 * Constructor
+	 *
+	 * @param odometer the odometer to update
+	 * @param maxPeriod the period used when the robot is idle, in ms
+	 */
+	OdometryEngine(Odometer odometer, int maxPeriod){
+		this.odometer = odometer;
+		this.maxPeriod = Math.max(maxPeriod, MIN_PERIOD);
+		this.averagePeriod = this.maxPeriod * 1e6;
+		setDaemon(true);
+	}
+
+	/**
+	 * The run method of the odometry engine. Updates the odometer,
+	 * keeps track of the achieved period and jitter, then sleeps for
+	 * a period chosen from the current wheel speed.
+	 */
+	@Override
+	public void run(){
+		long lastUpdate = System.nanoTime(),
+			plannedPeriod = maxPeriod * 1000000l;
+
+		while(true){
+			if(paused){
+				try{Thread.sleep(maxPeriod);}catch(InterruptedException e){}
+				lastUpdate = System.nanoTime();
+				continue;
+			}
+
+			long now = System.nanoTime();
+			double wheelSpeed = odometer.update(now);
+
+			long actualPeriod = now - lastUpdate;
+			lastUpdate = now;
+			averagePeriod += STATS_WEIGHT * (actualPeriod - averagePeriod);
+			averageJitter += STATS_WEIGHT * (Math.abs(actualPeriod - plannedPeriod) - averageJitter);
+
+			plannedPeriod = choosePeriod(wheelSpeed) * 1000000l;
+			long sleep = plannedPeriod - (System.nanoTime() - now);
+			if(sleep > 0)
+				HardwareLog.sleep(sleep);
+		}
+	}
+
+	/*
+	 * Returns the period, in ms, such that each update covers about WHEEL_STEP degrees of wheel rotation
+	 */
+	private long choosePeriod(double wheelSpeed){
+		if(wheelSpeed <= 0)
+			return maxPeriod;
+		return Math.max(MIN_PERIOD, Math.min(maxPeriod, (long)(1000 * WHEEL_STEP / wheelSpeed)));
+	}
+
+	/**
+	 * Stops updating the odometer until unpause is called
+	 */
+	void pause(){
+		paused = true;
+	}
+
+	/**
+	 * Resumes updating the odometer
+	 */
+	void unpause(){
+		paused = false;
+	}
+
+	/*
+	 * Returns true while the odometer is not being updated
+	 */
+	boolean isPaused(){
+		return paused;
+	}
+
+	/**
+	 * Returns the rate at which the odometer is actually being updated
+	 * @return the achieved update rate, in Hz
+	 */
+	public double getAchievedRate(){
+		return 1e9 / averagePeriod;
+	}
+
+	/**
+	 * Returns the mean deviation between the planned and the actual update periods
+	 * @return the update jitter, in ms
+	 */
+	public double getJitter(){
+		return averageJitter / 1e6;
+	}
+}
@@ -0,0 +1,104 @@
+package dpm.odometry;
+
+/**
+ * An immutable snapshot of the robot's position, as published by the Odometer.
+ * <br>Since a Pose is never modified after it is created, any thread holding a
+ * reference to one is guaranteed to see an x, y and theta that all come from
+ * the same odometer update, without having to lock anything.
+ *
+ * @author Samuel Genois
+ */
+public final class Pose {
+
+	private final double x, y, theta, velocity, angularVelocity;
+	private final long timestamp;
+
+	/**
+	 * Constructor
+	 *
+	 * @param x the x coordinate, in cm
+	 * @param y the y coordinate, in cm
+	 * @param theta the orientation, in degrees
+	 * @param timestamp the time at which the pose was measured, as given by System.nanoTime()
+	 */
+	public Pose(double x, double y, double theta, long timestamp){
+		this(x, y, theta, timestamp, 0.0, 0.0);
+	}
+
+	/**
+	 * Constructor for a pose that also carries the robot's velocity
+	 *
+	 * @param x the x coordinate, in cm
+	 * @param y the y coordinate, in cm
+	 * @param theta the orientation, in degrees
+	 * @param timestamp the time at which the pose was measured, as given by System.nanoTime()
+	 * @param velocity the forward velocity, in cm/s
+	 * @param angularVelocity the counter clockwise angular velocity, in degrees/s
+	 */
+	public Pose(double x, double y, double theta, long timestamp, double velocity, double angularVelocity){
+		this.x = x;
+		this.y = y;
+		this.theta = theta;
+		this.timestamp = timestamp;
+		this.velocity = velocity;
+		this.angularVelocity = angularVelocity;
+	}
+
+	/**
+	 * Returns the x coordinate
+	 * @return the x coordinate, in cm
+	 */
+	public double getX(){
+		return x;
+	}
+
+	/**
+	 * Returns the y coordinate
+	 * @return the y coordinate, in cm
+	 */
+	public double getY(){
+		return y;
+	}
+
+	/**
+	 * Returns the orientation
+	 * @return the orientation, in degrees
+	 */
+	public double getAng(){
+		return theta;
+	}
+
+	/**
+	 * Returns the time at which this pose was measured
+	 * @return the time at which this pose was measured, as given by System.nanoTime()
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+	/**
+	 * Returns the forward velocity measured over the last odometer update
+	 * @return the forward velocity, in cm/s
+	 */
+	public double getVelocity(){
+		return velocity;
+	}
+
+	/**
+	 * Returns the angular velocity measured over the last odometer update
+	 * @return the counter clockwise angular velocity, in degrees/s
+	 */
+	public double getAngularVelocity(){
+		return angularVelocity;
+	}
+
+	/** Puts x, y and theta into a provided array
+	 *
+	 * @param position array to put x, y and theta values
+	 */
+	public void getPosition(double[] position){
+		position[0] = x;
+		position[1] = y;
+		position[2] = theta;
+	}
+}
@@ -0,0 +1,97 @@
+package dpm.odometry;
+
+/**
+ * A condition on the robot's pose that a thread can wait on with Odometer.waitFor.
+ * The condition is evaluated by the odometry engine after each update, and the
+ * waiting thread is only woken up once the condition holds (or its timeout expires),
+ * so waiting threads use no CPU while the robot gets there.
+ *
+ * @author Samuel Genois
+ */
+public abstract class PoseCondition {
+
+	private boolean satisfied;
+
+	/**
+	 * Returns true if the condition holds for the specified pose
+	 *
+	 * @param pose the pose to test
+	 * @return true if the condition holds
+	 */
+	public abstract boolean isSatisfied(Pose pose);
+
+	/**
+	 * Returns a condition that holds when the robot's heading is within
+	 * the specified tolerance of the specified angle.
+	 *
+	 * @param angle the target heading, in degrees
+	 * @param tolerance the tolerance, in degrees
+	 * @return the condition
+	 */
+	public static PoseCondition headingWithin(final double angle, final double tolerance){
+		return new PoseCondition(){
+			@Override
+			public boolean isSatisfied(Pose pose){
+				double error = (angle - pose.getAng()) % 360.0;
+				if(error > 180)
+					error -= 360;
+				if(error <= -180)
+					error += 360;
+				return Math.abs(error) <= tolerance;
+			}
+		};
+	}
+
+	/**
+	 * Returns a condition that holds when the robot is closer than the
+	 * specified distance from the point (x,y).
+	 *
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @param distance the distance, in cm
+	 * @return the condition
+	 */
+	public static PoseCondition distanceBelow(final double x, final double y, final double distance){
+		return new PoseCondition(){
+			@Override
+			public boolean isSatisfied(Pose pose){
+				double dx = x - pose.getX(),
+						dy = y - pose.getY();
+				return dx*dx + dy*dy < distance*distance;
+			}
+		};
+	}
+
+	/*
+	 * Called by the odometer (from the engine's thread) after each update.
+	 * Wakes up the waiting thread if the condition now holds.
+	 */
+	synchronized void check(Pose pose){
+		if(!satisfied && isSatisfied(pose)){
+			satisfied = true;
+			notifyAll();
+		}
+	}
+
+	/*
+	 * Clears the result of any previous wait
+	 */
+	synchronized void reset(){
+		satisfied = false;
+	}
+
+	/*
+	 * Waits until check has found the condition satisfied or the timeout expires.
+	 * Returns true if the condition was satisfied.
+	 */
+	synchronized boolean await(Pose current, long timeout){
+		satisfied = satisfied || isSatisfied(current);
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while(!satisfied && remaining > 0){
+			try{wait(remaining);}catch(InterruptedException e){return satisfied;}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return satisfied;
+	}
+}
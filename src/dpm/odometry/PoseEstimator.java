@@ -0,0 +1,138 @@
+package dpm.odometry;
+
+/**
+ * Extended Kalman filter that keeps track of the uncertainty of the Odometer's pose.
+ * <br>The Odometer remains the owner of the pose itself: the estimator only holds the
+ * 3x3 covariance of (x, y, theta), grows it with every tacho increment and, for each
+ * observation, computes the correction the Odometer must apply to its pose. Because the
+ * covariance correlates heading with position, observing only x or only y (a grid line)
+ * also corrects the heading that caused the position error.
+ * <br>Internally, theta is handled in radians. Corrections are returned in degrees.
+ * <br>Not thread safe: the Odometer calls it while holding its write lock.
+ *
+ * @author Samuel Genois
+ */
+class PoseEstimator {
+
+	private static final double	WHEEL_NOISE = 0.002,			//Variance added per cm travelled by a wheel, in cm
+								HEADING_NOISE = 1e-6,			//Variance added to theta on every update, in rad^2
+								SET_POSITION_VARIANCE = 1.0,	//Variance of a position given to setPosition, in cm^2
+								SET_HEADING_VARIANCE = 1.2e-3;	//Variance of a heading given to setPosition (2 degrees), in rad^2
+
+	//Row major covariance of (x, y, theta)
+	private final double[] p = new double[9];
+
+	//Scratch arrays, so that predictions and updates allocate nothing
+	private final double[] ph = new double[3], gain = new double[3], q = new double[9], f = new double[9], tmp = new double[9];
+
+	PoseEstimator(){
+		reset(true, true, true);
+	}
+
+	/*
+	 * Forgets what is known about the specified components, as after a call to setPosition
+	 */
+	void reset(boolean x, boolean y, boolean theta){
+		boolean[] which = {x, y, theta};
+		for(int i=0; i<3; i++){
+			if(!which[i])
+				continue;
+			for(int j=0; j<3; j++){
+				p[3*i+j] = 0;
+				p[3*j+i] = 0;
+			}
+			p[4*i] = (i == 2) ? SET_HEADING_VARIANCE : SET_POSITION_VARIANCE;
+		}
+	}
+
+	/*
+	 * Propagates the covariance through one odometer update
+	 *
+	 * headingRad	the heading before the update, in radians
+	 * leftCm		the distance travelled by the left wheel, in cm
+	 * rightCm		the distance travelled by the right wheel, in cm
+	 * width		the distance between the wheels, in cm
+	 */
+	void predict(double headingRad, double leftCm, double rightCm, double width){
+		double distance = (leftCm + rightCm) / 2,
+				mid = headingRad + (rightCm - leftCm) / (2 * width),
+				cos = Math.cos(mid),
+				sin = Math.sin(mid);
+
+		//Jacobian of the motion with respect to the pose
+		f[0] = 1; f[1] = 0; f[2] = -distance * sin;
+		f[3] = 0; f[4] = 1; f[5] = distance * cos;
+		f[6] = 0; f[7] = 0; f[8] = 1;
+
+		//Jacobian of the motion with respect to the left and right wheel distances
+		double	xl = cos / 2 + distance * sin / (2 * width),	xr = cos / 2 - distance * sin / (2 * width),
+				yl = sin / 2 - distance * cos / (2 * width),	yr = sin / 2 + distance * cos / (2 * width),
+				tl = -1 / width,								tr = 1 / width;
+		double	varL = WHEEL_NOISE * Math.abs(leftCm),
+				varR = WHEEL_NOISE * Math.abs(rightCm);
+
+		//Process noise G * diag(varL, varR) * G^T
+		q[0] = xl*xl*varL + xr*xr*varR;	q[1] = xl*yl*varL + xr*yr*varR;	q[2] = xl*tl*varL + xr*tr*varR;
+		q[3] = q[1];					q[4] = yl*yl*varL + yr*yr*varR;	q[5] = yl*tl*varL + yr*tr*varR;
+		q[6] = q[2];					q[7] = q[5];					q[8] = tl*tl*varL + tr*tr*varR + HEADING_NOISE;
+
+		//P = F * P * F^T + Q
+		multiply(f, p, tmp);
+		for(int i=0; i<3; i++)
+			for(int j=0; j<3; j++)
+				p[3*i+j] = tmp[3*i]*f[3*j] + tmp[3*i+1]*f[3*j+1] + tmp[3*i+2]*f[3*j+2] + q[3*i+j];
+	}
+
+	/*
+	 * Returns the squared Mahalanobis distance of an innovation for a scalar
+	 * observation with Jacobian h and variance r
+	 */
+	double mahalanobis(double[] h, double innovation, double r){
+		return innovation * innovation / innovationVariance(h, r);
+	}
+
+	/*
+	 * Applies a scalar observation with Jacobian h, innovation (measured - expected) and
+	 * variance r. Puts the resulting correction to (x, y, theta) into correction, with
+	 * theta in degrees.
+	 */
+	void update(double[] h, double innovation, double r, double[] correction){
+		double s = innovationVariance(h, r);
+		for(int i=0; i<3; i++)
+			gain[i] = ph[i] / s;
+
+		//P = P - K * (H * P), where H * P is ph transposed since P is symmetric
+		for(int i=0; i<3; i++)
+			for(int j=0; j<3; j++)
+				tmp[3*i+j] = p[3*i+j] - gain[i] * ph[j];
+		//Keep P symmetric despite rounding errors
+		for(int i=0; i<3; i++)
+			for(int j=0; j<3; j++)
+				p[3*i+j] = (tmp[3*i+j] + tmp[3*j+i]) / 2;
+
+		correction[0] = gain[0] * innovation;
+		correction[1] = gain[1] * innovation;
+		correction[2] = Math.toDegrees(gain[2] * innovation);
+	}
+
+	/*
+	 * Returns the variance of the specified component (0: x, 1: y, 2: theta in rad^2)
+	 */
+	double variance(int component){
+		return p[4*component];
+	}
+
+	//Computes P * H^T into ph and returns H * P * H^T + r
+	private double innovationVariance(double[] h, double r){
+		for(int i=0; i<3; i++)
+			ph[i] = p[3*i]*h[0] + p[3*i+1]*h[1] + p[3*i+2]*h[2];
+		return h[0]*ph[0] + h[1]*ph[1] + h[2]*ph[2] + r;
+	}
+
+	//c = a * b for row major 3x3 matrices
+	private static void multiply(double[] a, double[] b, double[] c){
+		for(int i=0; i<3; i++)
+			for(int j=0; j<3; j++)
+				c[3*i+j] = a[3*i]*b[j] + a[3*i+1]*b[3+j] + a[3*i+2]*b[6+j];
+	}
+}
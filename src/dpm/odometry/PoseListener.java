@@ -0,0 +1,18 @@
+package dpm.odometry;
+
+/**
+ * Interface for objects that want to be told about every odometer update.
+ * <br>Listeners are called from the odometry engine's thread, so they must
+ * return quickly and never block.
+ *
+ * @author Samuel Genois
+ */
+public interface PoseListener {
+
+	/**
+	 * Called after each odometer update
+	 *
+	 * @param pose the newly published pose
+	 */
+	public void poseChanged(Pose pose);
+}
@@ -0,0 +1,160 @@
+package dpm.odometry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Online estimate of the robot's wheel geometry (left radius, right radius and track).
+ * <br>The estimate is refined while the robot runs from two kinds of evidence:
+ * <br> - the known spacing between consecutive parallel grid lines, which scales both radii
+ * <br> - the heading errors the odometer corrects, which adjust the difference between the
+ * radii (when the robot was driving straight) or the track (when the robot was turning in place)
+ * <br>Each piece of evidence only moves the estimate by a small fraction, so noisy corrections
+ * average out. The estimate is persisted to a file and loaded at startup.
+ *
+ * @author Samuel Genois
+ */
+public class WheelCalibration {
+
+	private static final String	FILE_NAME = "calibration.properties";
+
+	private static final double	DEFAULT_RADIUS = 2.1,
+								DEFAULT_WIDTH = 12.3,
+								GAIN = 0.1,					//Fraction of each observed error applied to the estimate
+								PURITY = 4.0,				//How much one kind of motion must dominate the other
+								MIN_TRAVEL = 360.0,			//Least straight wheel rotation for a heading error to be used, in degrees
+								MIN_TURN = 45.0,			//Least turn for a heading error to be used, in degrees
+								MAX_RATIO_ERROR = 0.1;		//Largest distance ratio error considered plausible
+
+	private double leftRadius, rightRadius, width;
+	private int observations;
+
+	private WheelCalibration(double leftRadius, double rightRadius, double width){
+		this.leftRadius = leftRadius;
+		this.rightRadius = rightRadius;
+		this.width = width;
+	}
+
+	/**
+	 * Loads the calibration file. If there is none, or it cannot be read,
+	 * returns the default geometry.
+	 *
+	 * @return the loaded calibration
+	 */
+	public static WheelCalibration load(){
+		WheelCalibration calibration = new WheelCalibration(DEFAULT_RADIUS, DEFAULT_RADIUS, DEFAULT_WIDTH);
+		File file = new File(FILE_NAME);
+		if(!file.exists())
+			return calibration;
+
+		Properties properties = new Properties();
+		InputStream in = null;
+		try{
+			in = new FileInputStream(file);
+			properties.load(in);
+			calibration.leftRadius = Double.parseDouble(properties.getProperty("leftRadius", Double.toString(DEFAULT_RADIUS)));
+			calibration.rightRadius = Double.parseDouble(properties.getProperty("rightRadius", Double.toString(DEFAULT_RADIUS)));
+			calibration.width = Double.parseDouble(properties.getProperty("width", Double.toString(DEFAULT_WIDTH)));
+		} catch(IOException | NumberFormatException e){
+			calibration = new WheelCalibration(DEFAULT_RADIUS, DEFAULT_RADIUS, DEFAULT_WIDTH);
+		} finally{
+			if(in != null)
+				try{in.close();}catch(IOException e){}
+		}
+		return calibration;
+	}
+
+	/**
+	 * Writes the current estimate to the calibration file
+	 */
+	public synchronized void save(){
+		Properties properties = new Properties();
+		properties.setProperty("leftRadius", Double.toString(leftRadius));
+		properties.setProperty("rightRadius", Double.toString(rightRadius));
+		properties.setProperty("width", Double.toString(width));
+
+		OutputStream out = null;
+		try{
+			out = new FileOutputStream(FILE_NAME);
+			properties.store(out, "Wheel geometry, refined online from grid lines (" + observations + " observations)");
+		} catch(IOException e){
+		} finally{
+			if(out != null)
+				try{out.close();}catch(IOException e){}
+		}
+	}
+
+	/*
+	 * Scales both radii from a distance measured between two grid lines
+	 *
+	 * ratio	the true distance divided by the distance the odometer measured
+	 */
+	synchronized boolean observeDistanceRatio(double ratio){
+		if(Math.abs(ratio - 1) > MAX_RATIO_ERROR)
+			return false;
+		double scale = 1 + GAIN * (ratio - 1);
+		leftRadius *= scale;
+		rightRadius *= scale;
+		observations++;
+		return true;
+	}
+
+	/*
+	 * Adjusts the geometry from a heading error corrected by the odometer
+	 *
+	 * error			the heading correction, in degrees
+	 * straight			the signed wheel rotation spent driving straight since the last correction, in degrees
+	 * 					(positive forward)
+	 * spin				the signed wheel rotation spent turning in place since the last correction, in degrees
+	 * 					(positive counter clockwise)
+	 */
+	synchronized boolean observeHeadingError(double error, double straight, double spin){
+		if(Math.abs(straight) > PURITY * Math.abs(spin) && Math.abs(straight) > MIN_TRAVEL){
+			//Driving straight, the robot drifts by straight * (rightRadius - leftRadius) / width,
+			//the other way when backing up
+			double difference = GAIN * error * width / straight;
+			rightRadius += difference / 2;
+			leftRadius -= difference / 2;
+		}
+		else if(Math.abs(spin) > PURITY * Math.abs(straight)){
+			//Turning in place, the odometer turns by spin * (leftRadius + rightRadius) / width
+			double turn = spin * (leftRadius + rightRadius) / width;
+			if(Math.abs(turn) < MIN_TURN)
+				return false;
+			width *= 1 - GAIN * error / (turn + error);
+		}
+		else
+			return false;
+		observations++;
+		return true;
+	}
+
+	/**
+	 * Returns the estimated radius of the left wheel
+	 * @return the left wheel radius, in cm
+	 */
+	public synchronized double getLeftRadius(){
+		return leftRadius;
+	}
+
+	/**
+	 * Returns the estimated radius of the right wheel
+	 * @return the right wheel radius, in cm
+	 */
+	public synchronized double getRightRadius(){
+		return rightRadius;
+	}
+
+	/**
+	 * Returns the estimated distance between the wheels
+	 * @return the track, in cm
+	 */
+	public synchronized double getWidth(){
+		return width;
+	}
+}
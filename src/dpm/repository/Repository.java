@@ -4,8 +4,17 @@ import dpm.blocksearch.BlockSearch;
 import dpm.claw.Claw;
 import dpm.finalization.Finalization;
 import dpm.localization.Localization;
+import dpm.navigation.LoopStats;
 import dpm.navigation.Navigation;
+import dpm.navigation.OccupancyGrid;
+import dpm.navigation.PolarScan;
+import dpm.navigation.RoutePlanner;
+import dpm.navigation.UltrasonicSweep;
+import dpm.odometry.LineDetector;
 import dpm.odometry.Odometer;
+import dpm.odometry.Pose;
+import dpm.odometry.PoseCondition;
+import dpm.odometry.PoseListener;
 import dpm.util.DPMConstants;
 import dpm.launcher.Launcher;
 /**
@@ -21,10 +30,16 @@ public class Repository implements DPMConstants{
 	private static Finalization finalization;
 	private static Localization localization;
 	private static Navigation navigation;
+	private static UltrasonicSweep sweep;
+	private static OccupancyGrid grid;
+	private static RoutePlanner planner;
 	private static Odometer odometry;
 	private static Claw pincer;
 	private static Launcher launcher;
 	
+	//The pose each range is mapped from, reused so mapping allocates nothing. Guarded by itself.
+	private static final double[] mapPosition = new double[3];
+	
 	/**
 	 * Executes the block search routine
 	 */
@@ -64,6 +79,33 @@ public class Repository implements DPMConstants{
 		return getNavigation().travelTo(x, y, AVOID_ALL);
 	}
 	
+	/**
+	 * Travels through the specified waypoints without stopping at them,
+	 * blending the corners into arcs, then stops at the last one and turns
+	 * to the specified heading. Initializes the subsystem if it is not yet
+	 * initialized.
+	 * 
+	 * @param waypoints the (x,y) coordinates of each waypoint
+	 * @param heading the heading to turn to at the end, or Double.NaN to keep
+	 * the one the robot arrives with
+	 * @param avoidanceSetting NO_AVOIDANCE, AVOID_ALL or AVOID_OR_PICKUP
+	 * @return false if the robot gave up before the last waypoint
+	 */
+	public static boolean travelPath(double[][] waypoints, double heading, int avoidanceSetting){
+		return getNavigation().travelPath(waypoints, heading, avoidanceSetting);
+	}
+	
+	/**
+	 * Returns how far the robot got along the path of the latest
+	 * travelPath or travelTo.
+	 * 
+	 * @return the number of segments completed, plus the fraction
+	 * of the current segment covered
+	 */
+	public static double getPathProgress(){
+		return getNavigation().getPathProgress();
+	}
+	
 	/**
 	 * Rotates the robot to the specified angle. The angle is in degrees.
 	 * Angles are counter clockwise from the positive x axis.
@@ -74,6 +116,48 @@ public class Repository implements DPMConstants{
 		getNavigation().turnTo(angle);
 	}
 	
+	/**
+	 * Returns the time Navigation's control loops spent working
+	 * versus waiting for the odometer.
+	 * 
+	 * @return the control loop statistics
+	 */
+	public static LoopStats getNavigationStats(){
+		return getNavigation().getLoopStats();
+	}
+	
+	/**
+	 * Chooses how Navigation drives the wheels: following motion profiles that slow
+	 * down close to the target and steering along arcs, or pivoting and driving at
+	 * constant speeds, as it used to
+	 * 
+	 * @param profiled true to follow the motion profiles and steer
+	 */
+	public static void useMotionProfiles(boolean profiled){
+		getNavigation().setProfiled(profiled);
+	}
+	
+	/**
+	 * Chooses how Navigation's control loops wait between two iterations: blocked
+	 * on the odometer, or spinning on the pose without pause, as they used to.
+	 * Only meant to measure what waiting saves (see getNavigationStats).
+	 * 
+	 * @param polling true to spin instead of waiting
+	 */
+	public static void usePolling(boolean polling){
+		getNavigation().setPolling(polling);
+	}
+	
+	/**
+	 * Returns the detector that finds the grid lines used to
+	 * correct the odometer, with its detected and missed line counts.
+	 * 
+	 * @return the line detector
+	 */
+	public static LineDetector getLineDetector(){
+		return getOdometer().getLineDetector();
+	}
+	
 	/**
 	 * Interrupts a running travel operation
 	 */
@@ -99,6 +183,49 @@ public class Repository implements DPMConstants{
 		return getOdometer().getPosition();
 	}
 	
+	/**
+	 * Puts the position of the robot into the provided array
+	 * without allocating anything. Initializes the Odometry
+	 * subsystem if not yet been initialized.
+	 * @param position the array to put x, y and theta into
+	 */
+	public static void getPosition(double[] position){
+		getOdometer().getPosition(position);
+	}
+	
+	/**
+	 * Returns the latest pose of the robot. x, y and theta are
+	 * guaranteed to come from the same odometer update. Initializes
+	 * the Odometry subsystem if not yet been initialized.
+	 * @return the latest pose of the robot
+	 */
+	public static Pose getPose(){
+		return getOdometer().getPose();
+	}
+	
+	/**
+	 * Returns the pose the robot had at the specified time, so that
+	 * sensor samples can be matched with where the robot actually was
+	 * when they were taken. Initializes the Odometry subsystem if not
+	 * yet been initialized.
+	 * @param time the time of interest, as given by System.nanoTime()
+	 * @return the pose of the robot at that time
+	 */
+	public static Pose getPoseAt(long time){
+		return getOdometer().getPoseAt(time);
+	}
+	
+	/**
+	 * Puts the x, y and theta the robot had at the specified time into
+	 * a provided array, like getPoseAt, but without allocating anything.
+	 * Initializes the Odometry subsystem if not yet been initialized.
+	 * @param time the time of interest, as given by System.nanoTime()
+	 * @param position array to put x, y and theta values
+	 */
+	public static void getPoseAt(long time, double[] position){
+		getOdometer().getPoseAt(time, position);
+	}
+	
 	/**
 	 * Returns the x coordinate of the robot. Initializes
 	 * the Odometry subsystem if not yet been initialized.
@@ -117,6 +244,219 @@ public class Repository implements DPMConstants{
 		return getOdometer().getY();
 	}
 	
+	/**
+	 * Fuses an ultrasonic range with the field wall the beam is expected to hit,
+	 * correcting the robot's position and heading. Ranges that do not match a
+	 * wall are ignored. Initializes the Odometry subsystem if not yet been initialized.
+	 * @param range the measured range, in cm
+	 * @param sensorAngle the angle of the sensor relative to the robot's heading, in degrees
+	 * @param time the time at which the range was measured, as given by System.nanoTime()
+	 * @return true if the range was used
+	 */
+	public static boolean observeWallRange(double range, double sensorAngle, long time){
+		return getOdometer().observeWallRange(range, sensorAngle, time);
+	}
+	
+	/**
+	 * Maps an ultrasonic range into the occupancy grid of the field, from the
+	 * robot's pose at the time it was measured. Initializes the grid if not yet
+	 * been initialized.
+	 * @param range the measured range, in cm
+	 * @param sensorAngle the angle of the sensor relative to the robot's heading, in degrees
+	 * @param time the time at which the range was measured, as given by System.nanoTime()
+	 */
+	public static void mapRange(double range, double sensorAngle, long time){
+		synchronized(mapPosition){
+			getPoseAt(time, mapPosition);
+			getGrid().update(range, sensorAngle, mapPosition[0], mapPosition[1], mapPosition[2]);
+		}
+	}
+	
+	/**
+	 * Returns true if the occupancy grid has no occupied cell between two points
+	 * @param fromX the x coordinate of the first point, usually the robot's
+	 * @param fromY the y coordinate of the first point
+	 * @param toX the x coordinate of the second point
+	 * @param toY the y coordinate of the second point
+	 * @return true if the segment is free
+	 */
+	public static boolean isRayFree(double fromX, double fromY, double toX, double toY){
+		return getGrid().isRayFree(fromX, fromY, toX, toY);
+	}
+	
+	/**
+	 * Returns how far a ray goes from a point before it enters an occupied cell
+	 * of the occupancy grid. The field walls count as occupied.
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @param angle the direction of the ray, in degrees
+	 * @param maxDistance the farthest to look, in cm
+	 * @return the distance, in cm, or maxDistance if nothing is that close
+	 */
+	public static double getClearance(double x, double y, double angle, double maxDistance){
+		return getGrid().getClearance(x, y, angle, maxDistance);
+	}
+	
+	/**
+	 * Returns the probability that the occupancy grid's cell at a point is occupied
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @return the probability, 0.5 if nothing is known about the cell
+	 */
+	public static double getOccupancy(double x, double y){
+		return getGrid().getOccupancy(x, y);
+	}
+	
+	/**
+	 * Records a known obstacle in the occupancy grid. The ultrasonic sensor
+	 * will not clear it.
+	 * @param x the x coordinate of the obstacle
+	 * @param y the y coordinate of the obstacle
+	 * @param radius the radius of the obstacle, in cm
+	 */
+	public static void markObstacle(double x, double y, double radius){
+		getGrid().mark(x, y, radius);
+	}
+	
+	/**
+	 * Returns true if a point is on a known obstacle recorded with markObstacle
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @return true if the point is on a known obstacle
+	 */
+	public static boolean isKnownObstacle(double x, double y){
+		return getGrid().isMarked(x, y);
+	}
+	
+	/**
+	 * Plans the shortest route between two points around the obstacles mapped
+	 * in the occupancy grid and around a zone to keep out of. The previous plan
+	 * is repaired if the destination did not change. Initializes the planner
+	 * if not yet been initialized.
+	 * @param fromX the x coordinate of the start, usually the robot's
+	 * @param fromY the y coordinate of the start
+	 * @param toX the x coordinate of the destination
+	 * @param toY the y coordinate of the destination
+	 * @param keepOut the left, top, right and bottom edges of the zone to keep out of, or null
+	 * @return the waypoints of the route, or null if there is none
+	 */
+	public static double[][] planRoute(double fromX, double fromY, double toX, double toY, double[] keepOut){
+		RoutePlanner planner = getPlanner();
+		planner.setKeepOut(keepOut);
+		return planner.plan(fromX, fromY, toX, toY);
+	}
+	
+	/**
+	 * Returns true if the robot can drive straight between two points without
+	 * getting too close to a mapped obstacle or to the zone last given to planRoute
+	 * @param fromX the x coordinate of the first point, usually the robot's
+	 * @param fromY the y coordinate of the first point
+	 * @param toX the x coordinate of the second point
+	 * @param toY the y coordinate of the second point
+	 * @return true if the segment is clear
+	 */
+	public static boolean isRouteClear(double fromX, double fromY, double toX, double toY){
+		return getPlanner().isSegmentClear(fromX, fromY, toX, toY);
+	}
+	
+	private static synchronized RoutePlanner getPlanner(){
+		if(planner == null)
+			planner = new RoutePlanner(getGrid(), RoutePlanner.DEFAULT_CELL_SIZE, RoutePlanner.DEFAULT_CLEARANCE);
+		return planner;
+	}
+	
+	private static synchronized OccupancyGrid getGrid(){
+		if(grid == null)
+			grid = new OccupancyGrid(OccupancyGrid.DEFAULT_CELL_SIZE);
+		return grid;
+	}
+	
+	/**
+	 * Starts swinging the ultrasonic sensor, so its readings are published as
+	 * complete scans. Initializes the sweep if not yet been initialized.
+	 */
+	public static void startSweep(){
+		getSweep().startSweeping();
+	}
+	
+	/**
+	 * Stops swinging the ultrasonic sensor, and returns once it faces forward again
+	 */
+	public static void stopSweep(){
+		getSweep().stopSweeping();
+	}
+	
+	/**
+	 * Returns the latest complete scan of the ultrasonic sensor, waiting for
+	 * the first one if the sweep just started
+	 * @return the latest scan, or null if the sensor is not being swung
+	 */
+	public static PolarScan getScan(){
+		return getSweep().getScan();
+	}
+	
+	/**
+	 * Waits for the next complete scan of the ultrasonic sensor
+	 * @param previous the scan the caller already has, or null
+	 * @return the next scan, or null if the sensor is not being swung
+	 */
+	public static PolarScan awaitScan(PolarScan previous){
+		return getSweep().awaitScan(previous);
+	}
+	
+	private static UltrasonicSweep getSweep(){
+		if(sweep == null)
+			sweep = new UltrasonicSweep();
+		return sweep;
+	}
+	
+	/**
+	 * Blocks the calling thread until the specified condition on the robot's pose
+	 * holds or the timeout expires. Initializes the Odometry subsystem if not yet
+	 * been initialized.
+	 * @param condition the condition to wait for
+	 * @param timeout the maximum time to wait, in ms
+	 * @return true if the condition holds, false if the timeout expired first
+	 */
+	public static boolean waitFor(PoseCondition condition, long timeout){
+		return getOdometer().waitFor(condition, timeout);
+	}
+	
+	/**
+	 * Registers a listener to be called after every odometer update.
+	 * Initializes the Odometry subsystem if not yet been initialized.
+	 * @param listener the listener to register
+	 */
+	public static void addPoseListener(PoseListener listener){
+		getOdometer().addListener(listener);
+	}
+	
+	/**
+	 * Unregisters a pose listener.
+	 * @param listener the listener to unregister
+	 */
+	public static void removePoseListener(PoseListener listener){
+		getOdometer().removeListener(listener);
+	}
+	
+	/**
+	 * Returns the rate at which the odometer is actually being updated.
+	 * Initializes the Odometry subsystem if not yet been initialized.
+	 * @return the achieved odometer update rate, in Hz
+	 */
+	public static double getOdometerRate(){
+		return getOdometer().getUpdateRate();
+	}
+	
+	/**
+	 * Returns the mean deviation between the planned and the actual odometer
+	 * update periods. Initializes the Odometry subsystem if not yet been initialized.
+	 * @return the odometer update jitter, in ms
+	 */
+	public static double getOdometerJitter(){
+		return getOdometer().getUpdateJitter();
+	}
+	
 	/**
 	 * Sets the position of the robot. Initializes
 	 * the Odometry subsystem if not yet been initialized.
@@ -287,10 +627,48 @@ public class Repository implements DPMConstants{
 		return pincer.clawIsFull();
 	}
 	
+	/**
+	 * Sets the wheel radius and track used by the odometer. Online calibration
+	 * of the geometry is suspended until useCalibratedGeometry is called.
+	 * @param r the radius of the wheels
+	 * @param t the distance between the wheels
+	 */
 	public static void setRT(double r, double t){
-		getOdometer().leftRadius = r;
-		getOdometer().rightRadius = r;
-		getOdometer().width = t;
+		getOdometer().setGeometry(r, r, t);
+	}
+	
+	/**
+	 * Returns the wheel radius the odometer currently uses, calibrated or set
+	 * by setRT. Initializes the Odometry subsystem if not yet been initialized.
+	 * @return the mean radius of the wheels, in cm
+	 */
+	public static double getWheelRadius(){
+		return getOdometer().getWheelRadius();
+	}
+	
+	/**
+	 * Returns the distance between the wheels the odometer currently uses,
+	 * calibrated or set by setRT. Initializes the Odometry subsystem if not yet
+	 * been initialized.
+	 * @return the track, in cm
+	 */
+	public static double getTrack(){
+		return getOdometer().getWidth();
+	}
+	
+	/**
+	 * Switches the odometer to the calibrated wheel geometry (loaded at startup
+	 * and refined online from grid lines), and keeps refining it from then on.
+	 */
+	public static void useCalibratedGeometry(){
+		getOdometer().useCalibration();
+	}
+	
+	/**
+	 * Saves the calibrated wheel geometry, so it is used at next startup
+	 */
+	public static void saveCalibration(){
+		getOdometer().saveCalibration();
 	}
 	
 	/**
@@ -13,7 +13,8 @@ public interface DPMConstants {
 	
 	public static final int NO_AVOIDANCE = 0,
 							AVOID_ALL = 1,
-							AVOID_OR_PICKUP = 2;
+							AVOID_OR_PICKUP = 2,
+							AVOID_PLANNED = 3;		//Follows a route planned around the obstacles mapped so far
 	
 	//Roles
 	public static final int BUILDER = 0;
@@ -79,6 +80,16 @@ public interface DPMConstants {
 	 */
 	public static final int	COLOR_ODO_CORR = 3;
 	
+	/**
+	 * The longest time to wait for a new ultrasonic sample, in ms
+	 */
+	public static final long US_TIMEOUT = 100l;
+	
+	/**
+	 * The longest time to wait for a new color sample, in ms
+	 */
+	public static final long COLOR_TIMEOUT = 60l;
+	
 	/**
 	 * The acceleration of the wheel motors
 	 */
@@ -0,0 +1,127 @@
+package dpm.util;
+
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * The robot's two wheels, commanded as one.
+ * <br>Both wheels of each command are set inside one synchronization of their regulators,
+ * so they start, change speed and stop on the same regulator tick. Setting one wheel, then
+ * the other, lets the first one accelerate alone for as long as the second call takes,
+ * which at WHEEL_MOTOR_ACCELERATION turns into a heading error.
+ * <br>Speeds are wheel speeds, in degrees/s. Angular directions are counter clockwise positive,
+ * as the odometer's.
+ *
+ * @author Samuel Genois
+ */
+public class DifferentialDrive implements DPMConstants{
+
+	private static DifferentialDrive theInstance;
+
+	private final RegulatedMotor leftMotor, rightMotor;
+
+	/*
+	 * Constructor. The left wheel leads the synchronization.
+	 */
+	private DifferentialDrive(){
+		leftMotor = Motors.getMotor(LEFT);
+		rightMotor = Motors.getMotor(RIGHT);
+		leftMotor.synchronizeWith(new RegulatedMotor[] {rightMotor});
+		setAcceleration(WHEEL_MOTOR_ACCELERATION);
+	}
+
+	/**
+	 * Returns the drive, and creates it the first time
+	 * @return the drive
+	 */
+	public static synchronized DifferentialDrive getInstance(){
+		if(theInstance == null)
+			theInstance = new DifferentialDrive();
+		return theInstance;
+	}
+
+	/**
+	 * Sets the speed of each wheel at once. A negative speed turns the wheel backward.
+	 *
+	 * @param leftSpeed the speed of the left wheel
+	 * @param rightSpeed the speed of the right wheel
+	 */
+	public synchronized void setSpeeds(int leftSpeed, int rightSpeed){
+		leftMotor.startSynchronization();
+		leftMotor.setSpeed(leftSpeed);
+		rightMotor.setSpeed(rightSpeed);
+		leftMotor.endSynchronization();
+	}
+
+	/**
+	 * Drives straight
+	 * @param speed the speed of both wheels, negative to back up
+	 */
+	public void straight(int speed){
+		setSpeeds(speed, speed);
+	}
+
+	/**
+	 * Turns in place
+	 * @param speed the speed of both wheels, positive to turn counter clockwise
+	 */
+	public void spin(int speed){
+		setSpeeds(-speed, speed);
+	}
+
+	/**
+	 * Drives along a circle
+	 *
+	 * @param speed the speed of the robot's center, in wheel degrees/s
+	 * @param radius the radius of the circle, in cm, positive if its center is on
+	 * the robot's left. It cannot be 0: a robot turning in place has no speed at its
+	 * center, so it spins instead.
+	 * @param track the distance between the wheels, in cm, as calibrated by the odometer
+	 */
+	public void arc(int speed, double radius, double track){
+		if(radius == 0)
+			throw new IllegalArgumentException("An arc of radius 0 is a spin");
+		steer(speed, 1 / radius, track);
+	}
+
+	/**
+	 * Drives along a curve
+	 *
+	 * @param speed the speed of the robot's center, in wheel degrees/s
+	 * @param curvature the inverse of the radius of the curve, in 1/cm, positive
+	 * to turn counter clockwise, 0 to drive straight
+	 * @param track the distance between the wheels, in cm, as calibrated by the odometer
+	 */
+	public void steer(int speed, double curvature, double track){
+		double halfTrack = track / 2;
+		setSpeeds((int)Math.round(speed * (1 - curvature * halfTrack)),
+				(int)Math.round(speed * (1 + curvature * halfTrack)));
+	}
+
+	/**
+	 * Stops both wheels
+	 * @param immediateReturn if false, returns once both wheels are stopped
+	 */
+	public void stop(boolean immediateReturn){
+		synchronized(this){
+			leftMotor.startSynchronization();
+			leftMotor.stop(true);
+			rightMotor.stop(true);
+			leftMotor.endSynchronization();
+		}
+		if(!immediateReturn){
+			leftMotor.waitComplete();
+			rightMotor.waitComplete();
+		}
+	}
+
+	/**
+	 * Sets the acceleration of both wheels
+	 * @param acceleration the acceleration, in degrees/s/s
+	 */
+	public synchronized void setAcceleration(int acceleration){
+		leftMotor.startSynchronization();
+		leftMotor.setAcceleration(acceleration);
+		rightMotor.setAcceleration(acceleration);
+		leftMotor.endSynchronization();
+	}
+}
@@ -0,0 +1,658 @@
+package dpm.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.RegulatedMotorListener;
+import lejos.robotics.SampleProvider;
+
+/**
+ * A utility class that records everything the robot reads from its motors and sensors, and
+ * every command it sends to its motors, so a run can be replayed offline.
+ * <br>In recording mode, the Motors and Sensors factories wrap each device so its calls are
+ * appended to a compact binary log, with their time. In replay mode, the factories create no
+ * hardware at all: each device returns, call after call, the values it returned during the
+ * recorded run, through the same RegulatedMotor and SampleProvider interfaces. The commands
+ * are not replayed, since nothing moves.
+ * <br>Values are replayed in the order they were read, so the algorithms consuming them see the
+ * same inputs whatever their timing. The threads that pace themselves with sleep, the
+ * OdometryEngine and the SensorHub, sleep speed times less, so a replay runs faster than real time.
+ * <br>The log is read through a memory-mapped file: opening it only indexes where each device's
+ * records are, and the values are read from the mapping as they are replayed.
+ * The mode must be chosen before the first device is requested.
+ *
+ * @author Samuel Genois
+ */
+public class HardwareLog {
+
+	/**
+	 * Modes
+	 */
+	public static final int	LIVE = 0,
+							RECORD = 1,
+							REPLAY = 2;
+
+	//Record kinds. Each record is: kind, device, time in us since the start, then
+	//OPEN: sample size; QUERY and COMMAND: method (as in RemoteLink) and value; SAMPLE: the values.
+	private static final byte	OPEN = 0,
+								QUERY = 1,
+								COMMAND = 2,
+								SAMPLE = 3;
+	private static final int	MAGIC = 0x44504d4c,			//"DPML"
+								MOTORS = 6,					//Sensors are numbered after the motors
+								DEVICES = MOTORS + 4,
+								METHODS = 32,
+								BUFFER_SIZE = 1 << 16;
+
+	private static int mode = LIVE;
+	private static double speed = 1.0;
+
+	//Recording
+	private static DataOutputStream out;
+	private static long start;
+
+	//Replay: for each device and method, the positions of its records in the log
+	private static MappedByteBuffer log;
+	private static int[][] streams;
+	private static int[] streamLengths;
+	private static int lastTime;
+	private static volatile int replayedTime;
+
+	/**
+	 * Starts recording every device requested from now on
+	 *
+	 * @param path the file to record to
+	 * @throws IOException if the file cannot be created
+	 */
+	public static synchronized void record(String path) throws IOException{
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		start = System.nanoTime();
+		mode = RECORD;
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			@Override
+			public void run(){
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Replays a recorded log through every device requested from now on
+	 *
+	 * @param path the file to replay
+	 * @param speed how many times faster than real time the paced threads run
+	 * @throws IOException if the file cannot be read, or is not a log
+	 */
+	public static synchronized void replay(String path, double speed) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		log = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		file.close();
+		if(log.getInt() != MAGIC)
+			throw new IOException(path + " is not a hardware log");
+		index();
+		HardwareLog.speed = Math.max(speed, 1e-3);
+		mode = REPLAY;
+	}
+
+	/**
+	 * Writes what remains of the recording to the file. Called when the program exits.
+	 */
+	public static synchronized void close(){
+		if(out != null){
+			try{out.close();}catch(IOException e){}
+			out = null;
+		}
+	}
+
+	/**
+	 * Returns the current mode
+	 * @return LIVE, RECORD or REPLAY
+	 */
+	public static int getMode(){
+		return mode;
+	}
+
+	/**
+	 * Returns how far the replay went into the recorded run
+	 * @return the fraction of the recorded run replayed, between 0 and 1
+	 */
+	public static double getReplayProgress(){
+		return (lastTime == 0) ? 1.0 : (double)replayedTime / lastTime;
+	}
+
+	/**
+	 * Returns the length of the recorded run being replayed
+	 * @return the length of the run, in ms
+	 */
+	public static long getReplayLength(){
+		return lastTime / 1000;
+	}
+
+	/**
+	 * Sleeps for the specified time, speed times less while replaying.
+	 * Used by the threads that pace themselves.
+	 *
+	 * @param ns the time to sleep, in ns
+	 */
+	public static void sleep(long ns){
+		if(mode == REPLAY)
+			ns = (long)(ns / speed);
+		try{Thread.sleep(ns / 1000000l, (int)(ns % 1000000l));}catch(InterruptedException e){}
+	}
+
+	/*
+	 * Returns the motor a recorded motor operates
+	 */
+	static RegulatedMotor unwrap(RegulatedMotor motor){
+		return (motor instanceof RecordedMotor) ? ((RecordedMotor)motor).motor : motor;
+	}
+
+	/*
+	 * Wraps a motor so its calls are recorded, or replaces it by its recording
+	 */
+	static RegulatedMotor motor(int id, RegulatedMotor motor){
+		if(mode == RECORD)
+			return new RecordedMotor(id, motor);
+		if(mode == REPLAY)
+			return new ReplayedMotor(id);
+		return motor;
+	}
+
+	/*
+	 * Wraps a sensor so its samples are recorded, or replaces it by its recording
+	 */
+	static SampleProvider sensor(int id, SampleProvider sensor){
+		if(mode == RECORD){
+			write(OPEN, MOTORS + id, sensor.sampleSize());
+			return new RecordedSensor(MOTORS + id, sensor);
+		}
+		if(mode == REPLAY)
+			return new ReplayedSensor(MOTORS + id);
+		return sensor;
+	}
+
+	/*
+	 * Appends a record holding one value
+	 */
+	private static synchronized void write(byte kind, int device, int value){
+		if(out == null)
+			return;
+		try{
+			out.writeByte(kind);
+			out.writeByte(device);
+			out.writeInt((int)((System.nanoTime() - start) / 1000));
+			out.writeInt(value);
+		} catch(IOException e){
+		}
+	}
+
+	/*
+	 * Appends a query or command record
+	 */
+	private static synchronized void write(byte kind, int device, byte method, int value){
+		if(out == null)
+			return;
+		try{
+			out.writeByte(kind);
+			out.writeByte(device);
+			out.writeInt((int)((System.nanoTime() - start) / 1000));
+			out.writeByte(method);
+			out.writeInt(value);
+		} catch(IOException e){
+		}
+	}
+
+	/*
+	 * Appends a sample record
+	 */
+	private static synchronized void write(int device, float[] sample, int offset, int size){
+		if(out == null)
+			return;
+		try{
+			out.writeByte(SAMPLE);
+			out.writeByte(device);
+			out.writeInt((int)((System.nanoTime() - start) / 1000));
+			out.writeByte(size);
+			for(int i=0; i<size; i++)
+				out.writeFloat(sample[offset + i]);
+		} catch(IOException e){
+		}
+	}
+
+	/*
+	 * Finds the records of each device and method. OPEN records are filed under method 0,
+	 * SAMPLE records under method RemoteLink.FETCH_SAMPLE. A record cut short, if the
+	 * recording program was killed, ends the log.
+	 */
+	private static void index(){
+		streams = new int[DEVICES * METHODS][];
+		streamLengths = new int[DEVICES * METHODS];
+		try{
+			indexRecords();
+		} catch(BufferUnderflowException | IllegalArgumentException e){
+		}
+	}
+
+	//Fills the index, until the end of the log
+	private static void indexRecords(){
+		while(log.remaining() >= 6){
+			int position = log.position();
+			byte kind = log.get();
+			int device = log.get(),
+				time = log.getInt(),
+				method;
+			switch(kind){
+				case OPEN:
+					method = 0;
+					log.getInt();
+					break;
+				case QUERY:
+				case COMMAND:
+					method = log.get();
+					log.getInt();
+					if(kind == COMMAND)
+						continue;
+					break;
+				case SAMPLE:
+					method = RemoteLink.FETCH_SAMPLE;
+					log.position(log.position() + 1 + 4 * log.get(log.position()));
+					break;
+				default:
+					return;
+			}
+			lastTime = Math.max(lastTime, time);
+			int stream = device * METHODS + method;
+			if(streams[stream] == null)
+				streams[stream] = new int[64];
+			else if(streamLengths[stream] == streams[stream].length)
+				streams[stream] = Arrays.copyOf(streams[stream], 2 * streamLengths[stream]);
+			streams[stream][streamLengths[stream]++] = position;
+		}
+	}
+
+	/*
+	 * The position of the next record of a stream, or of its last one once they were all replayed
+	 */
+	private static int next(int stream, int[] cursors, int method){
+		int length = streamLengths[stream];
+		if(length == 0)
+			return -1;
+		int cursor = cursors[method];
+		if(cursor < length - 1)
+			cursors[method]++;
+		int position = streams[stream][Math.min(cursor, length - 1)];
+		int time = log.getInt(position + 2);
+		if(time > replayedTime)
+			replayedTime = time;
+		return position;
+	}
+
+	/*
+	 * Returns the next value of a stream of queries, or 0 if it was never recorded
+	 */
+	private static synchronized int nextValue(int device, int[] cursors, byte method){
+		int position = next(device * METHODS + method, cursors, method);
+		return (position < 0) ? 0 : log.getInt(position + 7);
+	}
+
+	/*
+	 * A motor whose queries are recorded
+	 */
+	private static class RecordedMotor implements RegulatedMotor{
+
+		private final int id;
+		private final RegulatedMotor motor;
+
+		private RecordedMotor(int id, RegulatedMotor motor){
+			this.id = id;
+			this.motor = motor;
+		}
+
+		private int query(byte method, int value){
+			write(QUERY, id, method, value);
+			return value;
+		}
+
+		private void command(byte method, int value){
+			write(COMMAND, id, method, value);
+		}
+
+		@Override
+		public int getTachoCount(){
+			return query(RemoteLink.GET_TACHO_COUNT, motor.getTachoCount());
+		}
+
+		@Override
+		public boolean isMoving(){
+			return query(RemoteLink.IS_MOVING, motor.isMoving() ? 1 : 0) != 0;
+		}
+
+		@Override
+		public int getRotationSpeed(){
+			return query(RemoteLink.GET_ROTATION_SPEED, motor.getRotationSpeed());
+		}
+
+		@Override
+		public int getLimitAngle(){
+			return query(RemoteLink.GET_LIMIT_ANGLE, motor.getLimitAngle());
+		}
+
+		@Override
+		public float getMaxSpeed(){
+			return query(RemoteLink.GET_MAX_SPEED, (int)motor.getMaxSpeed());
+		}
+
+		@Override
+		public boolean isStalled(){
+			return query(RemoteLink.IS_STALLED, motor.isStalled() ? 1 : 0) != 0;
+		}
+
+		@Override
+		public int getSpeed(){
+			return motor.getSpeed();
+		}
+
+		@Override
+		public void setSpeed(int speed){
+			command(RemoteLink.SET_SPEED, speed);
+			motor.setSpeed(speed);
+		}
+
+		@Override
+		public void forward(){
+			command(RemoteLink.FORWARD, 0);
+			motor.forward();
+		}
+
+		@Override
+		public void backward(){
+			command(RemoteLink.BACKWARD, 0);
+			motor.backward();
+		}
+
+		@Override
+		public void stop(){
+			command(RemoteLink.STOP, 0);
+			motor.stop();
+		}
+
+		@Override
+		public void stop(boolean immediateReturn){
+			command(RemoteLink.STOP, 0);
+			motor.stop(immediateReturn);
+		}
+
+		@Override
+		public void flt(){
+			command(RemoteLink.FLT, 0);
+			motor.flt();
+		}
+
+		@Override
+		public void flt(boolean immediateReturn){
+			command(RemoteLink.FLT, 0);
+			motor.flt(immediateReturn);
+		}
+
+		@Override
+		public void rotate(int angle){
+			command(RemoteLink.ROTATE, angle);
+			motor.rotate(angle);
+		}
+
+		@Override
+		public void rotate(int angle, boolean immediateReturn){
+			command(RemoteLink.ROTATE, angle);
+			motor.rotate(angle, immediateReturn);
+		}
+
+		@Override
+		public void rotateTo(int limitAngle){
+			command(RemoteLink.ROTATE_TO, limitAngle);
+			motor.rotateTo(limitAngle);
+		}
+
+		@Override
+		public void rotateTo(int limitAngle, boolean immediateReturn){
+			command(RemoteLink.ROTATE_TO, limitAngle);
+			motor.rotateTo(limitAngle, immediateReturn);
+		}
+
+		@Override
+		public void resetTachoCount(){
+			command(RemoteLink.RESET_TACHO_COUNT, 0);
+			motor.resetTachoCount();
+		}
+
+		@Override
+		public void setAcceleration(int acceleration){
+			command(RemoteLink.SET_ACCELERATION, acceleration);
+			motor.setAcceleration(acceleration);
+		}
+
+		@Override
+		public void waitComplete(){
+			motor.waitComplete();
+		}
+
+		@Override
+		public void setStallThreshold(int error, int time){
+			motor.setStallThreshold(error, time);
+		}
+
+		@Override
+		public void addListener(RegulatedMotorListener listener){
+			motor.addListener(listener);
+		}
+
+		@Override
+		public RegulatedMotorListener removeListener(){
+			return motor.removeListener();
+		}
+
+		@Override
+		public void synchronizeWith(RegulatedMotor[] syncList){
+			motor.synchronizeWith(syncList);
+		}
+
+		@Override
+		public void startSynchronization(){
+			motor.startSynchronization();
+		}
+
+		@Override
+		public void endSynchronization(){
+			motor.endSynchronization();
+		}
+
+		@Override
+		public void close(){
+			motor.close();
+		}
+	}
+
+	/*
+	 * A motor that answers its queries from the log, and ignores its commands
+	 */
+	private static class ReplayedMotor implements RegulatedMotor{
+
+		private final int id;
+		private final int[] cursors = new int[METHODS];
+		private int speed = 360;
+
+		private ReplayedMotor(int id){
+			this.id = id;
+		}
+
+		@Override
+		public int getTachoCount(){
+			return nextValue(id, cursors, RemoteLink.GET_TACHO_COUNT);
+		}
+
+		@Override
+		public boolean isMoving(){
+			return nextValue(id, cursors, RemoteLink.IS_MOVING) != 0;
+		}
+
+		@Override
+		public int getRotationSpeed(){
+			return nextValue(id, cursors, RemoteLink.GET_ROTATION_SPEED);
+		}
+
+		@Override
+		public int getLimitAngle(){
+			return nextValue(id, cursors, RemoteLink.GET_LIMIT_ANGLE);
+		}
+
+		@Override
+		public float getMaxSpeed(){
+			return nextValue(id, cursors, RemoteLink.GET_MAX_SPEED);
+		}
+
+		@Override
+		public boolean isStalled(){
+			return nextValue(id, cursors, RemoteLink.IS_STALLED) != 0;
+		}
+
+		@Override
+		public int getSpeed(){
+			return speed;
+		}
+
+		@Override
+		public void setSpeed(int speed){
+			this.speed = speed;
+		}
+
+		@Override
+		public void forward(){}
+
+		@Override
+		public void backward(){}
+
+		@Override
+		public void stop(){}
+
+		@Override
+		public void stop(boolean immediateReturn){}
+
+		@Override
+		public void flt(){}
+
+		@Override
+		public void flt(boolean immediateReturn){}
+
+		@Override
+		public void rotate(int angle){}
+
+		@Override
+		public void rotate(int angle, boolean immediateReturn){}
+
+		@Override
+		public void rotateTo(int limitAngle){}
+
+		@Override
+		public void rotateTo(int limitAngle, boolean immediateReturn){}
+
+		@Override
+		public void resetTachoCount(){}
+
+		@Override
+		public void setAcceleration(int acceleration){}
+
+		@Override
+		public void waitComplete(){}
+
+		@Override
+		public void setStallThreshold(int error, int time){}
+
+		@Override
+		public void addListener(RegulatedMotorListener listener){}
+
+		@Override
+		public RegulatedMotorListener removeListener(){
+			return null;
+		}
+
+		@Override
+		public void synchronizeWith(RegulatedMotor[] syncList){}
+
+		@Override
+		public void startSynchronization(){}
+
+		@Override
+		public void endSynchronization(){}
+
+		@Override
+		public void close(){}
+	}
+
+	/*
+	 * A sensor whose samples are recorded
+	 */
+	private static class RecordedSensor implements SampleProvider{
+
+		private final int device;
+		private final SampleProvider sensor;
+
+		private RecordedSensor(int device, SampleProvider sensor){
+			this.device = device;
+			this.sensor = sensor;
+		}
+
+		@Override
+		public int sampleSize(){
+			return sensor.sampleSize();
+		}
+
+		@Override
+		public void fetchSample(float[] sample, int offset){
+			sensor.fetchSample(sample, offset);
+			write(device, sample, offset, sensor.sampleSize());
+		}
+	}
+
+	/*
+	 * A sensor that returns its recorded samples
+	 */
+	private static class ReplayedSensor implements SampleProvider{
+
+		private final int device;
+		private final int size;
+		private final int[] cursors = new int[METHODS];
+
+		private ReplayedSensor(int device){
+			this.device = device;
+			synchronized(HardwareLog.class){
+				int position = next(device * METHODS, new int[METHODS], 0);
+				this.size = (position < 0) ? 1 : log.getInt(position + 6);
+			}
+		}
+
+		@Override
+		public int sampleSize(){
+			return size;
+		}
+
+		@Override
+		public void fetchSample(float[] sample, int offset){
+			synchronized(HardwareLog.class){
+				int position = next(device * METHODS + RemoteLink.FETCH_SAMPLE, cursors, RemoteLink.FETCH_SAMPLE);
+				if(position < 0)
+					return;
+				int count = Math.min(size, log.get(position + 6));
+				for(int i=0; i<count; i++)
+					sample[offset + i] = log.getFloat(position + 7 + 4 * i);
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package dpm.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A utility class that records how many times, and how long, the robot's motors and
+ * sensors are called, for each device and method.
+ * <br>The Motors.Motor and Sensors.Sensor decorators report every call. The latencies
+ * go into fixed-size histograms with one bucket per power of 2 microseconds, so recording
+ * never allocates. In sampled mode, only one call out of SAMPLE_INTERVAL is timed, which
+ * spares the other calls the cost of reading the clock; calls are still all counted.
+ * <br>Recording is off until enable is called. The table can be dumped on request, and is
+ * dumped when the program exits once recording is enabled.
+ *
+ * @author Samuel Genois
+ */
+public class IOStats implements DPMConstants{
+
+	/**
+	 * Recording modes
+	 */
+	public static final int	OFF = 0,
+							SAMPLED = 1,
+							FULL = 2;
+
+	/**
+	 * Recorded methods
+	 */
+	public static final int	FETCH_SAMPLE = 0,
+							SET_SPEED = 1,
+							ROTATE = 2,
+							GET_TACHO_COUNT = 3,
+							STOP = 4;
+
+	private static final String[]	METHOD_NAMES = {"fetchSample", "setSpeed", "rotate", "getTachoCount", "stop"},
+									MOTOR_NAMES = {"LEFT", "RIGHT", "CLAW", "3", "LIFT", "SENSOR"},
+									SENSOR_NAMES = {"US_ACTIVE", "1", "COLOR_BLOCK_ID", "COLOR_ODO_CORR"};
+	private static final int		METHODS = METHOD_NAMES.length,
+									DEVICES = MOTOR_NAMES.length + SENSOR_NAMES.length,
+									BUCKETS = 24,						//Up to 2^24 us, about 17 s
+									SAMPLE_INTERVAL = 16;
+
+	//Per slot (device and method): calls, timed calls, total ns and max ns, then the buckets
+	private static final int		CALLS = 0,
+									TIMED = 1,
+									TOTAL = 2,
+									MAX = 3,
+									FIELDS = 4 + BUCKETS;
+	private static final AtomicLongArray stats = new AtomicLongArray(DEVICES * METHODS * FIELDS);
+
+	private static volatile int mode = OFF;
+	private static boolean hooked;
+
+	/**
+	 * Starts recording in the specified mode, and dumps the table to the
+	 * standard output when the program exits
+	 *
+	 * @param newMode SAMPLED, FULL or OFF
+	 */
+	public static synchronized void enable(int newMode){
+		mode = newMode;
+		if(newMode != OFF && !hooked){
+			hooked = true;
+			Runtime.getRuntime().addShutdownHook(new Thread(){
+				@Override
+				public void run(){
+					dump(System.out);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Forgets everything recorded so far
+	 */
+	public static void reset(){
+		for(int i=0; i<stats.length(); i++)
+			stats.set(i, 0);
+	}
+
+	/*
+	 * Returns the slot of a motor's method
+	 */
+	static int motorSlot(int id, int method){
+		return id * METHODS + method;
+	}
+
+	/*
+	 * Returns the slot of a sensor's method
+	 */
+	static int sensorSlot(int id, int method){
+		return (MOTOR_NAMES.length + id) * METHODS + method;
+	}
+
+	/*
+	 * Counts a call on a slot. Returns the time at which the call starts if it
+	 * must be timed, 0 otherwise.
+	 */
+	static long start(int slot){
+		int current = mode;
+		if(current == OFF)
+			return 0;
+		long calls = stats.incrementAndGet(slot * FIELDS + CALLS);
+		if(current == SAMPLED && calls % SAMPLE_INTERVAL != 0)
+			return 0;
+		return System.nanoTime();
+	}
+
+	/*
+	 * Records the latency of a call started with start
+	 */
+	static void end(int slot, long start){
+		if(start == 0)
+			return;
+		long elapsed = System.nanoTime() - start;
+		int base = slot * FIELDS;
+		stats.incrementAndGet(base + TIMED);
+		stats.addAndGet(base + TOTAL, elapsed);
+		long max;
+		while(elapsed > (max = stats.get(base + MAX)) && !stats.compareAndSet(base + MAX, max, elapsed)){}
+		stats.incrementAndGet(base + MAX + 1 + bucket(elapsed));
+	}
+
+	//One bucket per power of 2 microseconds
+	private static int bucket(long ns){
+		long us = ns / 1000;
+		int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, us));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * Prints a table of the calls recorded so far: for each device and method,
+	 * the number of calls and the mean, median, 90th percentile, 99th percentile
+	 * and maximum latency of the timed calls, in microseconds.
+	 * Percentiles are the upper bounds of their buckets.
+	 *
+	 * @param out the stream to print to
+	 */
+	public static void dump(PrintStream out){
+		out.printf("%-17s %-14s %9s %8s %8s %8s %8s %8s\n", "device", "method", "calls", "mean", "p50", "p90", "p99", "max");
+		for(int device=0; device<DEVICES; device++){
+			String name = (device < MOTOR_NAMES.length) ? "motor " + MOTOR_NAMES[device]
+														: "sensor " + SENSOR_NAMES[device - MOTOR_NAMES.length];
+			for(int method=0; method<METHODS; method++){
+				int base = (device * METHODS + method) * FIELDS;
+				long calls = stats.get(base + CALLS),
+					timed = stats.get(base + TIMED);
+				if(calls == 0)
+					continue;
+				out.printf("%-17s %-14s %9d %8d %8d %8d %8d %8d\n", name, METHOD_NAMES[method], calls,
+						(timed == 0) ? 0 : stats.get(base + TOTAL) / timed / 1000,
+						percentile(base, timed, 0.5), percentile(base, timed, 0.9), percentile(base, timed, 0.99),
+						stats.get(base + MAX) / 1000);
+			}
+		}
+	}
+
+	//Returns the upper bound, in us, of the bucket holding the specified fraction of the timed calls
+	private static long percentile(int base, long timed, double fraction){
+		long target = (long)Math.ceil(timed * fraction), seen = 0;
+		for(int bucket=0; bucket<BUCKETS; bucket++){
+			seen += stats.get(base + MAX + 1 + bucket);
+			if(seen >= target && seen > 0)
+				return 1l << (bucket + 1);
+		}
+		return 0;
+	}
+}
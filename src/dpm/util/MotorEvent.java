@@ -0,0 +1,77 @@
+package dpm.util;
+
+/**
+ * An immutable description of a motor that does not turn as it is commanded to,
+ * as published by the MotorMonitor.
+ *
+ * @author Samuel Genois
+ */
+public final class MotorEvent {
+
+	/**
+	 * Faults
+	 */
+	public static final int	STALL = 1,		//The motor barely turns
+							SLIP = 2;		//The motor turns, but far from its commanded speed
+
+	private final int motor, fault, commandedSpeed, measuredSpeed;
+	private final long time;
+
+	/**
+	 * Constructor
+	 *
+	 * @param motor the id of the motor
+	 * @param fault STALL or SLIP
+	 * @param commandedSpeed the speed the motor is commanded to turn at, in degrees/s
+	 * @param measuredSpeed the speed measured from the motor's tacho count, in degrees/s
+	 * @param time the time at which the fault was confirmed, as given by System.nanoTime()
+	 */
+	public MotorEvent(int motor, int fault, int commandedSpeed, int measuredSpeed, long time){
+		this.motor = motor;
+		this.fault = fault;
+		this.commandedSpeed = commandedSpeed;
+		this.measuredSpeed = measuredSpeed;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the id of the motor, as used by Motors.getMotor
+	 * @return the id of the motor
+	 */
+	public int getMotor(){
+		return motor;
+	}
+
+	/**
+	 * Returns the fault
+	 * @return STALL or SLIP
+	 */
+	public int getFault(){
+		return fault;
+	}
+
+	/**
+	 * Returns the speed the motor is commanded to turn at. The speed of a rotation
+	 * is positive, whatever its direction.
+	 * @return the commanded speed, in degrees/s, negative backward
+	 */
+	public int getCommandedSpeed(){
+		return commandedSpeed;
+	}
+
+	/**
+	 * Returns the speed measured from the motor's tacho count
+	 * @return the measured speed, in degrees/s, negative backward
+	 */
+	public int getMeasuredSpeed(){
+		return measuredSpeed;
+	}
+
+	/**
+	 * Returns the time at which the fault was confirmed
+	 * @return the time, as given by System.nanoTime()
+	 */
+	public long getTime(){
+		return time;
+	}
+}
@@ -0,0 +1,19 @@
+package dpm.util;
+
+/**
+ * Interface for objects that want to be told when the MotorMonitor finds a motor that
+ * does not turn as it is commanded to.
+ * <br>Listeners are called from the monitor's thread, so they must return quickly
+ * to avoid delaying the checks of the other motors.
+ *
+ * @author Samuel Genois
+ */
+public interface MotorListener {
+
+	/**
+	 * Called when a motor starts stalling or slipping
+	 *
+	 * @param event the fault
+	 */
+	public void motorFault(MotorEvent event);
+}
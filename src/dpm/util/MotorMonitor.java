@@ -0,0 +1,217 @@
+package dpm.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * MotorMonitor checks that the wheel, claw and lift motors turn as they are commanded to,
+ * and tells its listeners when one does not.
+ * <br>Every PERIOD ms, the speed measured from each motor's tacho count is compared with the
+ * speed the Motors decorator last commanded. A motor that turns at less than STALL_RATIO of
+ * its commanded speed for STALL_TIME ms is stalled: it is pushing against something. A motor
+ * that turns, but more than SLIP_RATIO away from its commanded speed (or the wrong way) for
+ * SLIP_TIME ms, is slipping: its regulator cannot hold the speed against its load. Right after
+ * a command, a motor is given GRACE ms to reach its speed.
+ * <br>The motors on the slave brick are only checked every REMOTE_PERIOD ms, and only while
+ * they are commanded to turn, to keep the link free. They are checked on a thread of their
+ * own, since a query waits behind whatever the link is busy with, such as a MotorScript, and
+ * the local motors must not wait with it. A motor that getMotor has not initialized yet is
+ * not checked.
+ * <br>Listeners are told on the thread that checked the motor.
+ * <br>Each fault is told once, when it is confirmed, and is cleared when the motor turns
+ * as commanded again or is commanded to do something else.
+ *
+ * @author Samuel Genois
+ */
+public class MotorMonitor extends Thread implements DPMConstants{
+
+	/**
+	 * The fault of a motor that turns as commanded
+	 */
+	public static final int NONE = 0;
+
+	private static final int[]	MONITORED = {LEFT, RIGHT, CLAW, LIFT};
+	private static final long	PERIOD = 50,				//In ms
+								REMOTE_PERIOD = 100,		//In ms
+								GRACE = 150,				//In ms
+								STALL_TIME = 200,			//In ms
+								SLIP_TIME = 300;			//In ms
+	private static final double	STALL_RATIO = 0.2,
+								SLIP_RATIO = 0.3;
+
+	private static MotorMonitor theInstance;
+
+	private final CopyOnWriteArrayList<MotorListener> listeners = new CopyOnWriteArrayList<MotorListener>();
+
+	//Per motor id. Only the thread checking the motor writes them, except for faults, which are guarded by this.
+	private final int[] lastTacho = new int[6], faults = new int[6];
+	private final long[] lastTime = new long[6], stallSince = new long[6], slipSince = new long[6];
+
+	private final RemoteCheck remoteCheck = new RemoteCheck();
+
+	/*
+	 * Constructor
+	 */
+	private MotorMonitor(){
+		setDaemon(true);
+	}
+
+	/**
+	 * Returns the monitor, and starts it the first time
+	 * @return the monitor
+	 */
+	public static synchronized MotorMonitor getInstance(){
+		if(theInstance == null){
+			theInstance = new MotorMonitor();
+			theInstance.start();
+			theInstance.remoteCheck.start();
+		}
+		return theInstance;
+	}
+
+	/**
+	 * The run method of the monitor. Checks the local motors every PERIOD ms.
+	 */
+	@Override
+	public void run(){
+		while(true){
+			checkAll(false);
+			HardwareLog.sleep(PERIOD * 1000000l);
+		}
+	}
+
+	/*
+	 * Checks the remote motors every REMOTE_PERIOD ms
+	 */
+	private class RemoteCheck extends Thread{
+
+		private RemoteCheck(){
+			setDaemon(true);
+		}
+
+		@Override
+		public void run(){
+			while(true){
+				checkAll(true);
+				HardwareLog.sleep(REMOTE_PERIOD * 1000000l);
+			}
+		}
+	}
+
+	/*
+	 * Checks the initialized motors that are on the slave brick, or those that are not
+	 */
+	private void checkAll(boolean remote){
+		for(int id : MONITORED){
+			Motors.Motor motor = Motors.peekMotor(id);
+			if(motor != null && motor.isRemote() == remote)
+				check(motor);
+		}
+	}
+
+	/*
+	 * Compares the speed of a motor since the last check with its commanded speed
+	 */
+	private void check(Motors.Motor motor){
+		int id = motor.getId(), commanded = motor.getCommandedSpeed();
+		long now = System.currentTimeMillis();
+		if(commanded == 0 || now - motor.getCommandedAt() < GRACE){
+			restart(id);
+			return;
+		}
+		//A rotation stops by itself at its limit angle
+		if(motor.isRotating() && !motor.isMoving()){
+			motor.rotationEnded();
+			restart(id);
+			return;
+		}
+
+		int tacho = motor.getTachoCount();
+		long time = System.nanoTime();
+		if(lastTime[id] == 0){
+			lastTacho[id] = tacho;
+			lastTime[id] = time;
+			return;
+		}
+		double measured = (tacho - lastTacho[id]) * 1e9 / (time - lastTime[id]);
+		lastTacho[id] = tacho;
+		lastTime[id] = time;
+
+		//The direction of a rotation is not known, so only its speed is compared
+		double expected = Math.abs(commanded),
+				actual = motor.isRotating() ? Math.abs(measured) : measured * Math.signum(commanded);
+		if(actual < STALL_RATIO * expected){
+			slipSince[id] = 0;
+			if(stallSince[id] == 0)
+				stallSince[id] = now;
+			else if(now - stallSince[id] >= STALL_TIME)
+				raise(id, MotorEvent.STALL, commanded, measured, time);
+		}
+		else if(Math.abs(actual - expected) > SLIP_RATIO * expected){
+			stallSince[id] = 0;
+			if(slipSince[id] == 0)
+				slipSince[id] = now;
+			else if(now - slipSince[id] >= SLIP_TIME)
+				raise(id, MotorEvent.SLIP, commanded, measured, time);
+		}
+		else
+			restart(id);
+	}
+
+	/*
+	 * Forgets what was measured of a motor, and clears its fault
+	 */
+	private void restart(int id){
+		lastTime[id] = stallSince[id] = slipSince[id] = 0;
+		synchronized(this){
+			faults[id] = NONE;
+		}
+	}
+
+	/*
+	 * Records a confirmed fault, and tells the listeners about it the first time
+	 */
+	private void raise(int id, int fault, int commanded, double measured, long time){
+		synchronized(this){
+			if(faults[id] == fault)
+				return;
+			faults[id] = fault;
+		}
+		MotorEvent event = new MotorEvent(id, fault, commanded, (int)measured, time);
+		for(MotorListener listener : listeners)
+			listener.motorFault(event);
+	}
+
+	/**
+	 * Returns the current fault of a motor
+	 * @param id the id of the motor
+	 * @return MotorEvent.STALL, MotorEvent.SLIP, or NONE
+	 */
+	public synchronized int getFault(int id){
+		return faults[id];
+	}
+
+	/**
+	 * Returns true if a motor is stalled
+	 * @param id the id of the motor
+	 * @return true if the motor is stalled
+	 */
+	public boolean isStalled(int id){
+		return getFault(id) == MotorEvent.STALL;
+	}
+
+	/**
+	 * Registers a listener to be told about every fault
+	 * @param listener the listener
+	 */
+	public void addListener(MotorListener listener){
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with addListener
+	 * @param listener the listener
+	 */
+	public void removeListener(MotorListener listener){
+		listeners.remove(listener);
+	}
+}
@@ -0,0 +1,118 @@
+package dpm.util;
+
+import java.util.ArrayList;
+
+import lejos.robotics.RegulatedMotor;
+import lejos.utility.Delay;
+
+/**
+ * A sequence of blocking motor moves and delays, run as one unit.
+ * <br>When all of its motors are on the slave brick and reached through a RemoteLink, the
+ * whole script is sent as one batch and the slave runs it step by step, so it costs one
+ * round trip instead of one per step. Otherwise, the steps are run here one after the other.
+ *
+ * @author Samuel Genois
+ */
+public class MotorScript {
+
+	private final ArrayList<Step> steps = new ArrayList<Step>();
+
+	/**
+	 * Adds a rotation of a motor by the specified angle, which completes before the next step
+	 *
+	 * @param motor the motor, as returned by Motors.getMotor
+	 * @param angle the angle to rotate by, in degrees
+	 * @return this script
+	 */
+	public MotorScript rotate(RegulatedMotor motor, int angle){
+		steps.add(new Step(RemoteLink.ROTATE, motor, angle));
+		return this;
+	}
+
+	/**
+	 * Adds a rotation of a motor to the specified angle, which completes before the next step
+	 *
+	 * @param motor the motor, as returned by Motors.getMotor
+	 * @param angle the angle to rotate to, in degrees
+	 * @return this script
+	 */
+	public MotorScript rotateTo(RegulatedMotor motor, int angle){
+		steps.add(new Step(RemoteLink.ROTATE_TO, motor, angle));
+		return this;
+	}
+
+	/**
+	 * Adds a pause
+	 *
+	 * @param ms the length of the pause, in ms
+	 * @return this script
+	 */
+	public MotorScript delay(int ms){
+		steps.add(new Step(RemoteLink.DELAY, null, ms));
+		return this;
+	}
+
+	/**
+	 * Runs the script, and returns once its last step is complete
+	 */
+	public void run(){
+		RemoteLink link = null;
+		RemoteLink.Command[] commands = new RemoteLink.Command[steps.size()];
+		for(int i=0; i<commands.length; i++){
+			Step step = steps.get(i);
+			int port = 0;
+			if(step.motor != null){
+				RegulatedMotor motor = Motors.unwrap(step.motor);
+				if(!(motor instanceof RemoteLink.RemoteMotor) || (link != null && ((RemoteLink.RemoteMotor)motor).link != link)){
+					runLocally();
+					return;
+				}
+				link = ((RemoteLink.RemoteMotor)motor).link;
+				port = ((RemoteLink.RemoteMotor)motor).port;
+			}
+			commands[i] = new RemoteLink.Command(step.op, port, step.arg, false, null);
+		}
+		if(link == null){
+			runLocally();
+			return;
+		}
+		//The slave runs the script behind the motors' references
+		for(Step step : steps)
+			Motors.scripted(step.motor);
+		link.run(commands);
+		for(Step step : steps)
+			Motors.forget(step.motor);
+	}
+
+	/*
+	 * Runs the steps one after the other, each one with its own calls
+	 */
+	private void runLocally(){
+		for(Step step : steps){
+			switch(step.op){
+				case RemoteLink.ROTATE:
+					step.motor.rotate(step.arg);
+					break;
+				case RemoteLink.ROTATE_TO:
+					step.motor.rotateTo(step.arg);
+					break;
+				case RemoteLink.DELAY:
+					Delay.msDelay(step.arg);
+					break;
+			}
+		}
+	}
+
+	private static class Step{
+
+		private final byte op;
+		private final RegulatedMotor motor;
+		private final int arg;
+
+		private Step(byte op, RegulatedMotor motor, int arg){
+			this.op = op;
+			this.motor = motor;
+			this.arg = arg;
+		}
+	}
+}
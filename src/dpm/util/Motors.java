@@ -1,5 +1,9 @@
 package dpm.util;
 
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.hardware.motor.EV3MediumRegulatedMotor;
@@ -9,6 +13,10 @@ import lejos.robotics.RegulatedMotorListener;
 /**
  * A utility class that provides references to the robot's motor's interfaces.
  * The initialization of those interfaces is done internally.
+ * <br>The motors are recorded or replayed when the HardwareLog says so.
+ * <br>Commands that would leave a motor as it already is are not sent to it, and bursts
+ * of speed changes sent to the slave brick are thinned out. The hardware calls saved
+ * this way are counted for each motor.
  *
  * @author Samuel Genois
  */
@@ -16,17 +24,9 @@ public class Motors implements DPMConstants{
 	
 	public static final long ONE_SECOND = 1000;
 	
-	/**
-	 * The radius of the robot's wheels
-	 */
-	public static final double WHEEL_RADIUS = 2.1;
-	
-	/**
-	 * The distance between the robot's left and right wheels.
-	 */
-	public static final double TRACK = 15.8;
-	
 	private static RegulatedMotor[] motors = new RegulatedMotor[6];
+	private static final AtomicLongArray savedCalls = new AtomicLongArray(motors.length);
+	private static Timer flusher;
 	
 	/**
 	 * Returns a reference to the motor corresponding to the
@@ -39,23 +39,23 @@ public class Motors implements DPMConstants{
 		switch(id){
 			case LEFT:
 				if(motors[LEFT] == null)
-					motors[LEFT] = new Motor(RemoteBrickManager.MASTER, 'L', "A");
+					motors[LEFT] = new Motor(LEFT, RemoteBrickManager.MASTER, 'L', "A");
 				return motors[LEFT];
 			case RIGHT:
 				if(motors[RIGHT] == null)
-					motors[RIGHT] = new Motor(RemoteBrickManager.MASTER, 'L', "D");
+					motors[RIGHT] = new Motor(RIGHT, RemoteBrickManager.MASTER, 'L', "D");
 				return motors[RIGHT];
 			case CLAW:
 				if(motors[CLAW] == null)
-					motors[CLAW] = new Motor(RemoteBrickManager.SLAVE, 'M', "A");
+					motors[CLAW] = new Motor(CLAW, RemoteBrickManager.SLAVE, 'M', "A");
 				return motors[CLAW];
 			case LIFT:
 				if(motors[LIFT] == null)
-					motors[LIFT] = new Motor(RemoteBrickManager.SLAVE, 'L', "C");
+					motors[LIFT] = new Motor(LIFT, RemoteBrickManager.SLAVE, 'L', "C");
 				return motors[LIFT];
 			case SENSOR:
 				if(motors[SENSOR] == null)
-					motors[SENSOR] = new Motor(RemoteBrickManager.MASTER, 'L', "B");
+					motors[SENSOR] = new Motor(SENSOR, RemoteBrickManager.MASTER, 'L', "B");
 				return motors[SENSOR];
 			default:	
 				return null;
@@ -63,17 +63,132 @@ public class Motors implements DPMConstants{
 	}
 	
 	
+	/**
+	 * Returns the number of hardware calls that were not made to a motor, because they
+	 * would not have changed what it was doing or were superseded by a later speed change
+	 * @param id the id of the motor
+	 * @return the number of calls saved
+	 */
+	public static long getSavedCalls(int id){
+		return savedCalls.get(id);
+	}
+	
+	/**
+	 * Returns the number of hardware calls saved on all the motors
+	 * @return the number of calls saved
+	 */
+	public static long getSavedCalls(){
+		long total = 0;
+		for(int i=0; i<savedCalls.length(); i++)
+			total += savedCalls.get(i);
+		return total;
+	}
+	
+	/**
+	 * Sets the speed a motor rotates at when told to rotate, without starting it.
+	 * Setting the speed of a reference returned by getMotor also sets its direction,
+	 * which starts the motor.
+	 * @param motor the motor
+	 * @param speed the speed, in degrees/s
+	 */
+	public static void setRotationSpeed(RegulatedMotor motor, int speed){
+		if(motor instanceof Motor)
+			((Motor)motor).setRotationSpeed(speed);
+		else
+			motor.setSpeed(speed);
+	}
+	
+	/*
+	 * Returns the motor a reference returned by getMotor operates
+	 */
+	static RegulatedMotor unwrap(RegulatedMotor motor){
+		return (motor instanceof Motor) ? ((Motor)motor).motor : motor;
+	}
+	
+	/*
+	 * Returns the reference to a motor, if getMotor already initialized it
+	 */
+	static Motor peekMotor(int id){
+		return (motors[id] instanceof Motor) ? (Motor)motors[id] : null;
+	}
+	
+	/*
+	 * Tells a reference returned by getMotor that the motor it operates is being
+	 * moved by a script run without it
+	 */
+	static void scripted(RegulatedMotor motor){
+		if(motor instanceof Motor)
+			((Motor)motor).scripted();
+	}
+	
+	/*
+	 * Tells a reference returned by getMotor that the motor it operates was
+	 * commanded without it, so it no longer knows what the motor is doing
+	 */
+	static void forget(RegulatedMotor motor){
+		if(motor instanceof Motor)
+			((Motor)motor).forget();
+	}
+	
+	/*
+	 * Returns the timer that sends the speed changes held back by the rate limit
+	 */
+	private static synchronized Timer getFlusher(){
+		if(flusher == null)
+			flusher = new Timer(true);
+		return flusher;
+	}
+	
 	/**
 	 * A decorator design pattern class that effectively synchronizes
 	 * all of the method calls used in this project to operate a motor.();
+	 * The calls that matter to the robot's hot paths are reported to IOStats.
+	 * <br>The decorator remembers the speed and the direction it last sent, and drops
+	 * commands that match them. What it remembers is trusted for REFRESH ms only, so a
+	 * motor that stopped by itself (after a stall, for instance) is soon commanded again.
+	 * The speed changes of a motor on the slave brick are sent at most once per
+	 * MIN_INTERVAL ms: within a burst, only the latest is sent, once the interval is over.
+	 * Any other command sends the held back speed change first, so the order of the
+	 * commands the motor sees is kept.
+	 * <br>What the motor is commanded to do is also what the MotorMonitor checks it against.
 	 * 
 	 * @author Samuel
 	 */
-	private static class Motor implements RegulatedMotor{
+	static class Motor implements RegulatedMotor{
+		
+		//What the motor is known to be doing
+		private static final int	UNKNOWN = 0,
+									FORWARD = 1,
+									BACKWARD = 2,
+									STOPPING = 3,
+									STOPPED = 4,
+									ROTATING = 5,
+									SCRIPTED = 6;			//Moved by a MotorScript run on the slave brick
+		private static final long	MIN_INTERVAL = 40,		//Shortest time between two speed changes sent to the slave brick, in ms
+									REFRESH = 500;			//How long the known state is trusted, in ms
 		
 		private RegulatedMotor motor;
+		private final int id, setSpeedSlot, rotateSlot, tachoSlot, stopSlot;
+		private final boolean remote;
+		
+		//Guarded by this
+		private int speed = -1, state = UNKNOWN, acceleration = -1;
+		private long confirmedAt, sentAt, commandedAt;
+		private int pendingSpeed, pendingState = UNKNOWN;
+		private TimerTask flush;
 		
-		private Motor(int brick, char type, String portName){
+		private Motor(int id, int brick, char type, String portName){
+			this.id = id;
+			remote = brick == RemoteBrickManager.SLAVE;
+			setSpeedSlot = IOStats.motorSlot(id, IOStats.SET_SPEED);
+			rotateSlot = IOStats.motorSlot(id, IOStats.ROTATE);
+			tachoSlot = IOStats.motorSlot(id, IOStats.GET_TACHO_COUNT);
+			stopSlot = IOStats.motorSlot(id, IOStats.STOP);
+			//A replayed motor has no hardware behind it
+			if(HardwareLog.getMode() == HardwareLog.REPLAY){
+				motor = HardwareLog.motor(id, null);
+				return;
+			}
 			switch(brick){
 			case RemoteBrickManager.MASTER:
 				switch(type){
@@ -88,56 +203,280 @@ public class Motors implements DPMConstants{
 				}
 				break;
 			case RemoteBrickManager.SLAVE:
-				motor = RemoteBrickManager.getSlave().createRegulatedMotor(portName, type);
+				RemoteLink link = RemoteBrickManager.getLink();
+				if(link != null)
+					motor = link.createRegulatedMotor(portName, type);
+				else
+					motor = RemoteBrickManager.getSlave().createRegulatedMotor(portName, type);
 				break;
 			default:	
 				motor = null;
 			}
+			motor = HardwareLog.motor(id, motor);
 		}
 		
 		@Override
-		public void setSpeed(int speed){
-			if(speed >= 0){
-				motor.setSpeed(speed);
-				forward();
+		public synchronized void setSpeed(int speed){
+			int magnitude = Math.abs(speed), direction = (speed >= 0) ? FORWARD : BACKWARD;
+			long now = System.currentTimeMillis();
+			//A held back speed change is superseded by this one
+			if(pendingState != UNKNOWN){
+				pendingState = UNKNOWN;
+				saved(2);
+			}
+			int calls = calls(magnitude, direction, now);
+			if(calls == 0){
+				saved(2);
+				return;
 			}
-			else {
-				motor.setSpeed(-speed);
-				backward();
+			if(remote && now - sentAt < MIN_INTERVAL){
+				pendingSpeed = magnitude;
+				pendingState = direction;
+				if(flush == null){
+					flush = new TimerTask(){
+						@Override
+						public void run(){
+							synchronized(Motor.this){
+								flush = null;
+								flushPending();
+							}
+						}
+					};
+					getFlusher().schedule(flush, sentAt + MIN_INTERVAL - now);
+				}
+				return;
 			}
+			saved(2 - calls);
+			send(magnitude, direction, now);
+		}
+		
+		/*
+		 * Sets the speed of the next rotations, without sending a direction
+		 */
+		private synchronized void setRotationSpeed(int speed){
+			flushPending();
+			int magnitude = Math.abs(speed);
+			if(magnitude == this.speed){
+				saved(1);
+				return;
+			}
+			long start = IOStats.start(setSpeedSlot);
+			motor.setSpeed(magnitude);
+			this.speed = magnitude;
+			IOStats.end(setSpeedSlot, start);
+		}
+		
+		/*
+		 * Returns how many calls it takes to bring the motor to a speed and direction
+		 */
+		private int calls(int magnitude, int direction, long now){
+			if(now - confirmedAt >= REFRESH)
+				return 2;
+			return ((magnitude != speed) ? 1 : 0) + ((direction != state) ? 1 : 0);
+		}
+		
+		/*
+		 * Brings the motor to a speed and direction, with the calls it takes
+		 */
+		private void send(int magnitude, int direction, long now){
+			long start = IOStats.start(setSpeedSlot);
+			boolean stale = now - confirmedAt >= REFRESH;
+			if(magnitude != speed || direction != state)
+				commandedAt = now;
+			if(stale || magnitude != speed){
+				motor.setSpeed(magnitude);
+				speed = magnitude;
+			}
+			if(stale || direction != state){
+				if(direction == FORWARD)
+					motor.forward();
+				else
+					motor.backward();
+				state = direction;
+			}
+			confirmedAt = sentAt = now;
+			IOStats.end(setSpeedSlot, start);
+		}
+		
+		/*
+		 * Sends the held back speed change, if any
+		 */
+		private void flushPending(){
+			if(pendingState == UNKNOWN)
+				return;
+			int direction = pendingState;
+			pendingState = UNKNOWN;
+			long now = System.currentTimeMillis();
+			saved(2 - calls(pendingSpeed, direction, now));
+			send(pendingSpeed, direction, now);
+		}
+		
+		/*
+		 * Forgets what the motor is doing, after sending the held back speed change
+		 */
+		private synchronized void forget(){
+			flushPending();
+			state = UNKNOWN;
+			speed = -1;
+		}
+		
+		/*
+		 * Records that a script moves the motor, after sending the held back speed change
+		 */
+		private synchronized void scripted(){
+			flushPending();
+			enter(SCRIPTED);
+		}
+		
+		/*
+		 * Returns the speed the motor is commanded to turn at, in degrees/s: negative if it
+		 * is commanded backward, and positive for a rotation, whatever its direction.
+		 * Returns 0 if the motor is not commanded to turn.
+		 */
+		synchronized int getCommandedSpeed(){
+			switch(state){
+				case FORWARD:
+					return speed;
+				case BACKWARD:
+					return -speed;
+				case ROTATING:
+				case SCRIPTED:
+					//A rotation turns at the motor's speed, which may never have been set here
+					if(speed < 0)
+						speed = motor.getSpeed();
+					return speed;
+				default:
+					return 0;
+			}
+		}
+		
+		/*
+		 * Returns true if the motor is commanded to rotate to a limit angle, and stops by itself
+		 */
+		synchronized boolean isRotating(){
+			return state == ROTATING || state == SCRIPTED;
+		}
+		
+		/*
+		 * Returns the time of the latest command that changed what the motor is
+		 * commanded to do, as given by System.currentTimeMillis()
+		 */
+		synchronized long getCommandedAt(){
+			return commandedAt;
+		}
+		
+		/*
+		 * Records that a rotation started without waiting is over
+		 */
+		void rotationEnded(){
+			settle(ROTATING, STOPPED);
+		}
+		
+		/*
+		 * Returns true if the motor is on the slave brick
+		 */
+		boolean isRemote(){
+			return remote;
+		}
+		
+		/*
+		 * Returns the id of the motor
+		 */
+		int getId(){
+			return id;
+		}
+		
+		/*
+		 * Counts calls that were not made
+		 */
+		private void saved(int calls){
+			if(calls > 0)
+				savedCalls.addAndGet(id, calls);
+		}
+		
+		/*
+		 * Returns true if the motor is known to be in the specified state
+		 */
+		private boolean isIn(int knownState){
+			return state == knownState && System.currentTimeMillis() - confirmedAt < REFRESH;
+		}
+		
+		/*
+		 * Records the state a command leaves the motor in
+		 */
+		private void enter(int newState){
+			state = newState;
+			confirmedAt = commandedAt = System.currentTimeMillis();
 		}
 		
 		@Override
 		public void stop(){
-			motor.stop();
+			stop(false);
 		}
 		
 		@Override
 		public void rotate(int angle, boolean immediateReturn){
+			synchronized(this){
+				flushPending();
+				enter(ROTATING);
+			}
+			long start = IOStats.start(rotateSlot);
 			motor.rotate(angle, immediateReturn);
+			IOStats.end(rotateSlot, start);
+			if(!immediateReturn)
+				settle(ROTATING, STOPPED);
 		}
 		
 		@Override
 		public void rotateTo(int angle, boolean immediateReturn){
+			synchronized(this){
+				flushPending();
+				enter(ROTATING);
+			}
+			long start = IOStats.start(rotateSlot);
 			motor.rotateTo(angle, immediateReturn);
+			IOStats.end(rotateSlot, start);
+			if(!immediateReturn)
+				settle(ROTATING, STOPPED);
+		}
+		
+		/*
+		 * Records the state a blocking command left the motor in, unless another
+		 * command was issued meanwhile
+		 */
+		private synchronized void settle(int expected, int newState){
+			if(state == expected)
+				enter(newState);
 		}
 
 
 		@Override
-		public void forward() {
+		public synchronized void forward() {
+			flushPending();
+			if(isIn(FORWARD)){
+				saved(1);
+				return;
+			}
 			motor.forward();
+			enter(FORWARD);
 		}
 
 
 		@Override
-		public void backward() {
-			motor.backward();	
+		public synchronized void backward() {
+			flushPending();
+			if(isIn(BACKWARD)){
+				saved(1);
+				return;
+			}
+			motor.backward();
+			enter(BACKWARD);
 		}
 
 
 		@Override
 		public void flt() {
-			motor.flt();
+			flt(false);
 		}
 
 
@@ -155,7 +494,10 @@ public class Motors implements DPMConstants{
 
 		@Override
 		public int getTachoCount() {
-			return motor.getTachoCount();
+			long start = IOStats.start(tachoSlot);
+			int tachoCount = motor.getTachoCount();
+			IOStats.end(tachoSlot, start);
+			return tachoCount;
 		}
 
 
@@ -179,13 +521,29 @@ public class Motors implements DPMConstants{
 
 		@Override
 		public void stop(boolean immediateReturn) {
+			synchronized(this){
+				flushPending();
+				//A motor that is stopping only needs to be waited for
+				if(isIn(STOPPED) || (immediateReturn && isIn(STOPPING))){
+					saved(1);
+					return;
+				}
+				enter(STOPPING);
+			}
+			long start = IOStats.start(stopSlot);
 			motor.stop(immediateReturn);
-			
+			IOStats.end(stopSlot, start);
+			if(!immediateReturn)
+				settle(STOPPING, STOPPED);
 		}
 
 
 		@Override
 		public void flt(boolean immediateReturn) {
+			synchronized(this){
+				flushPending();
+				enter(UNKNOWN);
+			}
 			motor.flt(immediateReturn);
 			
 		}
@@ -200,15 +558,13 @@ public class Motors implements DPMConstants{
 
 		@Override
 		public void rotate(int angle) {
-			motor.rotate(angle);
-			
+			rotate(angle, false);
 		}
 
 
 		@Override
 		public void rotateTo(int limitAngle) {
-			motor.rotateTo(limitAngle);
-			
+			rotateTo(limitAngle, false);
 		}
 
 
@@ -232,8 +588,7 @@ public class Motors implements DPMConstants{
 
 		@Override
 		public boolean isStalled() {
-			motor.isStalled();
-			return false;
+			return motor.isStalled();
 		}
 
 
@@ -245,15 +600,23 @@ public class Motors implements DPMConstants{
 
 
 		@Override
-		public void setAcceleration(int acceleration) {
+		public synchronized void setAcceleration(int acceleration) {
+			if(acceleration == this.acceleration){
+				saved(1);
+				return;
+			}
 			motor.setAcceleration(acceleration);
-			
+			this.acceleration = acceleration;
 		}
 
 
 		@Override
 		public void synchronizeWith(RegulatedMotor[] syncList) {
-			motor.synchronizeWith(syncList);
+			//The hardware motor only synchronizes with other hardware motors
+			RegulatedMotor[] hardware = new RegulatedMotor[syncList.length];
+			for(int i=0; i<syncList.length; i++)
+				hardware[i] = HardwareLog.unwrap(unwrap(syncList[i]));
+			motor.synchronizeWith(hardware);
 			
 		}
 
@@ -9,6 +9,8 @@ import lejos.remote.ev3.RemoteRequestEV3;
  * public access to that interface and means to disconnect 
  * the slave brick when it is o longer needed 
  * (at the end of the programs execution)
+ * <br>If the slave brick runs a SlaveServer, its motors and sensors are
+ * reached through a RemoteLink instead, which batches and pipelines commands.
  * 
  * @author Samuel Genois
  *
@@ -20,7 +22,10 @@ public class RemoteBrickManager{
 	
 	private static final String SLAVE_NAME = "EV3";
 	
+	private static String slaveAddress;
 	private static RemoteRequestEV3 slave;
+	private static RemoteLink link;
+	private static boolean linkRefused;
 	
 	/**
 	 * Disconnects the slave brick and destroys the interface.
@@ -29,6 +34,34 @@ public class RemoteBrickManager{
 		if(slave != null)
 			slave.disConnect();
 		slave = null;
+		if(link != null)
+			link.close();
+		link = null;
+	}
+	
+	/**
+	 * Returns the link to the SlaveServer running on the slave brick
+	 * 
+	 * @return the link, or null if the slave brick does not run a SlaveServer
+	 */
+	public static synchronized RemoteLink getLink(){
+		if(link == null && !linkRefused){
+			try {
+				link = new RemoteLink(getSlaveAddress(), SlaveServer.PORT);
+			} catch (IOException e) {
+				linkRefused = true;
+			}
+		}
+		return link;
+	}
+	
+	/*
+	 * Finds the slave brick's address, only once
+	 */
+	private static String getSlaveAddress(){
+		if(slaveAddress == null)
+			slaveAddress = BrickCommunication.find(SLAVE_NAME)[0].getIPAddress();
+		return slaveAddress;
 	}
 	
 	/**
@@ -41,7 +74,7 @@ public class RemoteBrickManager{
 		if(slave == null){
 			
 			try {
-				slave = new RemoteRequestEV3(BrickCommunication.find(SLAVE_NAME)[0].getIPAddress());
+				slave = new RemoteRequestEV3(getSlaveAddress());
 			} catch (IOException e) {
 				slave.toString();
 			}
@@ -0,0 +1,507 @@
+package dpm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.RegulatedMotorListener;
+import lejos.robotics.SampleProvider;
+
+/**
+ * The master brick's side of a connection to a SlaveServer running on the slave brick.
+ * <br>Instead of one synchronous round trip per call, as with RemoteRequestEV3, commands
+ * are queued and a writer thread sends everything queued so far as one batch. Batches are
+ * pipelined: up to MAX_IN_FLIGHT of them travel at once, and a reader thread hands each
+ * reply back to the command that asked for it.
+ * <br>Commands that return nothing and do not wait for the motor (setSpeed, forward,
+ * rotate with immediate return, ...) return as soon as they are queued. Sensor reads are
+ * pipelined: a fetch returns the previous reply and asks for the next one, so it only waits
+ * for the network the first time. A MotorScript runs several blocking commands as one
+ * batch, executed in order by the slave.
+ * <br>A command the slave fails to execute is answered with ERROR. A sensor read that fails
+ * keeps the previous sample.
+ *
+ * @author Samuel Genois
+ */
+public class RemoteLink {
+
+	//Commands, shared with the SlaveServer
+	static final byte	OPEN_MOTOR = 0,
+						OPEN_SENSOR = 1,
+						SET_SPEED = 2,
+						FORWARD = 3,
+						BACKWARD = 4,
+						STOP = 5,
+						FLT = 6,
+						ROTATE = 7,
+						ROTATE_TO = 8,
+						GET_TACHO_COUNT = 9,
+						RESET_TACHO_COUNT = 10,
+						IS_MOVING = 11,
+						GET_ROTATION_SPEED = 12,
+						GET_LIMIT_ANGLE = 13,
+						GET_MAX_SPEED = 14,
+						IS_STALLED = 15,
+						WAIT_COMPLETE = 16,
+						SET_ACCELERATION = 17,
+						FETCH_SAMPLE = 18,
+						DELAY = 19;
+
+	//The reply to a command the slave failed to execute, shared with the SlaveServer
+	static final int	ERROR = Integer.MIN_VALUE;
+
+	private static final int	MAX_IN_FLIGHT = 4;
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final LinkedBlockingQueue<Command> queue = new LinkedBlockingQueue<Command>();
+	private final LinkedBlockingQueue<Command[]> inFlight = new LinkedBlockingQueue<Command[]>();
+	private final Semaphore window = new Semaphore(MAX_IN_FLIGHT);
+
+	private volatile boolean open = true;
+	private volatile int batches, commands;
+
+	/**
+	 * Constructor. Connects to a SlaveServer and starts the writer and reader threads.
+	 *
+	 * @param host the address of the slave brick
+	 * @param port the port the SlaveServer listens on
+	 * @throws IOException if the slave cannot be reached
+	 */
+	public RemoteLink(String host, int port) throws IOException{
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+		Thread writer = new Thread(){
+			@Override
+			public void run(){
+				write();
+			}
+		};
+		Thread reader = new Thread(){
+			@Override
+			public void run(){
+				read();
+			}
+		};
+		writer.setDaemon(true);
+		reader.setDaemon(true);
+		writer.start();
+		reader.start();
+	}
+
+	/**
+	 * Returns a motor of the slave brick, operated through this link
+	 *
+	 * @param portName the motor's port, "A" to "D"
+	 * @param type 'L' for a large motor, 'M' for a medium motor
+	 * @return the motor
+	 */
+	public RegulatedMotor createRegulatedMotor(String portName, char type){
+		int port = portName.charAt(0) - 'A';
+		call(OPEN_MOTOR, port, type, false);
+		return new RemoteMotor(this, port);
+	}
+
+	/**
+	 * Returns a sensor of the slave brick, read through this link
+	 *
+	 * @param portName the sensor's port, "S1" to "S4"
+	 * @param sensorType the sensor and mode, as defined in Sensors
+	 * @return the sensor, or null if the slave could not open it
+	 */
+	public SampleProvider createSampleProvider(String portName, int sensorType){
+		int port = portName.charAt(1) - '1';
+		int size = call(OPEN_SENSOR, port, sensorType, false);
+		if(size == ERROR)
+			return null;
+		return new RemoteSensor(this, port, size);
+	}
+
+	/**
+	 * Closes the connection. The commands still waiting for a reply return 0.
+	 */
+	public void close(){
+		open = false;
+		try{socket.close();}catch(IOException e){}
+		queue.add(new Command(DELAY, 0, 0, false, null));
+	}
+
+	/**
+	 * Returns the number of batches sent so far, each of which costs one round trip
+	 * @return the number of batches
+	 */
+	public int getBatches(){
+		return batches;
+	}
+
+	/**
+	 * Returns the number of commands sent so far
+	 * @return the number of commands
+	 */
+	public int getCommands(){
+		return commands;
+	}
+
+	/*
+	 * Queues a command and returns without waiting for its reply
+	 */
+	Command send(byte op, int device, int arg, boolean flag, float[] sample){
+		Command command = new Command(op, device, arg, flag, sample);
+		if(!open)
+			command.complete(0);
+		else
+			queue.add(command);
+		return command;
+	}
+
+	/*
+	 * Queues a command and waits for its reply
+	 */
+	int call(byte op, int device, int arg, boolean flag){
+		return send(op, device, arg, flag, null).await();
+	}
+
+	/*
+	 * Queues the steps of a script so they are all sent in the same batch,
+	 * and waits until the slave executed the last one
+	 */
+	void run(Command[] script){
+		synchronized(queue){
+			for(Command command : script){
+				if(!open)
+					command.complete(0);
+				else
+					queue.add(command);
+			}
+		}
+		if(script.length > 0)
+			script[script.length - 1].await();
+	}
+
+	/*
+	 * The writer thread: sends everything queued as one batch, as long as fewer
+	 * than MAX_IN_FLIGHT batches await their replies
+	 */
+	private void write(){
+		ArrayList<Command> batch = new ArrayList<Command>();
+		try{
+			while(open){
+				Command first = queue.take();
+				batch.add(first);
+				//A script is queued while holding the lock, so it is never split between batches
+				synchronized(queue){
+					queue.drainTo(batch);
+				}
+				window.acquire();
+				if(!open)
+					break;
+
+				Command[] sent = batch.toArray(new Command[batch.size()]);
+				inFlight.add(sent);
+				batch.clear();
+				out.writeInt(sent.length);
+				for(Command command : sent){
+					out.writeByte(command.op);
+					out.writeByte(command.device);
+					out.writeBoolean(command.flag);
+					out.writeInt(command.arg);
+				}
+				out.flush();
+				batches++;
+				commands += sent.length;
+			}
+		} catch(InterruptedException | IOException e){
+		}
+		//Commands taken from the queue but never sent are neither queued nor in flight any more
+		for(Command command : batch)
+			command.complete(0);
+		fail();
+	}
+
+	/*
+	 * The reader thread: completes the commands of each batch, in the order they were sent
+	 */
+	private void read(){
+		try{
+			while(open){
+				Command[] batch = inFlight.take();
+				for(Command command : batch){
+					if(command.op == FETCH_SAMPLE){
+						int size = in.readInt();
+						for(int i=0; i<size; i++){
+							float value = in.readFloat();
+							if(i < command.sample.length)
+								command.sample[i] = value;
+						}
+						command.complete(size);
+					}
+					else
+						command.complete(in.readInt());
+				}
+				window.release();
+			}
+		} catch(InterruptedException | IOException e){
+		}
+		fail();
+	}
+
+	/*
+	 * Releases everything waiting for a reply once the connection is lost
+	 */
+	private void fail(){
+		open = false;
+		window.release(MAX_IN_FLIGHT);
+		Command[] batch;
+		while((batch = inFlight.poll()) != null)
+			for(Command command : batch)
+				command.complete(0);
+		Command command;
+		while((command = queue.poll()) != null)
+			command.complete(0);
+	}
+
+	/*
+	 * One command and, once the slave answered, its result
+	 */
+	static class Command{
+
+		private final byte op, device;
+		private final boolean flag;
+		private final int arg;
+		private final float[] sample;
+		private int result;
+		private boolean done;
+
+		Command(byte op, int device, int arg, boolean flag, float[] sample){
+			this.op = op;
+			this.device = (byte)device;
+			this.arg = arg;
+			this.flag = flag;
+			this.sample = sample;
+		}
+
+		synchronized void complete(int result){
+			this.result = result;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized boolean isDone(){
+			return done;
+		}
+
+		synchronized int await(){
+			while(!done){
+				try{wait();}catch(InterruptedException e){}
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * A motor of the slave brick
+	 */
+	static class RemoteMotor implements RegulatedMotor{
+
+		final RemoteLink link;
+		final int port;
+		private int speed = 360;
+
+		private RemoteMotor(RemoteLink link, int port){
+			this.link = link;
+			this.port = port;
+		}
+
+		@Override
+		public void setSpeed(int speed){
+			this.speed = speed;
+			link.send(SET_SPEED, port, speed, false, null);
+		}
+
+		@Override
+		public void forward(){
+			link.send(FORWARD, port, 0, false, null);
+		}
+
+		@Override
+		public void backward(){
+			link.send(BACKWARD, port, 0, false, null);
+		}
+
+		@Override
+		public void stop(){
+			link.call(STOP, port, 0, false);
+		}
+
+		@Override
+		public void stop(boolean immediateReturn){
+			if(immediateReturn)
+				link.send(STOP, port, 0, true, null);
+			else
+				stop();
+		}
+
+		@Override
+		public void flt(){
+			link.call(FLT, port, 0, false);
+		}
+
+		@Override
+		public void flt(boolean immediateReturn){
+			if(immediateReturn)
+				link.send(FLT, port, 0, true, null);
+			else
+				flt();
+		}
+
+		@Override
+		public void rotate(int angle){
+			rotate(angle, false);
+		}
+
+		@Override
+		public void rotate(int angle, boolean immediateReturn){
+			if(immediateReturn)
+				link.send(ROTATE, port, angle, true, null);
+			else
+				link.call(ROTATE, port, angle, false);
+		}
+
+		@Override
+		public void rotateTo(int limitAngle){
+			rotateTo(limitAngle, false);
+		}
+
+		@Override
+		public void rotateTo(int limitAngle, boolean immediateReturn){
+			if(immediateReturn)
+				link.send(ROTATE_TO, port, limitAngle, true, null);
+			else
+				link.call(ROTATE_TO, port, limitAngle, false);
+		}
+
+		@Override
+		public int getTachoCount(){
+			return link.call(GET_TACHO_COUNT, port, 0, false);
+		}
+
+		@Override
+		public void resetTachoCount(){
+			link.send(RESET_TACHO_COUNT, port, 0, false, null);
+		}
+
+		@Override
+		public boolean isMoving(){
+			return link.call(IS_MOVING, port, 0, false) != 0;
+		}
+
+		@Override
+		public int getRotationSpeed(){
+			return link.call(GET_ROTATION_SPEED, port, 0, false);
+		}
+
+		@Override
+		public int getLimitAngle(){
+			return link.call(GET_LIMIT_ANGLE, port, 0, false);
+		}
+
+		@Override
+		public int getSpeed(){
+			return speed;
+		}
+
+		@Override
+		public float getMaxSpeed(){
+			return link.call(GET_MAX_SPEED, port, 0, false);
+		}
+
+		@Override
+		public boolean isStalled(){
+			return link.call(IS_STALLED, port, 0, false) != 0;
+		}
+
+		@Override
+		public void waitComplete(){
+			link.call(WAIT_COMPLETE, port, 0, false);
+		}
+
+		@Override
+		public void setAcceleration(int acceleration){
+			link.send(SET_ACCELERATION, port, acceleration, false, null);
+		}
+
+		//Not supported over the link
+		@Override
+		public void setStallThreshold(int error, int time){}
+
+		@Override
+		public void addListener(RegulatedMotorListener listener){}
+
+		@Override
+		public RegulatedMotorListener removeListener(){
+			return null;
+		}
+
+		@Override
+		public void synchronizeWith(RegulatedMotor[] syncList){}
+
+		@Override
+		public void startSynchronization(){}
+
+		@Override
+		public void endSynchronization(){}
+
+		@Override
+		public void close(){}
+	}
+
+	/*
+	 * A sensor of the slave brick. Each fetch returns the latest reply and asks for the next one.
+	 */
+	private static class RemoteSensor implements SampleProvider{
+
+		private final RemoteLink link;
+		private final int port;
+		private final float[] latest;
+		private Command pending;
+		private boolean valid;
+
+		private RemoteSensor(RemoteLink link, int port, int size){
+			this.link = link;
+			this.port = port;
+			this.latest = new float[size];
+		}
+
+		@Override
+		public int sampleSize(){
+			return latest.length;
+		}
+
+		@Override
+		public synchronized void fetchSample(float[] sample, int offset){
+			if(pending == null)
+				pending = link.send(FETCH_SAMPLE, port, 0, false, new float[latest.length]);
+			//Only the very first fetch waits for its reply
+			if(!valid)
+				pending.await();
+			if(pending.isDone()){
+				if(pending.await() != ERROR)
+					System.arraycopy(pending.sample, 0, latest, 0, latest.length);
+				valid = true;
+				pending = link.send(FETCH_SAMPLE, port, 0, false, pending.sample);
+			}
+			System.arraycopy(latest, 0, sample, offset, latest.length);
+		}
+	}
+}
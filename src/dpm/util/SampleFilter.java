@@ -0,0 +1,279 @@
+package dpm.util;
+
+/**
+ * A stage that filters a stream of sensor samples in place, one sample at a time.
+ * <br>Stages are built with the static factories and combined with chain. The SensorHub
+ * applies a sensor's filter on its sampling thread, before publishing the sample, so
+ * every consumer of the sensor reads the same filtered value.
+ * <br>Stages keep state about the previous samples, so a stage must only filter one
+ * stream. They allocate their state on the first sample and nothing afterwards.
+ *
+ * @author Samuel Genois
+ */
+public abstract class SampleFilter {
+
+	/**
+	 * Filters a sample in place
+	 *
+	 * @param sample the sample values, replaced by the filtered values
+	 */
+	public abstract void filter(float[] sample);
+
+	/**
+	 * Returns a filter that applies the provided stages in order
+	 *
+	 * @param stages the stages to apply
+	 * @return the combined filter
+	 */
+	public static SampleFilter chain(final SampleFilter... stages){
+		return new SampleFilter(){
+			@Override
+			public void filter(float[] sample){
+				for(SampleFilter stage : stages)
+					stage.filter(sample);
+			}
+		};
+	}
+
+	/**
+	 * Returns a filter that replaces each value by the median of its last n values
+	 *
+	 * @param n the number of values, 3 or 5
+	 * @return the median filter
+	 */
+	public static SampleFilter median(int n){
+		if(n != 3 && n != 5)
+			throw new IllegalArgumentException("Median of " + n + " values is not supported");
+		return new Median(n);
+	}
+
+	/**
+	 * Returns a filter that replaces each value by an exponential moving average
+	 *
+	 * @param weight the weight of the newest value, between 0 and 1
+	 * @return the moving average filter
+	 */
+	public static SampleFilter ema(float weight){
+		return new Ema(weight);
+	}
+
+	/**
+	 * Returns a filter that holds the last valid value in place of values outside of
+	 * a range (outliers), such as the ultrasonic sensor's readings of 0
+	 *
+	 * @param min the smallest valid value
+	 * @param max the largest valid value
+	 * @return the outlier filter
+	 */
+	public static SampleFilter outliers(float min, float max){
+		return new Outliers(min, max);
+	}
+
+	/**
+	 * Returns a filter that holds the last valid value in place of the ultrasonic sensor's
+	 * "no echo" readings (at or beyond its largest range, or infinite), unless they persist.
+	 * A lost echo does not then look like the obstacle in front of the robot has vanished.
+	 *
+	 * @param maxRange the sensor's largest range; readings at or beyond it have no echo
+	 * @param confirmations the number of consecutive no echo readings after which they are believed
+	 * @return the no echo filter
+	 */
+	public static SampleFilter noEcho(float maxRange, int confirmations){
+		return new NoEcho(maxRange, confirmations);
+	}
+
+	/**
+	 * Returns a filter that holds the last accepted value in place of sudden jumps,
+	 * unless the new value persists
+	 *
+	 * @param maxJump the largest change between two values accepted at once
+	 * @param confirmations the number of consecutive readings after which a jump is believed
+	 * @return the spike filter
+	 */
+	public static SampleFilter spikes(float maxJump, int confirmations){
+		return new Spikes(maxJump, confirmations);
+	}
+
+	/*
+	 * Median of the last 3 or 5 values of each component, sorted with a sorting network
+	 */
+	private static class Median extends SampleFilter{
+
+		private final int n;
+		private float[][] window;
+		private int next, count;
+
+		private Median(int n){
+			this.n = n;
+		}
+
+		@Override
+		public void filter(float[] sample){
+			if(window == null)
+				window = new float[sample.length][n];
+			for(int i=0; i<sample.length; i++)
+				window[i][next] = sample[i];
+			next = (next + 1) % n;
+			if(count < n){
+				count++;
+				return;
+			}
+			for(int i=0; i<sample.length; i++)
+				sample[i] = (n == 3) ? median3(window[i]) : median5(window[i]);
+		}
+
+		private static float median3(float[] v){
+			float a = v[0], b = v[1], c = v[2];
+			return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+		}
+
+		//Optimal 9 comparator network for 5 values; only the middle one is kept
+		private static float median5(float[] v){
+			float a = v[0], b = v[1], c = v[2], d = v[3], e = v[4], t;
+			if(a > b){t = a; a = b; b = t;}
+			if(d > e){t = d; d = e; e = t;}
+			if(c > e){t = c; c = e; e = t;}
+			if(c > d){t = c; c = d; d = t;}
+			if(a > d){t = a; a = d; d = t;}
+			if(a > c){t = a; a = c; c = t;}
+			if(b > e){t = b; b = e; e = t;}
+			if(b > d){t = b; b = d; d = t;}
+			if(b > c){t = b; b = c; c = t;}
+			return c;
+		}
+	}
+
+	/*
+	 * Exponential moving average of each component. A value that is not finite (NaN or
+	 * infinite) would stay in the average forever, so the average is held in its place,
+	 * and the average starts from the first finite value.
+	 */
+	private static class Ema extends SampleFilter{
+
+		private final float weight;
+		private float[] average;
+		private boolean[] seeded;
+
+		private Ema(float weight){
+			this.weight = weight;
+		}
+
+		@Override
+		public void filter(float[] sample){
+			if(average == null){
+				average = new float[sample.length];
+				seeded = new boolean[sample.length];
+			}
+			for(int i=0; i<sample.length; i++){
+				//NaN and the infinities are the values for which this is false
+				if(Math.abs(sample[i]) <= Float.MAX_VALUE){
+					if(seeded[i])
+						average[i] += weight * (sample[i] - average[i]);
+					else
+						average[i] = sample[i];
+					seeded[i] = true;
+				}
+				if(seeded[i])
+					sample[i] = average[i];
+			}
+		}
+	}
+
+	/*
+	 * Holds the last value within a range in place of each value outside of it
+	 */
+	private static class Outliers extends SampleFilter{
+
+		private final float min, max;
+		private float[] last;
+
+		private Outliers(float min, float max){
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public void filter(float[] sample){
+			if(last == null)
+				last = sample.clone();
+			for(int i=0; i<sample.length; i++){
+				if(sample[i] >= min && sample[i] <= max)
+					last[i] = sample[i];
+				else
+					sample[i] = last[i];
+			}
+		}
+	}
+
+	/*
+	 * Holds the last value with an echo until no echo is confirmed
+	 */
+	private static class NoEcho extends SampleFilter{
+
+		private final float maxRange;
+		private final int confirmations;
+		private float[] last;
+		private int[] missing;
+
+		private NoEcho(float maxRange, int confirmations){
+			this.maxRange = maxRange;
+			this.confirmations = confirmations;
+		}
+
+		@Override
+		public void filter(float[] sample){
+			if(last == null){
+				last = new float[sample.length];
+				missing = new int[sample.length];
+				for(int i=0; i<sample.length; i++){
+					last[i] = maxRange;
+					missing[i] = confirmations;
+				}
+			}
+			for(int i=0; i<sample.length; i++){
+				//NaN compares false, so it counts as no echo as well
+				if(sample[i] < maxRange){
+					missing[i] = 0;
+					last[i] = sample[i];
+				}
+				else if(++missing[i] < confirmations)
+					sample[i] = last[i];
+				else
+					missing[i] = confirmations;
+			}
+		}
+	}
+
+	/*
+	 * Holds the last accepted value until a jump is confirmed
+	 */
+	private static class Spikes extends SampleFilter{
+
+		private final float maxJump;
+		private final int confirmations;
+		private float[] last;
+		private int[] jumps;
+
+		private Spikes(float maxJump, int confirmations){
+			this.maxJump = maxJump;
+			this.confirmations = confirmations;
+		}
+
+		@Override
+		public void filter(float[] sample){
+			if(last == null){
+				last = sample.clone();
+				jumps = new int[sample.length];
+				return;
+			}
+			for(int i=0; i<sample.length; i++){
+				if(Math.abs(sample[i] - last[i]) <= maxJump || ++jumps[i] >= confirmations){
+					jumps[i] = 0;
+					last[i] = sample[i];
+				}
+				else
+					sample[i] = last[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package dpm.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The latest sample of one sensor, as published by the SensorHub.
+ * <br>A channel has a single writer, the sensor's sampling thread, and any number of readers.
+ * Readers never lock and never allocate: the writer marks the sample as being written by
+ * making the sequence number odd, and a reader simply copies the sample again if the
+ * sequence number changed while it was copying.
+ *
+ * @author Samuel Genois
+ */
+public class SensorChannel {
+
+	private final int size;
+	private final AtomicIntegerArray values;
+	private volatile long timestamp;
+	private volatile int sequence;			//Odd while a sample is being written
+	private volatile int waiters;
+
+	/**
+	 * Constructor
+	 *
+	 * @param size the number of values in a sample
+	 */
+	SensorChannel(int size){
+		this.size = size;
+		this.values = new AtomicIntegerArray(size);
+	}
+
+	/*
+	 * Publishes a new sample. Only ever called by the sampling thread.
+	 */
+	void publish(float[] sample, long time){
+		sequence++;
+		for(int i=0; i<size; i++)
+			values.set(i, Float.floatToRawIntBits(sample[i]));
+		timestamp = time;
+		sequence++;
+
+		if(waiters > 0){
+			synchronized(this){
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of values in a sample
+	 * @return the sample size
+	 */
+	public int sampleSize(){
+		return size;
+	}
+
+	/**
+	 * Returns the number of samples published so far
+	 * @return the sample count
+	 */
+	public int getCount(){
+		return sequence / 2;
+	}
+
+	/**
+	 * Copies the latest sample into a provided array
+	 *
+	 * @param sample array to put the sample values into
+	 * @return the time at which the sample was taken, as given by System.nanoTime()
+	 */
+	public long read(float[] sample){
+		while(true){
+			int before = sequence;
+			if((before & 1) == 0){
+				for(int i=0; i<size; i++)
+					sample[i] = Float.intBitsToFloat(values.get(i));
+				long time = timestamp;
+				if(sequence == before)
+					return time;
+			}
+			//The sampling thread is publishing. On a single core, it cannot finish while this one spins.
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Returns one value of the latest sample. Reading a single value needs no array,
+	 * and since it is written atomically, it is never torn.
+	 *
+	 * @param index the index of the value in the sample
+	 * @return the value
+	 */
+	public float get(int index){
+		return Float.intBitsToFloat(values.get(index));
+	}
+
+	/**
+	 * Returns the time at which the latest sample was taken
+	 * @return the time of the latest sample, as given by System.nanoTime()
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+	/**
+	 * Waits for a sample newer than the latest one, then copies it into a provided array.
+	 * If the timeout expires first, copies the latest sample instead.
+	 *
+	 * @param sample array to put the sample values into
+	 * @param timeout the maximum time to wait, in ms
+	 * @return the time at which the sample was taken, as given by System.nanoTime()
+	 */
+	public long awaitNext(float[] sample, long timeout){
+		await(timeout);
+		return read(sample);
+	}
+
+	/**
+	 * Waits for a sample newer than the latest one, or for the timeout to expire
+	 *
+	 * @param timeout the maximum time to wait, in ms
+	 */
+	public void await(long timeout){
+		int seen = sequence | 1;
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized(this){
+			waiters++;
+			try{
+				//The writer checks for waiters after publishing, so a sample published
+				//between the two reads of the sequence still wakes this thread
+				while(sequence <= seen){
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0)
+						break;
+					try{wait(remaining);}catch(InterruptedException e){break;}
+				}
+			} finally{
+				waiters--;
+			}
+		}
+	}
+}
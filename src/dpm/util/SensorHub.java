@@ -0,0 +1,154 @@
+package dpm.util;
+
+import lejos.robotics.SampleProvider;
+
+/**
+ * A utility class that samples each of the robot's sensors on its own thread, at a
+ * configurable rate, and publishes the samples into SensorChannels.
+ * <br>Consumers read the latest sample, or wait for the next one, from the channel instead
+ * of fetching from the sensor themselves. A sensor is then sampled only once no matter how
+ * many threads use it, and readers never block one another.
+ * <br>Each sensor can have a SampleFilter, applied on its sampling thread before the samples
+ * are published. By default, the ultrasonic sensor's lost echoes and spikes are suppressed
+ * and its readings go through a median of 3, and the block color sensor's readings go through
+ * a median of 3. The line sensor is left raw, since the line detector needs its sharp edges.
+ * <br>A sensor's sampling thread is started the first time its channel is requested.
+ *
+ * @author Samuel Genois
+ */
+public class SensorHub implements DPMConstants{
+
+	private static final int[]	DEFAULT_PERIODS = {30, 0, 20, 2};	//By sensor id, in ms
+	private static final float	US_MAX_RANGE = 2.55f,				//The ultrasonic sensor's "no echo" reading, in m
+								US_MAX_JUMP = 0.3f;					//Largest believable change between two readings, in m
+	private static final int	US_CONFIRMATIONS = 3;				//Readings after which a lost echo or a jump is believed
+
+	private static final Sampler[] samplers = new Sampler[DEFAULT_PERIODS.length];
+
+	/**
+	 * Returns the channel of the sensor corresponding to the provided id.
+	 * If the sensor is not yet being sampled, starts sampling it.
+	 *
+	 * @param id the id of the desired sensor
+	 * @return the sensor's channel, or null if there is no such sensor
+	 */
+	public static SensorChannel getChannel(int id){
+		if(id < 0 || id >= samplers.length)
+			return null;
+		//The channel is a final field, so it is fully constructed even when the sampler is seen without locking
+		Sampler sampler = samplers[id];
+		if(sampler != null)
+			return sampler.channel;
+		return startSampler(id);
+	}
+
+	/*
+	 * Starts sampling a sensor, unless another thread just did
+	 */
+	private static synchronized SensorChannel startSampler(int id){
+		if(samplers[id] == null){
+			SampleProvider sensor = Sensors.getSensor(id);
+			if(sensor == null)
+				return null;
+			samplers[id] = new Sampler(sensor, DEFAULT_PERIODS[id], defaultFilter(id));
+			samplers[id].start();
+		}
+		return samplers[id].channel;
+	}
+
+	/**
+	 * Sets the period at which the sensor corresponding to the provided id is sampled.
+	 * A period of 0 samples the sensor as fast as it answers.
+	 *
+	 * @param id the id of the sensor
+	 * @param period the sampling period, in ms
+	 */
+	public static void setPeriod(int id, int period){
+		getSampler(id).period = Math.max(0, period);
+	}
+
+	/**
+	 * Returns the period at which the sensor corresponding to the provided id is sampled
+	 *
+	 * @param id the id of the sensor
+	 * @return the sampling period, in ms
+	 */
+	public static int getPeriod(int id){
+		return getSampler(id).period;
+	}
+
+	/**
+	 * Sets the filter applied to the samples of the sensor corresponding to the provided id
+	 *
+	 * @param id the id of the sensor
+	 * @param filter the filter, used by this sensor only, or null for raw samples
+	 */
+	public static void setFilter(int id, SampleFilter filter){
+		getSampler(id).filter = filter;
+	}
+
+	/*
+	 * Returns the sampler of a sensor, starting it if needed
+	 */
+	private static Sampler getSampler(int id){
+		if(getChannel(id) == null)
+			throw new IllegalArgumentException("There is no sensor with id " + id);
+		return samplers[id];
+	}
+
+	/*
+	 * Returns a new instance of the filter a sensor uses by default
+	 */
+	private static SampleFilter defaultFilter(int id){
+		switch(id){
+			case US_ACTIVE:
+				return SampleFilter.chain(SampleFilter.noEcho(US_MAX_RANGE, US_CONFIRMATIONS),
+											SampleFilter.spikes(US_MAX_JUMP, US_CONFIRMATIONS),
+											SampleFilter.median(3));
+			case COLOR_BLOCK_ID:
+				return SampleFilter.median(3);
+			default:
+				return null;
+		}
+	}
+
+	/*
+	 * The thread that samples one sensor into its channel
+	 */
+	private static class Sampler extends Thread{
+
+		private final SampleProvider sensor;
+		private final SensorChannel channel;
+		private final float[] sample;
+		private volatile int period;
+		private volatile SampleFilter filter;
+
+		private Sampler(SampleProvider sensor, int period, SampleFilter filter){
+			this.sensor = sensor;
+			this.period = period;
+			this.filter = filter;
+			this.sample = new float[sensor.sampleSize()];
+			this.channel = new SensorChannel(sample.length);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run(){
+			while(true){
+				long fetchStart = System.nanoTime();
+				sensor.fetchSample(sample, 0);
+				long fetchEnd = System.nanoTime();
+				SampleFilter filter = this.filter;
+				if(filter != null)
+					filter.filter(sample);
+				channel.publish(sample, fetchStart + (fetchEnd - fetchStart)/2);
+
+				long sleep = period * 1000000l - (System.nanoTime() - fetchStart);
+				if(sleep > 0)
+					HardwareLog.sleep(sleep);
+				else
+					Thread.yield();
+			}
+		}
+	}
+}
@@ -8,15 +8,21 @@ import lejos.robotics.SampleProvider;
 /**
  * A utility class that provides references to the robot's sensor's interfaces.
  * The initialization of those interfaces is done internally.
+ * <br>It also provides typed reads of the values the SensorHub publishes, which
+ * return primitives or fill arrays provided by the caller, so they allocate nothing.
+ * <br>The sensors are recorded or replayed when the HardwareLog says so.
  *  
  * @author Samuel Genois
  */
 public class Sensors implements DPMConstants{
 	
-	private static final int	US_DISTANCE = 100,
-								US_LISTEN = 101,
-								COLOR_RED = 102,
-								COLOR_RGB = 103;
+	/**
+	 * The sensors and modes a sensor can be opened in, here or through a RemoteLink
+	 */
+	public static final int	US_DISTANCE = 100,
+							US_LISTEN = 101,
+							COLOR_RED = 102,
+							COLOR_RGB = 103;
 	
 	private static SampleProvider[]	sensors = new SampleProvider[4];
 	
@@ -32,15 +38,15 @@ public class Sensors implements DPMConstants{
 		switch(id){
 			case US_ACTIVE:
 				if(sensors[US_ACTIVE] == null)
-					sensors[US_ACTIVE] = new Sensor(RemoteBrickManager.MASTER, "S1" , US_DISTANCE);
+					sensors[US_ACTIVE] = new Sensor(US_ACTIVE, RemoteBrickManager.MASTER, "S1" , US_DISTANCE);
 				return sensors[US_ACTIVE];
 			case COLOR_BLOCK_ID:
 				if(sensors[COLOR_BLOCK_ID] == null)
-					sensors[COLOR_BLOCK_ID] = new Sensor(RemoteBrickManager.MASTER, "S3" , COLOR_RGB);
+					sensors[COLOR_BLOCK_ID] = new Sensor(COLOR_BLOCK_ID, RemoteBrickManager.MASTER, "S3" , COLOR_RGB);
 				return sensors[COLOR_BLOCK_ID];
 			case COLOR_ODO_CORR:
 				if(sensors[COLOR_ODO_CORR] == null)
-					sensors[COLOR_ODO_CORR] = new Sensor(RemoteBrickManager.MASTER, "S4" , COLOR_RED);
+					sensors[COLOR_ODO_CORR] = new Sensor(COLOR_ODO_CORR, RemoteBrickManager.MASTER, "S4" , COLOR_RED);
 				return sensors[COLOR_ODO_CORR];
 			default:
 				return null;
@@ -48,17 +54,77 @@ public class Sensors implements DPMConstants{
 		
 	}
 	
+	/**
+	 * Returns the latest distance read by the front ultrasonic sensor,
+	 * as filtered by the SensorHub. Allocates nothing.
+	 * 
+	 * @return the distance, in cm
+	 */
+	public static float readDistanceCm(){
+		return SensorHub.getChannel(US_ACTIVE).get(0) * 100;
+	}
+	
+	/**
+	 * Waits for the next distance read by the front ultrasonic sensor, for instance
+	 * after turning it. Allocates nothing.
+	 * 
+	 * @return the distance, in cm
+	 */
+	public static float nextDistanceCm(){
+		SensorChannel channel = SensorHub.getChannel(US_ACTIVE);
+		channel.await(US_TIMEOUT);
+		return channel.get(0) * 100;
+	}
+	
+	/**
+	 * Puts the latest red, green and blue reflection read by the block
+	 * color sensor into a provided array. Allocates nothing.
+	 * 
+	 * @param rgb array of at least 3 values to put the reflections into
+	 * @return the time at which the sample was taken, as given by System.nanoTime()
+	 */
+	public static long readRgb(float[] rgb){
+		return SensorHub.getChannel(COLOR_BLOCK_ID).read(rgb);
+	}
+	
+	/**
+	 * Waits for the next red, green and blue reflection read by the block color sensor,
+	 * for instance after the robot moved, and puts it into a provided array. Allocates nothing.
+	 * 
+	 * @param rgb array of at least 3 values to put the reflections into
+	 * @return the time at which the sample was taken, as given by System.nanoTime()
+	 */
+	public static long nextRgb(float[] rgb){
+		return SensorHub.getChannel(COLOR_BLOCK_ID).awaitNext(rgb, COLOR_TIMEOUT);
+	}
+	
+	/**
+	 * Returns the latest red reflection read by the line sensor. Allocates nothing.
+	 * 
+	 * @return the red reflection, between 0 and 1
+	 */
+	public static float readRed(){
+		return SensorHub.getChannel(COLOR_ODO_CORR).get(0);
+	}
+	
 	private static class Sensor implements SampleProvider{
 		
 		private SampleProvider sensor;
+		private final int fetchSlot;
 		
-		public Sensor(int brick, String portName, int sensorType){
+		public Sensor(int id, int brick, String portName, int sensorType){
+			fetchSlot = IOStats.sensorSlot(id, IOStats.FETCH_SAMPLE);
+			//A replayed sensor has no hardware behind it
+			if(HardwareLog.getMode() == HardwareLog.REPLAY){
+				sensor = HardwareLog.sensor(id, null);
+				return;
+			}
 			switch(sensorType){
 				case US_DISTANCE:
 					if(brick == RemoteBrickManager.MASTER)
 						sensor = new EV3UltrasonicSensor(LocalEV3.get().getPort(portName)).getDistanceMode();
 					else if(brick == RemoteBrickManager.SLAVE)
-						sensor = RemoteBrickManager.getSlave().createSampleProvider(portName, "lejos.hardware.sensor.EV3UltrasonicSensor", "Distance");
+						sensor = remoteSensor(portName, sensorType, "lejos.hardware.sensor.EV3UltrasonicSensor", "Distance");
 					else
 						sensor = null;
 					break;
@@ -66,7 +132,7 @@ public class Sensors implements DPMConstants{
 					if(brick == RemoteBrickManager.MASTER)
 						sensor = new EV3UltrasonicSensor(LocalEV3.get().getPort(portName)).getListenMode();
 					else if(brick == RemoteBrickManager.SLAVE)
-						sensor = RemoteBrickManager.getSlave().createSampleProvider(portName, "Ultrasonic", "Listen");
+						sensor = remoteSensor(portName, sensorType, "Ultrasonic", "Listen");
 					else
 						sensor = null;
 					break;
@@ -74,7 +140,7 @@ public class Sensors implements DPMConstants{
 					if(brick == RemoteBrickManager.MASTER)
 						sensor = new EV3ColorSensor(LocalEV3.get().getPort(portName)).getRedMode();
 					else if(brick == RemoteBrickManager.SLAVE)
-						sensor = RemoteBrickManager.getSlave().createSampleProvider(portName, "Color", "Red");
+						sensor = remoteSensor(portName, sensorType, "Color", "Red");
 					else
 						sensor = null;
 					break;
@@ -82,13 +148,25 @@ public class Sensors implements DPMConstants{
 					if(brick == RemoteBrickManager.MASTER)
 						sensor = new EV3ColorSensor(LocalEV3.get().getPort(portName)).getRGBMode();
 					else if(brick == RemoteBrickManager.SLAVE)
-						sensor = RemoteBrickManager.getSlave().createSampleProvider(portName, "Color", "RGB");
+						sensor = remoteSensor(portName, sensorType, "Color", "RGB");
 					else
 						sensor = null;
 					break;
 				default:
 					sensor = null;
 			}
+			if(sensor != null)
+				sensor = HardwareLog.sensor(id, sensor);
+		}
+
+		/*
+		 * Returns a sensor of the slave brick, through the RemoteLink if the slave runs a SlaveServer
+		 */
+		private static SampleProvider remoteSensor(String portName, int sensorType, String sensorName, String modeName){
+			RemoteLink link = RemoteBrickManager.getLink();
+			if(link != null)
+				return link.createSampleProvider(portName, sensorType);
+			return RemoteBrickManager.getSlave().createSampleProvider(portName, sensorName, modeName);
 		}
 
 		@Override
@@ -98,7 +176,9 @@ public class Sensors implements DPMConstants{
 
 		@Override
 		public synchronized void fetchSample(float[] sample, int offset) {
+			long start = IOStats.start(fetchSlot);
 			sensor.fetchSample(sample, offset);
+			IOStats.end(fetchSlot, start);
 		}
 	}
 }
@@ -0,0 +1,268 @@
+package dpm.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.hardware.motor.EV3MediumRegulatedMotor;
+import lejos.hardware.sensor.EV3ColorSensor;
+import lejos.hardware.sensor.EV3UltrasonicSensor;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+import lejos.utility.Delay;
+
+/**
+ * The program run on the slave brick. It executes the batches of commands a RemoteLink
+ * sends, in order, on the slave's own motors and sensors, and sends back one reply per batch.
+ * A command that fails, for instance on a port with no device, is answered with
+ * RemoteLink.ERROR, and the batch goes on.
+ * <br>Blocking commands, like a rotate without immediate return, hold the following
+ * commands until they complete, which is what lets a MotorScript run as one batch.
+ * <br>It also runs on any brick or computer with other devices, for instance to test
+ * a RemoteLink locally.
+ *
+ * @author Samuel Genois
+ */
+public class SlaveServer extends Thread {
+
+	/**
+	 * The port the server listens on
+	 */
+	public static final int PORT = 3017;
+
+	/**
+	 * The devices the server operates
+	 */
+	public interface Devices{
+
+		/**
+		 * Returns the motor on a port
+		 * @param port the port, 0 to 3 for A to D
+		 * @param type 'L' for a large motor, 'M' for a medium motor
+		 * @return the motor
+		 */
+		RegulatedMotor openMotor(int port, char type);
+
+		/**
+		 * Returns the sensor on a port
+		 * @param port the port, 0 to 3 for S1 to S4
+		 * @param sensorType the sensor and mode, as defined in Sensors
+		 * @return the sensor
+		 */
+		SampleProvider openSensor(int port, int sensorType);
+	}
+
+	/**
+	 * The motors and sensors of the brick the server runs on
+	 */
+	public static final Devices LOCAL_DEVICES = new Devices(){
+
+		@Override
+		public RegulatedMotor openMotor(int port, char type){
+			String portName = String.valueOf((char)('A' + port));
+			if(type == 'M')
+				return new EV3MediumRegulatedMotor(LocalEV3.get().getPort(portName));
+			return new EV3LargeRegulatedMotor(LocalEV3.get().getPort(portName));
+		}
+
+		@Override
+		public SampleProvider openSensor(int port, int sensorType){
+			String portName = "S" + (port + 1);
+			switch(sensorType){
+				case Sensors.US_DISTANCE:
+					return new EV3UltrasonicSensor(LocalEV3.get().getPort(portName)).getDistanceMode();
+				case Sensors.US_LISTEN:
+					return new EV3UltrasonicSensor(LocalEV3.get().getPort(portName)).getListenMode();
+				case Sensors.COLOR_RED:
+					return new EV3ColorSensor(LocalEV3.get().getPort(portName)).getRedMode();
+				case Sensors.COLOR_RGB:
+					return new EV3ColorSensor(LocalEV3.get().getPort(portName)).getRGBMode();
+				default:
+					return null;
+			}
+		}
+	};
+
+	private final ServerSocket server;
+	private final Devices devices;
+	private final RegulatedMotor[] motors = new RegulatedMotor[4];
+	private final SampleProvider[] sensors = new SampleProvider[4];
+	private float[] sample = new float[0];
+
+	/**
+	 * Constructor
+	 *
+	 * @param port the port to listen on
+	 * @param devices the devices to operate
+	 * @throws IOException if the port cannot be opened
+	 */
+	public SlaveServer(int port, Devices devices) throws IOException{
+		this.server = new ServerSocket(port);
+		this.devices = devices;
+		setDaemon(true);
+	}
+
+	/**
+	 * Serves one master after the other, until the server is closed
+	 */
+	@Override
+	public void run(){
+		while(!server.isClosed()){
+			try{
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				serve(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+						new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+				socket.close();
+			} catch(IOException e){
+			}
+		}
+	}
+
+	/**
+	 * Stops listening
+	 */
+	public void close(){
+		try{server.close();}catch(IOException e){}
+	}
+
+	/*
+	 * Executes the batches of one master until it disconnects
+	 */
+	private void serve(DataInputStream in, DataOutputStream out) throws IOException{
+		byte[] ops = new byte[0], ports = new byte[0];
+		boolean[] flags = new boolean[0];
+		int[] args = new int[0];
+		while(true){
+			//The whole batch is read before executing it, so the master can already send the next one
+			int count = in.readInt();
+			if(count > ops.length){
+				ops = new byte[count];
+				ports = new byte[count];
+				flags = new boolean[count];
+				args = new int[count];
+			}
+			for(int i=0; i<count; i++){
+				ops[i] = in.readByte();
+				ports[i] = in.readByte();
+				flags[i] = in.readBoolean();
+				args[i] = in.readInt();
+			}
+			for(int i=0; i<count; i++){
+				if(ops[i] == RemoteLink.FETCH_SAMPLE)
+					fetch(ports[i], out);
+				else{
+					int result;
+					try{
+						result = execute(ops[i], ports[i], args[i], flags[i]);
+					} catch(RuntimeException e){
+						result = RemoteLink.ERROR;
+					}
+					out.writeInt(result);
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/*
+	 * Executes one motor command and returns its result
+	 */
+	private int execute(byte op, int port, int arg, boolean flag){
+		RegulatedMotor motor = motors[port];
+		switch(op){
+			case RemoteLink.OPEN_MOTOR:
+				if(motors[port] == null)
+					motors[port] = devices.openMotor(port, (char)arg);
+				return 0;
+			case RemoteLink.OPEN_SENSOR:
+				if(sensors[port] == null)
+					sensors[port] = devices.openSensor(port, arg);
+				return sensors[port].sampleSize();
+			case RemoteLink.SET_SPEED:
+				motor.setSpeed(arg);
+				return 0;
+			case RemoteLink.FORWARD:
+				motor.forward();
+				return 0;
+			case RemoteLink.BACKWARD:
+				motor.backward();
+				return 0;
+			case RemoteLink.STOP:
+				motor.stop(flag);
+				return 0;
+			case RemoteLink.FLT:
+				motor.flt(flag);
+				return 0;
+			case RemoteLink.ROTATE:
+				motor.rotate(arg, flag);
+				return 0;
+			case RemoteLink.ROTATE_TO:
+				motor.rotateTo(arg, flag);
+				return 0;
+			case RemoteLink.GET_TACHO_COUNT:
+				return motor.getTachoCount();
+			case RemoteLink.RESET_TACHO_COUNT:
+				motor.resetTachoCount();
+				return 0;
+			case RemoteLink.IS_MOVING:
+				return motor.isMoving() ? 1 : 0;
+			case RemoteLink.GET_ROTATION_SPEED:
+				return motor.getRotationSpeed();
+			case RemoteLink.GET_LIMIT_ANGLE:
+				return motor.getLimitAngle();
+			case RemoteLink.GET_MAX_SPEED:
+				return (int)motor.getMaxSpeed();
+			case RemoteLink.IS_STALLED:
+				return motor.isStalled() ? 1 : 0;
+			case RemoteLink.WAIT_COMPLETE:
+				motor.waitComplete();
+				return 0;
+			case RemoteLink.SET_ACCELERATION:
+				motor.setAcceleration(arg);
+				return 0;
+			case RemoteLink.DELAY:
+				Delay.msDelay(arg);
+				return 0;
+			default:
+				return 0;
+		}
+	}
+
+	/*
+	 * Fetches a sample and writes its size and values, or only RemoteLink.ERROR if it fails
+	 */
+	private void fetch(int port, DataOutputStream out) throws IOException{
+		SampleProvider sensor = sensors[port];
+		int size;
+		try{
+			size = sensor.sampleSize();
+			if(sample.length < size)
+				sample = new float[size];
+			sensor.fetchSample(sample, 0);
+		} catch(RuntimeException e){
+			out.writeInt(RemoteLink.ERROR);
+			return;
+		}
+		out.writeInt(size);
+		for(int i=0; i<size; i++)
+			out.writeFloat(sample[i]);
+	}
+
+	/**
+	 * Runs the server on the slave brick, until the program is killed
+	 *
+	 * @param args not used
+	 * @throws IOException if the port cannot be opened
+	 */
+	public static void main(String[] args) throws IOException{
+		SlaveServer server = new SlaveServer(PORT, LOCAL_DEVICES);
+		server.run();
+	}
+}
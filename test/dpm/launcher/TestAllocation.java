@@ -0,0 +1,162 @@
+package dpm.launcher;
+
+import java.lang.reflect.Method;
+
+import dpm.blocksearch.BlockSearch;
+import dpm.blocksearch.ColorClassifier;
+import dpm.navigation.Navigation;
+import dpm.navigation.ObstacleAvoidance;
+import dpm.navigation.PolarScan;
+import dpm.navigation.UltrasonicSweep;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+
+public class TestAllocation implements DPMConstants{
+
+	private static final int	ITERATIONS = 100,
+								SCANS = 10,				//A scan takes half a sweep, so fewer are waited for
+								LOOK_SAMPLES = 5,		//As in BlockSearch
+								ROUNDS = 3,
+								WARM_UP = 20;			//Reflection generates its accessor after 15 calls
+	private static final long	SWEEP_TIME = 2000l;		//How long the sweep thread is watched, in ms
+	private static final double	US_OFFSET = 8.0;		//As in Odometer
+
+	private static Object threadBean;
+	private static Method allocatedBytes;
+	private static int failures;
+
+	public static void main(String[] args){
+		try{
+			threadBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+			allocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+		} catch(Exception e){
+			System.out.println("This JVM cannot count allocations");
+			return;
+		}
+		for(int i=0; i<WARM_UP; i++)
+			allocated(Thread.currentThread());
+		//Facing the left wall, two squares away from it
+		Repository.setPosition(new double[] {SQUARE_SIZE, SQUARE_SIZE, 180.0}, new boolean[] {true, true, true});
+
+		//ObstacleAvoidance.look with the sensor still, through getDistance, observeWallRange and mapRange
+		final ObstacleAvoidance avoidance = new ObstacleAvoidance(new Navigation(), -SQUARE_SIZE, SQUARE_SIZE, new double[4]);
+		final int[] sink = new int[1];
+		measure("avoidance look", ITERATIONS, new Runnable() {
+			public void run() {
+				sink[0] += avoidance.look();
+			}
+		});
+
+		//The same fusion and mapping, with the range the left wall gives, so the odometer accepts it
+		final double wallRange = 2 * SQUARE_SIZE - US_OFFSET;
+		if(!Repository.observeWallRange(wallRange, 0, System.nanoTime()))
+			System.out.println("wall range: not accepted by the odometer");
+		measure("wall range", ITERATIONS, new Runnable() {
+			public void run() {
+				long time = System.nanoTime();
+				Repository.observeWallRange(wallRange, 0, time);
+				Repository.mapRange(wallRange, 0, time);
+			}
+		});
+
+		//What BlockSearch.identify does
+		final ColorClassifier classifier = ColorClassifier.load();
+		measure("identify", ITERATIONS, new Runnable() {
+			public void run() {
+				sink[0] += classifier.look(LOOK_SAMPLES);
+			}
+		});
+
+		//BlockSearch's own nearestUnknown
+		final Method nearestUnknown;
+		try{
+			nearestUnknown = BlockSearch.class.getDeclaredMethod("nearestUnknown", PolarScan.class, double.class, double.class);
+			nearestUnknown.setAccessible(true);
+		} catch(NoSuchMethodException e){
+			System.out.println("BlockSearch changed: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		//The sweep thread itself, over each reading it takes, fuses and maps
+		Repository.startSweep();
+		Thread sweep = null;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread instanceof UltrasonicSweep)
+				sweep = thread;
+		if(sweep != null){
+			//Let it warm up first, then watch it as many times as a loop is measured
+			try {Thread.sleep(SWEEP_TIME);} catch (InterruptedException e) {}
+			long best = Long.MAX_VALUE;
+			for(int round=0; round<ROUNDS; round++){
+				long before = allocated(sweep);
+				try {Thread.sleep(SWEEP_TIME);} catch (InterruptedException e) {}
+				best = Math.min(best, allocated(sweep) - before);
+			}
+			System.out.printf("sweep thread: %d bytes over %d ms%s\n", best, SWEEP_TIME, (best == 0) ? ", OK" : ", ALLOCATES");
+			if(best != 0)
+				failures++;
+		}
+
+		//Waiting for each scan of the sweep, and looking for the nearest unknown object in it
+		final Object[] scanArgs = {null, 0.0, 90.0};
+		measure("scan", SCANS, new Runnable() {
+			public void run() {
+				scanArgs[0] = Repository.awaitScan((PolarScan)scanArgs[0]);
+				if(scanArgs[0] != null)
+					sink[0] += (Integer)invoke(nearestUnknown, scanArgs);
+			}
+		});
+		Repository.stopSweep();
+
+		if(failures > 0){
+			System.out.println("FAILED: " + failures + " loops allocate");
+			System.exit(1);
+		}
+		System.out.println("PASSED");
+		System.exit(0);
+	}
+
+	/*
+	 * Runs an iteration as many times as asked, in several rounds, and reports the allocations
+	 * of the best and the worst round. An iteration that allocates does so in every round, so the
+	 * loop fails only if even the best round allocates; the JVM itself sometimes allocates once.
+	 */
+	private static void measure(String name, int iterations, Runnable iteration){
+		//Warm up, so that class loading, compilation and reflection are not counted
+		for(int i=0; i<Math.max(iterations, WARM_UP); i++)
+			iteration.run();
+
+		long first = allocated(Thread.currentThread()), second = allocated(Thread.currentThread()),
+			callCost = second - first;
+		long best = Long.MAX_VALUE, worst = 0;
+		for(int round=0; round<ROUNDS; round++){
+			long before = allocated(Thread.currentThread());
+			for(int i=0; i<iterations; i++)
+				iteration.run();
+			long bytes = Math.max(0, allocated(Thread.currentThread()) - before - callCost);
+			best = Math.min(best, bytes);
+			worst = Math.max(worst, bytes);
+		}
+		System.out.printf("%s: %d to %d bytes per round of %d calls (%.1f per call)%s\n",
+				name, best, worst, iterations, (double)best / iterations, (best == 0) ? ", OK" : ", ALLOCATES");
+		if(best != 0)
+			failures++;
+	}
+
+	private static Object invoke(Method method, Object[] args){
+		try{
+			return method.invoke(null, args);
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static long allocated(Thread thread){
+		try{
+			return (Long)allocatedBytes.invoke(threadBean, thread.getId());
+		} catch(Exception e){
+			return 0;
+		}
+	}
+}
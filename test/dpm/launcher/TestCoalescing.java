@@ -0,0 +1,68 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.util.DPMConstants;
+import dpm.util.IOStats;
+import dpm.util.Motors;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * Commands the motors the way the control loops do, and shows how many hardware calls
+ * the Motors decorator saved.
+ * <br>The wheels are given the same speeds on every pass of a PERIOD ms loop, as
+ * Navigation.travelTo does. Then the lift, on the slave brick, is given a burst of
+ * BURST speed changes one ms apart, which the rate limit thins out.
+ * The IOStats table is printed when the program exits.
+ */
+public class TestCoalescing implements DPMConstants{
+
+	private static final int	SPEED = 200,
+								PASSES = 100,
+								PERIOD = 50,
+								BURST = 200;
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		IOStats.enable(IOStats.FULL);
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		RegulatedMotor leftMotor = Motors.getMotor(LEFT), rightMotor = Motors.getMotor(RIGHT);
+		for(int i=0; i<PASSES; i++){
+			leftMotor.setSpeed(SPEED);
+			rightMotor.setSpeed(SPEED);
+			try {Thread.sleep(PERIOD);} catch (InterruptedException e) {}
+		}
+		leftMotor.stop(true);
+		rightMotor.stop();
+
+		RegulatedMotor liftMotor = Motors.getMotor(LIFT);
+		for(int i=0; i<BURST; i++){
+			liftMotor.setSpeed(i % 2 == 0 ? SPEED/4 : -SPEED/4);
+			try {Thread.sleep(1);} catch (InterruptedException e) {}
+		}
+		liftMotor.stop();
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("Calls saved");
+		lines.add("Left: " + Motors.getSavedCalls(LEFT) + "/" + 2*PASSES);
+		lines.add("Right: " + Motors.getSavedCalls(RIGHT) + "/" + 2*PASSES);
+		lines.add("Lift: " + Motors.getSavedCalls(LIFT) + "/" + 2*BURST);
+		Printer.getInstance().display(lines);
+		Button.waitForAnyPress();
+		RemoteBrickManager.closeSlave();
+		System.exit(0);
+	}
+}
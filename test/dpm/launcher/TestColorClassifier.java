@@ -0,0 +1,97 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.blocksearch.BlockSearch;
+import dpm.blocksearch.ColorClassifier;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import dpm.util.Sensors;
+import lejos.hardware.Button;
+
+/**
+ * Trains the block color classifier from labeled samples, then shows what it sees.
+ * <br>Put an object under the color sensor and press UP for a blue block, LEFT for a
+ * wooden block or RIGHT for the floor: TRAINING_SAMPLES samples are taken with that label.
+ * Press ENTER to compile and save the classifier. Then, each press of any button but
+ * ESCAPE shows a look's class and confidence.
+ */
+public class TestColorClassifier implements DPMConstants{
+
+	private static final int	TRAINING_SAMPLES = 50,
+								LOOK_SAMPLES = 5,
+								TIMED_SAMPLES = 100000;
+	private static final String[]	NAMES = {"Blue", "Wood", "Floor"};
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		ColorClassifier classifier = ColorClassifier.load();
+		float[] rgb = new float[3];
+		int[] trained = new int[NAMES.length];
+		//A new training set, of every label trained below
+		classifier.clear();
+
+		while(true){
+			ArrayList<String> lines = new ArrayList<String>();
+			lines.add("UP:blue LEFT:wood");
+			lines.add("RIGHT:floor ENTER:save");
+			for(int i=0; i<NAMES.length; i++)
+				lines.add(NAMES[i] + ": " + trained[i]);
+			Printer.getInstance().display(lines);
+
+			int button = Button.waitForAnyPress(), label;
+			if(button == Button.ID_UP)
+				label = BlockSearch.BLUE_BLOCK;
+			else if(button == Button.ID_LEFT)
+				label = BlockSearch.WOODEN_BLOCK;
+			else if(button == Button.ID_RIGHT)
+				label = BlockSearch.FLOOR;
+			else if(button == Button.ID_ENTER)
+				break;
+			else
+				continue;
+			for(int i=0; i<TRAINING_SAMPLES; i++){
+				Sensors.nextRgb(rgb);
+				classifier.train(label, rgb);
+			}
+			trained[label] += TRAINING_SAMPLES;
+		}
+		classifier.compile();
+		classifier.save();
+
+		//Cost of one classification, against the rules
+		long start = System.nanoTime();
+		int sink = 0;
+		for(int i=0; i<TIMED_SAMPLES; i++){
+			rgb[i % 3] = (i % 97) / 200f;
+			sink += classifier.classify(rgb);
+		}
+		long table = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int i=0; i<TIMED_SAMPLES; i++){
+			rgb[i % 3] = (i % 97) / 200f;
+			sink += BlockSearch.identify(rgb);
+		}
+		long rules = System.nanoTime() - start;
+		System.out.println("table: " + table/TIMED_SAMPLES + " ns, rules: " + rules/TIMED_SAMPLES + " ns (" + sink + ")");
+
+		while(true){
+			int object = classifier.look(LOOK_SAMPLES);
+			ArrayList<String> lines = new ArrayList<String>();
+			lines.add("Saw: " + NAMES[object]);
+			lines.add("Confidence: " + (int)(100*classifier.getConfidence()) + "%");
+			lines.add("Press to look");
+			Printer.getInstance().display(lines);
+			Button.waitForAnyPress();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.DifferentialDrive;
+import dpm.util.Motors;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * Starts and stops the robot STARTS times, driving straight forward then back for
+ * LEG ms each time, first with one call per wheel, then with the DifferentialDrive.
+ * Shows the heading error each way ended with: the skew between the wheels' starts
+ * turns the robot a little every time.
+ */
+public class TestDifferentialDrive implements DPMConstants{
+
+	private static final int	SPEED = 300,
+								LEG = 300,
+								STARTS = 10;
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		RegulatedMotor leftMotor = Motors.getMotor(LEFT), rightMotor = Motors.getMotor(RIGHT);
+		DifferentialDrive drive = DifferentialDrive.getInstance();
+
+		Repository.setPosition(new double[] {0, 0, 90.0}, new boolean[] {true, true, true});
+		for(int i=0; i<2*STARTS; i++){
+			leftMotor.setSpeed(i % 2 == 0 ? SPEED : -SPEED);
+			rightMotor.setSpeed(i % 2 == 0 ? SPEED : -SPEED);
+			try {Thread.sleep(LEG);} catch (InterruptedException e) {}
+			leftMotor.stop(true);
+			rightMotor.stop();
+		}
+		double separate = Repository.getAng() - 90.0;
+
+		Repository.setPosition(new double[] {0, 0, 90.0}, new boolean[] {true, true, true});
+		for(int i=0; i<2*STARTS; i++){
+			drive.straight(i % 2 == 0 ? SPEED : -SPEED);
+			try {Thread.sleep(LEG);} catch (InterruptedException e) {}
+			drive.stop(false);
+		}
+		double synchronous = Repository.getAng() - 90.0;
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("Heading error");
+		lines.add("Separate: " + (int)separate);
+		lines.add("Drive: " + (int)synchronous);
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,81 @@
+package dpm.launcher;
+
+import java.util.Random;
+
+import dpm.util.DPMConstants;
+import dpm.util.SampleFilter;
+
+public class TestFilters implements DPMConstants{
+
+	private static final int	SAMPLES = 200000,
+								PASSES = 5;
+	private static final float	NOISE = 0.01f,				//Standard deviation of a reading, in m
+								SPIKE_RATE = 0.03f,			//Fraction of readings that are random spikes
+								NO_ECHO_RATE = 0.05f,		//Fraction of readings that lost their echo
+								NO_ECHO = 2.55f;
+
+	public static void main(String[] args){
+		run("raw", null);
+		run("median 3", SampleFilter.median(3));
+		run("median 5", SampleFilter.median(5));
+		run("ema 0.5", SampleFilter.ema(0.5f));
+		run("no echo", SampleFilter.noEcho(NO_ECHO, 3));
+		run("no echo, spikes", SampleFilter.chain(SampleFilter.noEcho(NO_ECHO, 3), SampleFilter.spikes(0.3f, 3)));
+		run("no echo, spikes, median 3", SampleFilter.chain(SampleFilter.noEcho(NO_ECHO, 3),
+				SampleFilter.spikes(0.3f, 3), SampleFilter.median(3)));
+	}
+
+	//Feeds an obstacle slowly approaching and receding, with noise, spikes and lost echoes, and counts the
+	//readings below AVOIDANCE_THRESHOLD while the obstacle is clearly beyond it (false triggers), and
+	//the readings not below it while the obstacle is clearly within it (missed triggers)
+	private static void run(String name, SampleFilter filter){
+		Random random = new Random(211);
+		float[] truths = new float[SAMPLES], readings = new float[SAMPLES];
+		for(int i=0; i<SAMPLES; i++){
+			truths[i] = 0.4f + 0.3f * (float)Math.sin(i * 2 * Math.PI / 200);
+			float event = random.nextFloat();
+			if(event < SPIKE_RATE)
+				readings[i] = random.nextFloat() * NO_ECHO;
+			else if(event < SPIKE_RATE + NO_ECHO_RATE)
+				readings[i] = (random.nextBoolean()) ? NO_ECHO : Float.POSITIVE_INFINITY;
+			else
+				readings[i] = truths[i] + NOISE * (float)random.nextGaussian();
+		}
+
+		float[] sample = new float[1];
+		long filterTime = Long.MAX_VALUE;
+		if(filter != null){
+			float[] filtered = new float[SAMPLES];
+			//Keep the fastest of a few passes, so the JIT compiler's warmup does not count
+			for(int pass=0; pass<PASSES; pass++){
+				long start = System.nanoTime();
+				for(int i=0; i<SAMPLES; i++){
+					sample[0] = readings[i];
+					filter.filter(sample);
+					filtered[i] = sample[0];
+				}
+				filterTime = Math.min(filterTime, System.nanoTime() - start);
+			}
+			readings = filtered;
+		}
+		else
+			filterTime = 0;
+
+		float threshold = AVOIDANCE_THRESHOLD / 100f;
+		long falseTriggers = 0, missedTriggers = 0, far = 0, near = 0;
+		for(int i=0; i<SAMPLES; i++){
+			if(truths[i] > threshold + 0.05f){
+				far++;
+				if(readings[i] < threshold)
+					falseTriggers++;
+			}
+			else if(truths[i] < threshold - 0.05f){
+				near++;
+				if(!(readings[i] < threshold))
+					missedTriggers++;
+			}
+		}
+		System.out.printf("%-28s %6.1f ns/sample, false triggers %6.3f%%, missed triggers %6.3f%%\n", name,
+				(double)filterTime/SAMPLES, 100.0*falseTriggers/far, 100.0*missedTriggers/near);
+	}
+}
@@ -0,0 +1,76 @@
+package dpm.launcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import dpm.odometry.LineDetector;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.HardwareLog;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Without arguments, records a run around a few squares to LOG on the brick.
+ * With "replay", replays that log SPEED times faster than real time, on the brick
+ * or on a computer, and shows the same odometry and line detection results.
+ */
+public class TestHardwareLog implements DPMConstants{
+
+	private static final String	LOG = "run.log";
+	private static final double	SPEED = 4.0;
+
+	public static void main(String[] args) throws IOException{
+		boolean replay = args.length > 0 && args[0].equals("replay");
+		long start;
+
+		if(replay){
+			HardwareLog.replay(LOG, SPEED);
+			Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+			start = System.currentTimeMillis();
+			//Nothing moves: the odometer and the line detector follow the recorded run until it ends
+			Repository.getLineDetector();
+			while(HardwareLog.getReplayProgress() < 1.0)
+				try {Thread.sleep(100);} catch (InterruptedException e) {}
+		}
+		else{
+			(new Thread() {
+				public void run() {
+					while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+					RemoteBrickManager.closeSlave();
+					System.exit(0);
+				}
+			}).start();
+
+			HardwareLog.record(LOG);
+			Printer.getInstance().display("Press any button");
+			Button.waitForAnyPress();
+			Printer.getInstance().display("Recording");
+
+			Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+			start = System.currentTimeMillis();
+			Repository.getLineDetector();
+			Repository.travelTo(SQUARE_SIZE/2, 2.5*SQUARE_SIZE, NO_AVOIDANCE);
+			Repository.travelTo(2.5*SQUARE_SIZE, 2.5*SQUARE_SIZE, NO_AVOIDANCE);
+			Repository.travelTo(SQUARE_SIZE/2, SQUARE_SIZE/2, NO_AVOIDANCE);
+			HardwareLog.close();
+		}
+
+		LineDetector detector = Repository.getLineDetector();
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add(replay ? "Replayed" : "Recorded");
+		lines.add("ms: " + (System.currentTimeMillis() - start) + (replay ? " of " + HardwareLog.getReplayLength() : ""));
+		lines.add("Detected: " + detector.getLinesDetected());
+		lines.add("Missed: " + detector.getLinesMissed());
+		lines.add("X: " + (int)Repository.getX());
+		lines.add("Y: " + (int)Repository.getY());
+		lines.add("Ang: " + (int)Repository.getAng());
+		if(replay){
+			for(String line : lines)
+				System.out.println(line);
+			System.exit(0);
+		}
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,92 @@
+package dpm.launcher;
+
+import dpm.util.DPMConstants;
+import dpm.util.IOStats;
+import dpm.util.Motors;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import dpm.util.Sensors;
+import lejos.hardware.Button;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * On the robot, compares the local LEFT motor to the remote LIFT motor and reads every sensor,
+ * then prints the table when the program exits.
+ * <br>With "sim", measures the cost of recording instead: SIM_CALLS getTachoCount calls on the
+ * LEFT motor in each mode, then prints the table of the sampled ones when the program exits.
+ */
+public class TestIOStats implements DPMConstants{
+
+	private static final int	CALLS = 200,
+								SIM_CALLS = 100000,
+								TEST_SPEED = 100;
+
+	public static void main(String[] args){
+		if(args.length > 0 && args[0].equals("sim")){
+			simulate();
+			return;
+		}
+		
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+		
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+		Printer.getInstance().display("Running");
+		
+		IOStats.enable(IOStats.FULL);
+		
+		//Local motor versus remote motor
+		RegulatedMotor	left = Motors.getMotor(LEFT),
+						lift = Motors.getMotor(LIFT);
+		for(int i=0; i<CALLS; i++){
+			left.getTachoCount();
+			lift.getTachoCount();
+		}
+		left.setSpeed(TEST_SPEED);
+		lift.setSpeed(TEST_SPEED);
+		left.stop();
+		lift.stop();
+		Motors.getMotor(CLAW).rotate(30);
+		Motors.getMotor(CLAW).rotate(-30);
+		
+		//Every sensor
+		int[] ids = {US_ACTIVE, COLOR_BLOCK_ID, COLOR_ODO_CORR};
+		for(int id : ids){
+			SampleProvider sensor = Sensors.getSensor(id);
+			float[] sample = new float[sensor.sampleSize()];
+			for(int i=0; i<CALLS; i++)
+				sensor.fetchSample(sample, 0);
+		}
+		
+		//The table is printed when the program exits
+		Printer.getInstance().display("See console");
+		RemoteBrickManager.closeSlave();
+		System.exit(0);
+	}
+
+	private static void simulate(){
+		RegulatedMotor left = Motors.getMotor(LEFT);
+		int[] modes = {IOStats.OFF, IOStats.FULL, IOStats.SAMPLED};
+		String[] names = {"off", "full", "sampled"};
+		for(int m=0; m<modes.length; m++){
+			IOStats.enable(modes[m]);
+			//The first pass warms up the JIT compiler, and is not kept
+			long elapsed = 0;
+			for(int pass=0; pass<2; pass++){
+				IOStats.reset();
+				long start = System.nanoTime();
+				for(int i=0; i<SIM_CALLS; i++)
+					left.getTachoCount();
+				elapsed = System.nanoTime() - start;
+			}
+			System.out.printf("%-8s %6.1f ns per getTachoCount\n", names[m], (double)elapsed / SIM_CALLS);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.odometry.LineDetector;
+import dpm.odometry.LineEvent;
+import dpm.odometry.LineListener;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+public class TestLineDetector implements DPMConstants{
+
+	public static void main(String[] args){
+		
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+		
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+		Printer.getInstance().display("Running");
+		
+		Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+		final LineDetector detector = Repository.getLineDetector();
+		final long[] lastWidth = new long[1];
+		detector.addListener(new LineListener() {
+			public void lineDetected(LineEvent event) {
+				lastWidth[0] = (event.getExitTime() - event.getEntryTime()) / 1000000l;
+			}
+		});
+		
+		Repository.travelTo(SQUARE_SIZE/2, 4.5*SQUARE_SIZE, NO_AVOIDANCE);
+		Repository.travelTo(4.5*SQUARE_SIZE, 4.5*SQUARE_SIZE, NO_AVOIDANCE);
+		Repository.travelTo(SQUARE_SIZE/2, SQUARE_SIZE/2, NO_AVOIDANCE);
+		
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("Detected: " + detector.getLinesDetected());
+		lines.add("Missed: " + detector.getLinesMissed());
+		lines.add("Rejected: " + detector.getLinesRejected());
+		lines.add("Fast %: " + (int)(100*detector.getFastFraction()));
+		lines.add("Last ms: " + lastWidth[0]);
+		lines.add("X: " + (int)Repository.getX());
+		lines.add("Y: " + (int)Repository.getY());
+		Printer.getInstance().display(lines);
+	}
+}
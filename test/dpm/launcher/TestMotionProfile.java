@@ -0,0 +1,140 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.navigation.MotionProfile;
+import dpm.odometry.WheelCalibration;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Compares the time to target and the overshoot of Navigation's control loops with
+ * constant speeds and with motion profiles.
+ * <br>On the robot, each of the TURNS is made then undone, and a travel of TRAVEL cm is
+ * made then undone, first at constant speeds, then following the profiles. The overshoot
+ * is read SETTLE_TIME ms after each move returns.
+ * <br>With "sim", the same moves are simulated on a computer instead: the wheels accelerate
+ * at WHEEL_MOTOR_ACCELERATION towards their commanded speed, and the control loop sees
+ * the pose LATENCY ms late. The wheel geometry is the one saved in the calibration file.
+ */
+public class TestMotionProfile implements DPMConstants{
+
+	private static final double[]	TURNS = {15, 45, 90, 180};
+	private static final double		TRAVEL = 2*SQUARE_SIZE,
+									DEG_ERR = 3.0,
+									CM_ERR = 1.0;
+	private static final int		FAST = 300,
+									SLOW = 100,
+									CREEP = 40;
+	private static final long		SETTLE_TIME = 300,
+									PERIOD = 50,
+									LATENCY = 20;
+
+	public static void main(String[] args){
+		if(args.length > 0 && args[0].equals("sim")){
+			simulate();
+			return;
+		}
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("ms/overshoot");
+		for(int i=0; i<2; i++){
+			boolean profiled = i == 1;
+			Repository.useMotionProfiles(profiled);
+			Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+			String line = profiled ? "P" : "C";
+			for(double turn : TURNS){
+				double target = 90.0 + turn;
+				long start = System.currentTimeMillis();
+				Repository.turnTo(target);
+				long time = System.currentTimeMillis() - start;
+				try {Thread.sleep(SETTLE_TIME);} catch (InterruptedException e) {}
+				line += " " + time + "/" + (int)(Repository.getAng() - target);
+				Repository.turnTo(90.0);
+			}
+			long start = System.currentTimeMillis();
+			Repository.travelTo(SQUARE_SIZE/2, SQUARE_SIZE/2 + TRAVEL, NO_AVOIDANCE);
+			long time = System.currentTimeMillis() - start;
+			try {Thread.sleep(SETTLE_TIME);} catch (InterruptedException e) {}
+			line += " " + time + "/" + (int)(Repository.getY() - SQUARE_SIZE/2 - TRAVEL);
+			Repository.travelTo(SQUARE_SIZE/2, SQUARE_SIZE/2, NO_AVOIDANCE);
+			lines.add(line);
+			System.out.println(line);
+		}
+		Repository.useMotionProfiles(true);
+		Printer.getInstance().display(lines);
+	}
+
+	/*
+	 * Prints the simulated time to target, in ms, and overshoot, in degrees or cm, of each move
+	 */
+	private static void simulate(){
+		WheelCalibration calibration = WheelCalibration.load();
+		double radius = (calibration.getLeftRadius() + calibration.getRightRadius()) / 2,
+				track = calibration.getWidth();
+		for(int i=0; i<2; i++){
+			boolean profiled = i == 1;
+			String line = profiled ? "profiled:" : "constant:";
+			MotionProfile turnProfile = new MotionProfile(FAST, CREEP, WHEEL_MOTOR_ACCELERATION / 4.0, PERIOD),
+							travelProfile = new MotionProfile(FAST, SLOW, WHEEL_MOTOR_ACCELERATION / 4.0, PERIOD);
+			for(double turn : TURNS){
+				double[] result = move(profiled ? turnProfile : null, SLOW,
+						MotionProfile.wheelTurn(turn, radius, track), MotionProfile.wheelTurn(DEG_ERR, radius, track));
+				line += String.format(" %.0f/%.1f", result[0], result[1] / MotionProfile.wheelTurn(1, radius, track));
+			}
+			double[] result = move(profiled ? travelProfile : null, FAST,
+					MotionProfile.wheelDistance(TRAVEL, radius), MotionProfile.wheelDistance(CM_ERR, radius));
+			line += String.format(" %.0f/%.1f", result[0], result[1] / MotionProfile.wheelDistance(1, radius));
+			System.out.println(line);
+		}
+	}
+
+	/*
+	 * Simulates one move of the wheels, a millisecond at a time, under the control loop of
+	 * Navigation. Returns the time at which the wheels stop, and how far past the target.
+	 */
+	private static double[] move(MotionProfile profile, int constantSpeed, double target, double tolerance){
+		int history = (int)LATENCY + 1;
+		double[] positions = new double[history];
+		double position = 0, speed = 0;
+		int command = 0;
+		boolean stopped = false;
+		long nextUpdate = 0;
+		if(profile != null)
+			profile.start();
+		for(long t=0; ; t++){
+			//The control loop sees the pose LATENCY ms late, and wakes up when it is within tolerance
+			double seen = positions[(int)(t % history)];
+			if(!stopped && (target - seen <= tolerance || t >= nextUpdate)){
+				if(target - seen <= tolerance){
+					stopped = true;
+					command = 0;
+				}
+				else{
+					command = (profile == null) ? constantSpeed : profile.next(target - tolerance - seen);
+					nextUpdate = t + PERIOD;
+				}
+			}
+			double step = WHEEL_MOTOR_ACCELERATION / 1000.0;
+			speed = (command > speed) ? Math.min(command, speed + step) : Math.max(command, speed - step);
+			position += speed / 1000.0;
+			positions[(int)((t + 1) % history)] = position;
+			if(stopped && speed == 0)
+				return new double[] {t, position - target};
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.MotorEvent;
+import dpm.util.MotorListener;
+import dpm.util.MotorMonitor;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Place the robot facing a wall, less than DISTANCE cm away. Travels DISTANCE cm
+ * forward without avoidance, so the robot runs into the wall, and shows the first
+ * fault the MotorMonitor told about and how long Navigation took to give up after it.
+ */
+public class TestMotorMonitor implements DPMConstants{
+
+	private static final double	DISTANCE = 3*SQUARE_SIZE;
+	private static final String[]	FAULTS = {"none", "stall", "slip"};
+
+	private static volatile MotorEvent first;
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		MotorMonitor.getInstance().addListener(new MotorListener(){
+			@Override
+			public void motorFault(MotorEvent event){
+				if(first == null)
+					first = event;
+			}
+		});
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		Repository.setPosition(new double[] {0, 0, 90.0}, new boolean[] {true, true, true});
+		boolean arrived = Repository.travelTo(0, DISTANCE, NO_AVOIDANCE);
+		long end = System.nanoTime();
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add(arrived ? "Arrived" : "Gave up");
+		if(first != null){
+			lines.add("Fault: " + FAULTS[first.getFault()] + " " + first.getMotor());
+			lines.add("Cmd: " + first.getCommandedSpeed());
+			lines.add("Meas: " + first.getMeasuredSpeed());
+			lines.add("Reacted: " + (end - first.getTime())/1000000 + " ms");
+		}
+		lines.add("Y: " + (int)Repository.getY());
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,52 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.navigation.LoopStats;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+public class TestNavigationLoad implements DPMConstants{
+
+	public static void main(String[] args){
+		
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+		
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+		Printer.getInstance().display("Running");
+		
+		//The same square, first with the control loops spinning on the pose, then waiting for the odometer
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("loops/busy%/Hz/jit");
+		for(int i=0; i<2; i++){
+			boolean polling = i == 0;
+			Repository.usePolling(polling);
+			Repository.setPosition(new double[] {0.0, 0.0, 90.0}, new boolean[] {true, true, true});
+			LoopStats stats = Repository.getNavigationStats();
+			stats.reset();
+			
+			Repository.travelTo(0, 60, NO_AVOIDANCE);
+			Repository.turnTo(0);
+			Repository.travelTo(60, 60, NO_AVOIDANCE);
+			Repository.turnTo(270);
+			Repository.travelTo(60, 0, NO_AVOIDANCE);
+			Repository.travelTo(0, 0, NO_AVOIDANCE);
+			Repository.turnTo(90);
+			
+			lines.add(String.format("%s %d/%d/%d/%.1f", polling ? "S" : "W", stats.getIterations(),
+					(int)(100*stats.getBusyFraction()), (int)Repository.getOdometerRate(), Repository.getOdometerJitter()));
+		}
+		Repository.usePolling(false);
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,66 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.DifferentialDrive;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Place the robot at the center of the starting square, facing north. Swings the ultrasonic
+ * sensor while the robot turns a full circle in place, then shows how far the occupancy grid
+ * is clear in each direction. The map around the robot is printed, a character per cell:
+ * '#' for occupied, '.' for free, and ' ' for unknown.
+ */
+public class TestOccupancyGrid implements DPMConstants{
+
+	private static final int	SPIN_SPEED = 60,
+								MAP_RADIUS = 100;			//Half the side of the printed map, in cm
+	private static final double	CELL = SQUARE_SIZE / 6;
+	private static final String[]	DIRECTIONS = {"East", "North", "West", "South"};
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		double x = SQUARE_SIZE/2, y = SQUARE_SIZE/2;
+		Repository.setPosition(new double[] {x, y, 90.0}, new boolean[] {true, true, true});
+		Repository.startSweep();
+		DifferentialDrive.getInstance().spin(SPIN_SPEED);
+		//Wait until the robot went past east, then back to north
+		while(Repository.getAng() < 300){
+			try {Thread.sleep(50);} catch (InterruptedException e) {}
+		}
+		while(Repository.getAng() > 180 || Repository.getAng() < 90){
+			try {Thread.sleep(50);} catch (InterruptedException e) {}
+		}
+		DifferentialDrive.getInstance().stop(false);
+		Repository.stopSweep();
+
+		for(double row = y + MAP_RADIUS; row >= y - MAP_RADIUS; row -= CELL){
+			StringBuilder line = new StringBuilder();
+			for(double col = x - MAP_RADIUS; col <= x + MAP_RADIUS; col += CELL){
+				double occupancy = Repository.getOccupancy(col, row);
+				line.append(occupancy > 0.73 ? '#' : occupancy < 0.27 ? '.' : ' ');
+			}
+			System.out.println(line);
+		}
+
+		ArrayList<String> lines = new ArrayList<String>();
+		for(int i=0; i<DIRECTIONS.length; i++)
+			lines.add(DIRECTIONS[i] + ": " + (int)Repository.getClearance(x, y, 90*i, 255));
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,82 @@
+package dpm.launcher;
+
+import dpm.odometry.Odometer;
+
+/**
+ * Runs the Odometer with its own engine, first alone, then with READERS threads reading its
+ * position as fast as they can. Meanwhile, a corrector shifts the pose every CORRECTION_PERIOD ms,
+ * as the line and wall corrections do. Prints the reads per second, the engine's update rate and
+ * jitter, and how long the corrections took, to show whether readers hold back the writers.
+ */
+public class TestOdometerContention {
+
+	private static final int	READERS = 3,
+								CORRECTION_PERIOD = 20;
+	private static final long	RUN_TIME = 5000l;
+
+	public static void main(String[] args){
+		run("no readers", 0);
+		run(READERS + " readers", READERS);
+		System.exit(0);
+	}
+
+	private static void run(String name, int readerCount){
+		final Odometer odometer = new Odometer();
+		final boolean[] running = {true};
+		final long[] reads = new long[readerCount];
+		final long[] correctorStats = new long[3];		//corrections, total ns, worst ns
+
+		Thread corrector = new Thread(){
+			public void run(){
+				while(running[0]){
+					long start = System.nanoTime();
+					odometer.shiftPosition(0.0, 0.0, 0.0);
+					long elapsed = System.nanoTime() - start;
+					correctorStats[0]++;
+					correctorStats[1] += elapsed;
+					correctorStats[2] = Math.max(correctorStats[2], elapsed);
+					try {Thread.sleep(CORRECTION_PERIOD);} catch (InterruptedException e) {}
+				}
+			}
+		};
+
+		Thread[] readers = new Thread[readerCount];
+		for(int i=0; i<readerCount; i++){
+			final int id = i;
+			readers[i] = new Thread(){
+				public void run(){
+					double[] position = new double[3];
+					double sink = 0;
+					while(running[0]){
+						odometer.getPosition(position);
+						sink += position[0] + position[1] + position[2] + odometer.getX();
+						reads[id]++;
+					}
+					if(sink == 42)
+						System.out.print("");
+				}
+			};
+		}
+
+		corrector.start();
+		for(Thread reader : readers)
+			reader.start();
+		try {Thread.sleep(RUN_TIME);} catch (InterruptedException e) {}
+		//Read before stopping, while the readers still compete with the engine
+		double rate = odometer.getUpdateRate(), jitter = odometer.getUpdateJitter();
+		running[0] = false;
+		try {
+			corrector.join();
+			for(Thread reader : readers)
+				reader.join();
+		} catch (InterruptedException e) {}
+		odometer.stop();
+
+		long totalReads = 0;
+		for(long r : reads)
+			totalReads += r;
+		System.out.printf("%s: %d reads/s, engine %.1f Hz, jitter %.2f ms, correction avg %d us, worst %d us\n", name,
+				totalReads*1000/RUN_TIME, rate, jitter,
+				correctorStats[1]/Math.max(1, correctorStats[0])/1000, correctorStats[2]/1000);
+	}
+}
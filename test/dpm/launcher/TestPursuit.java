@@ -0,0 +1,51 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Travels through the WAYPOINTS, given in squares from the starting square's center,
+ * first pivoting towards each one, then steering towards it along arcs. Shows the time
+ * each way took and how far from the last waypoint the robot ended.
+ */
+public class TestPursuit implements DPMConstants{
+
+	private static final double[][]	WAYPOINTS = {{0.5, 2}, {2, 2.5}, {2.5, 0.5}, {0, 0}};
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		ArrayList<String> lines = new ArrayList<String>();
+		for(int i=0; i<2; i++){
+			boolean steered = i == 1;
+			Repository.useMotionProfiles(steered);
+			Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+			long start = System.currentTimeMillis();
+			for(double[] waypoint : WAYPOINTS)
+				Repository.travelTo((waypoint[0] + 0.5)*SQUARE_SIZE, (waypoint[1] + 0.5)*SQUARE_SIZE, NO_AVOIDANCE);
+			long time = System.currentTimeMillis() - start;
+			double[] last = WAYPOINTS[WAYPOINTS.length - 1];
+			double error = Math.hypot(Repository.getX() - (last[0] + 0.5)*SQUARE_SIZE, Repository.getY() - (last[1] + 0.5)*SQUARE_SIZE);
+			lines.add((steered ? "Steered: " : "Pivoted: ") + time + " ms");
+			lines.add("Error: " + String.format("%.1f", error) + " cm");
+			Printer.getInstance().display("Press any button");
+			Button.waitForAnyPress();
+		}
+		Printer.getInstance().display(lines);
+	}
+}
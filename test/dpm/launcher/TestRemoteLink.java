@@ -0,0 +1,156 @@
+package dpm.launcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import dpm.util.MotorScript;
+import dpm.util.RemoteLink;
+import dpm.util.Sensors;
+import dpm.util.SlaveServer;
+import lejos.robotics.RegulatedMotor;
+import lejos.robotics.SampleProvider;
+
+/**
+ * Runs a SlaveServer on this brick, on the sensor motor's port and the ultrasonic
+ * sensor's port, and reaches it through a local proxy that delays everything by
+ * LATENCY ms each way, like the wifi link between the bricks.
+ * Compares one round trip per command with queued, pipelined and scripted commands.
+ */
+public class TestRemoteLink {
+
+	private static final int	SERVER_PORT = SlaveServer.PORT,
+								PROXY_PORT = SlaveServer.PORT + 1,
+								LATENCY = 10,				//One way, in ms
+								COMMANDS = 50;
+
+	public static void main(String[] args) throws IOException{
+		SlaveServer server = new SlaveServer(SERVER_PORT, SlaveServer.LOCAL_DEVICES);
+		server.start();
+		new LatencyProxy(PROXY_PORT, SERVER_PORT, LATENCY).start();
+
+		RemoteLink link = new RemoteLink("localhost", PROXY_PORT);
+		RegulatedMotor motor = link.createRegulatedMotor("B", 'L');
+		SampleProvider sensor = link.createSampleProvider("S1", Sensors.US_DISTANCE);
+		float[] sample = new float[sensor.sampleSize()];
+
+		int batches = link.getBatches();
+		long start = System.nanoTime();
+		for(int i=0; i<COMMANDS; i++)
+			motor.getTachoCount();
+		report("getTachoCount, one round trip each", link, start, batches);
+
+		batches = link.getBatches();
+		start = System.nanoTime();
+		for(int i=0; i<COMMANDS; i++){
+			motor.setSpeed(100 + i);
+			motor.forward();
+		}
+		motor.stop();
+		report("setSpeed+forward, queued", link, start, batches);
+
+		sensor.fetchSample(sample, 0);
+		batches = link.getBatches();
+		start = System.nanoTime();
+		for(int i=0; i<COMMANDS; i++){
+			sensor.fetchSample(sample, 0);
+			try{Thread.sleep(2);}catch(InterruptedException e){}
+		}
+		report("fetchSample every 2 ms, pipelined", link, start, batches);
+
+		batches = link.getBatches();
+		start = System.nanoTime();
+		motor.rotate(90);
+		motor.rotate(-90);
+		motor.rotate(45);
+		motor.rotate(-45);
+		report("claw sequence, one call per step", link, start, batches);
+
+		batches = link.getBatches();
+		start = System.nanoTime();
+		new MotorScript().rotate(motor, 90)
+						.rotate(motor, -90)
+						.rotate(motor, 45)
+						.rotate(motor, -45)
+						.run();
+		report("claw sequence, one script", link, start, batches);
+
+		//A command that fails on the slave is answered, and the link keeps working
+		System.out.printf("%-36s %s, then getTachoCount %d\n", "sensor of an unknown type",
+				(link.createSampleProvider("S2", -1) == null) ? "refused" : "OPENED", motor.getTachoCount());
+
+		link.close();
+		server.close();
+	}
+
+	private static void report(String name, RemoteLink link, long start, int batches){
+		System.out.printf("%-36s %6d ms, %3d round trips\n", name, (System.nanoTime() - start)/1000000, link.getBatches() - batches);
+	}
+
+	/*
+	 * Forwards a connection to the server, delaying each chunk of data by the latency
+	 */
+	private static class LatencyProxy extends Thread{
+
+		private final ServerSocket proxy;
+		private final int serverPort, latency;
+
+		private LatencyProxy(int port, int serverPort, int latency) throws IOException{
+			this.proxy = new ServerSocket(port);
+			this.serverPort = serverPort;
+			this.latency = latency;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run(){
+			try{
+				Socket client = proxy.accept();
+				Socket server = new Socket("localhost", serverPort);
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				pipe(client.getInputStream(), server.getOutputStream());
+				pipe(server.getInputStream(), client.getOutputStream());
+			} catch(IOException e){
+			}
+		}
+
+		private void pipe(final InputStream in, final OutputStream out){
+			final LinkedBlockingQueue<Object[]> chunks = new LinkedBlockingQueue<Object[]>();
+			Thread reader = new Thread(){
+				public void run(){
+					byte[] buffer = new byte[4096];
+					try{
+						int read;
+						while((read = in.read(buffer)) > 0)
+							chunks.add(new Object[]{System.nanoTime() + latency*1000000l, Arrays.copyOf(buffer, read)});
+					} catch(IOException e){
+					}
+				}
+			};
+			Thread writer = new Thread(){
+				public void run(){
+					try{
+						while(true){
+							Object[] chunk = chunks.take();
+							long wait = (Long)chunk[0] - System.nanoTime();
+							if(wait > 0)
+								Thread.sleep(wait / 1000000l, (int)(wait % 1000000l));
+							out.write((byte[])chunk[1]);
+							out.flush();
+						}
+					} catch(IOException | InterruptedException e){
+					}
+				}
+			};
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+		}
+	}
+}
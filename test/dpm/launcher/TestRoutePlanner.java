@@ -0,0 +1,138 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import dpm.navigation.OccupancyGrid;
+import dpm.navigation.RoutePlanner;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Place the robot at the center of the starting square, facing north, and an obstacle on the
+ * line DISTANCE cm ahead. Travels there with AVOID_PLANNED, and shows whether the robot arrived,
+ * how long it took, and where it stopped.
+ * <br>With "sim", a simulated robot crosses a field where BLOCKS wooden blocks are already mapped,
+ * an obstacle is dropped in front of it as it drives along its route, and the number of cells
+ * searched by the repaired plan is compared with that of a new plan made from scratch on the same map.
+ * Every repaired plan must find a route as short as the new plan's. The same is then checked on
+ * MAPS random maps, where obstacles appear between plans made from random starts.
+ */
+public class TestRoutePlanner implements DPMConstants{
+
+	private static final double	DISTANCE = 4*SQUARE_SIZE,
+								STEP = 10,						//How far the simulated robot drives between two plans, in cm
+								SEEN_AT = 40,					//How far ahead of the simulated robot the obstacle appears, in cm
+								OBSTACLE = 10,					//Radius of the simulated obstacle, in cm
+								BLOCK = 8;						//Radius of a wooden block, in cm
+	private static final int		BLOCKS = 15,
+									MAPS = 300,
+									REPLANS = 15;
+
+	public static void main(String[] args){
+		if(args.length > 0 && args[0].equals("sim")){
+			simulate();
+			compare();
+			return;
+		}
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+		long start = System.currentTimeMillis();
+		boolean arrived = Repository.travelTo(SQUARE_SIZE/2, SQUARE_SIZE/2 + DISTANCE, AVOID_PLANNED);
+		long time = System.currentTimeMillis() - start;
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add(arrived ? "Arrived" : "Gave up");
+		lines.add("Time: " + time + " ms");
+		lines.add("X: " + (int)Repository.getX());
+		lines.add("Y: " + (int)Repository.getY());
+		Printer.getInstance().display(lines);
+	}
+
+	/*
+	 * Prints the cells searched by each plan of a simulated robot crossing the field diagonally,
+	 * which finds an obstacle on its route halfway
+	 */
+	private static void simulate(){
+		OccupancyGrid grid = new OccupancyGrid(OccupancyGrid.DEFAULT_CELL_SIZE);
+		Random random = new Random(1);
+		for(int i=0; i<BLOCKS; i++)
+			grid.mark((1 + 8*random.nextDouble())*SQUARE_SIZE, (1 + 8*random.nextDouble())*SQUARE_SIZE, BLOCK);
+		RoutePlanner planner = new RoutePlanner(grid, RoutePlanner.DEFAULT_CELL_SIZE, RoutePlanner.DEFAULT_CLEARANCE);
+		double x = SQUARE_SIZE/2, y = SQUARE_SIZE/2, goalX = 9.5*SQUARE_SIZE, goalY = 9.5*SQUARE_SIZE;
+		boolean seen = false;
+		while(Math.hypot(goalX - x, goalY - y) > STEP){
+			double[][] route = planner.plan(x, y, goalX, goalY);
+			if(route == null){
+				System.out.println("no route");
+				return;
+			}
+			String line = String.format("(%.0f,%.0f) searched %d", x, y, planner.getExpanded());
+			if(!sameCost(planner, grid, x, y, goalX, goalY))
+				line += " COST DIFFERS";
+			double dx = route[0][0] - x, dy = route[0][1] - y, length = Math.hypot(dx, dy);
+			if(!seen && x > 4*SQUARE_SIZE){
+				grid.mark(x + SEEN_AT * dx / length, y + SEEN_AT * dy / length, OBSTACLE);
+				seen = true;
+				RoutePlanner fresh = new RoutePlanner(grid, RoutePlanner.DEFAULT_CELL_SIZE, RoutePlanner.DEFAULT_CLEARANCE);
+				route = planner.plan(x, y, goalX, goalY);
+				fresh.plan(x, y, goalX, goalY);
+				line += String.format(", obstacle: repaired %d, new %d", planner.getExpanded(), fresh.getExpanded());
+				if(planner.getCost() != fresh.getCost())
+					line += " COST DIFFERS";
+				dx = route[0][0] - x;
+				dy = route[0][1] - y;
+				length = Math.hypot(dx, dy);
+			}
+			System.out.println(line);
+			x += STEP * dx / length;
+			y += STEP * dy / length;
+		}
+	}
+
+	/*
+	 * Repairs plans on random maps, from random starts, as random obstacles are added, and prints how
+	 * many repaired plans did not find a route as short as a new plan's
+	 */
+	private static void compare(){
+		int differ = 0;
+		for(int map=0; map<MAPS; map++){
+			Random random = new Random(map);
+			OccupancyGrid grid = new OccupancyGrid(OccupancyGrid.DEFAULT_CELL_SIZE);
+			RoutePlanner planner = new RoutePlanner(grid, RoutePlanner.DEFAULT_CELL_SIZE, RoutePlanner.DEFAULT_CLEARANCE);
+			double goalX = 10*SQUARE_SIZE*random.nextDouble(), goalY = 10*SQUARE_SIZE*random.nextDouble();
+			for(int i=0; i<REPLANS; i++){
+				for(int j=0; j<3; j++)
+					grid.mark(11*SQUARE_SIZE*random.nextDouble() - SQUARE_SIZE, 11*SQUARE_SIZE*random.nextDouble() - SQUARE_SIZE, 5 + 10*random.nextDouble());
+				double x = 11*SQUARE_SIZE*random.nextDouble() - SQUARE_SIZE, y = 11*SQUARE_SIZE*random.nextDouble() - SQUARE_SIZE;
+				planner.plan(x, y, goalX, goalY);
+				if(!sameCost(planner, grid, x, y, goalX, goalY))
+					differ++;
+			}
+		}
+		System.out.println(differ + " of " + MAPS*REPLANS + " repaired plans differ from new plans");
+	}
+
+	/*
+	 * Returns true if the latest plan of a planner found a route as short as a new plan on the same map
+	 */
+	private static boolean sameCost(RoutePlanner planner, OccupancyGrid grid, double x, double y, double goalX, double goalY){
+		RoutePlanner fresh = new RoutePlanner(grid, RoutePlanner.DEFAULT_CELL_SIZE, RoutePlanner.DEFAULT_CLEARANCE);
+		fresh.plan(x, y, goalX, goalY);
+		return planner.getCost() == fresh.getCost();
+	}
+}
@@ -0,0 +1,79 @@
+package dpm.launcher;
+
+import dpm.util.DPMConstants;
+import dpm.util.SensorChannel;
+import dpm.util.SensorHub;
+import dpm.util.Sensors;
+import lejos.robotics.SampleProvider;
+
+public class TestSensorHub implements DPMConstants{
+
+	private static final int	READERS = 3;
+	private static final long	RUN_TIME = 5000l;
+
+	public static void main(String[] args){
+		final SampleProvider sensor = Sensors.getSensor(US_ACTIVE);
+		run("direct fetchSample", new Reader() {
+			public void read(float[] sample) {
+				sensor.fetchSample(sample, 0);
+			}
+		});
+
+		final SensorChannel channel = SensorHub.getChannel(US_ACTIVE);
+		int before = channel.getCount();
+		run("hub latest value", new Reader() {
+			public void read(float[] sample) {
+				channel.read(sample);
+			}
+		});
+		System.out.printf("hub: %d hardware samples/s\n", (channel.getCount() - before)*1000/RUN_TIME);
+
+		run("hub next value", new Reader() {
+			public void read(float[] sample) {
+				channel.awaitNext(sample, US_TIMEOUT);
+			}
+		});
+	}
+
+	private static void run(String name, final Reader source){
+		final boolean[] running = {true};
+		final long[] reads = new long[READERS];
+		final long[] worst = new long[READERS];
+
+		Thread[] readers = new Thread[READERS];
+		for(int i=0; i<READERS; i++){
+			final int id = i;
+			readers[i] = new Thread(){
+				public void run(){
+					float[] sample = new float[1];
+					while(running[0]){
+						long start = System.nanoTime();
+						source.read(sample);
+						worst[id] = Math.max(worst[id], System.nanoTime() - start);
+						reads[id]++;
+					}
+				}
+			};
+		}
+
+		for(Thread reader : readers)
+			reader.start();
+		try {Thread.sleep(RUN_TIME);} catch (InterruptedException e) {}
+		running[0] = false;
+		try {
+			for(Thread reader : readers)
+				reader.join();
+		} catch (InterruptedException e) {}
+
+		long totalReads = 0, worstRead = 0;
+		for(int i=0; i<READERS; i++){
+			totalReads += reads[i];
+			worstRead = Math.max(worstRead, worst[i]);
+		}
+		System.out.printf("%s: %d reads/s, worst read %d us\n", name, totalReads*1000/RUN_TIME, worstRead/1000);
+	}
+
+	private interface Reader{
+		void read(float[] sample);
+	}
+}
@@ -0,0 +1,56 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.navigation.PolarScan;
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Swings the ultrasonic sensor for DURATION ms while the robot stands still, and shows
+ * how many scans were published, how many readings each held, how long each took, and
+ * the shortest range to the left, ahead and to the right in the latest one.
+ */
+public class TestSweep implements DPMConstants{
+
+	private static final int	DURATION = 10000,
+								CONE = 15;
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		Repository.startSweep();
+		long start = System.currentTimeMillis();
+		PolarScan scan = Repository.getScan(), first = scan;
+		int scans = 1, readings = scan.size();
+		while(System.currentTimeMillis() - start < DURATION){
+			scan = Repository.awaitScan(scan);
+			scans++;
+			readings += scan.size();
+		}
+		long period = (scan.getTime() - first.getTime()) / 1000000 / Math.max(1, scans - 1);
+		Repository.stopSweep();
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("Scans: " + scans);
+		lines.add("Readings: " + readings/scans);
+		lines.add("Period: " + period + " ms");
+		lines.add("Left: " + (int)scan.minRange(-60-CONE, -60+CONE));
+		lines.add("Ahead: " + (int)scan.minRange(-CONE, CONE));
+		lines.add("Right: " + (int)scan.minRange(60-CONE, 60+CONE));
+		Printer.getInstance().display(lines);
+	}
+}
@@ -0,0 +1,65 @@
+package dpm.launcher;
+
+import java.util.ArrayList;
+
+import dpm.repository.Repository;
+import dpm.util.DPMConstants;
+import dpm.util.Printer;
+import dpm.util.RemoteBrickManager;
+import lejos.hardware.Button;
+
+/**
+ * Travels around the WAYPOINTS, given in squares from the starting square's center, and
+ * back to face north, first with one travelTo per waypoint, then with one travelPath.
+ * Shows the time each way took. While the path is followed, its progress is shown.
+ */
+public class TestTravelPath implements DPMConstants{
+
+	private static final double[][]	WAYPOINTS = {{0, 2}, {2, 2}, {2, 0}, {0, 0}};
+
+	public static void main(String[] args){
+
+		(new Thread() {
+			public void run() {
+				while (Button.waitForAnyPress() != Button.ID_ESCAPE){}
+				RemoteBrickManager.closeSlave();
+				System.exit(0);
+			}
+		}).start();
+
+		Printer.getInstance().display("Press any button");
+		Button.waitForAnyPress();
+
+		double[][] path = new double[WAYPOINTS.length][];
+		for(int i=0; i<path.length; i++)
+			path[i] = new double[] {(WAYPOINTS[i][0] + 0.5)*SQUARE_SIZE, (WAYPOINTS[i][1] + 0.5)*SQUARE_SIZE};
+
+		Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+		long start = System.currentTimeMillis();
+		for(double[] waypoint : path)
+			Repository.travelTo(waypoint[0], waypoint[1], NO_AVOIDANCE);
+		Repository.turnTo(90.0);
+		long legs = System.currentTimeMillis() - start;
+
+		Thread progress = new Thread(){
+			public void run(){
+				while(true){
+					Printer.getInstance().display("Progress: " + String.format("%.2f", Repository.getPathProgress()));
+					try {Thread.sleep(200);} catch (InterruptedException e) {return;}
+				}
+			}
+		};
+		Repository.setPosition(new double[] {SQUARE_SIZE/2, SQUARE_SIZE/2, 90.0}, new boolean[] {true, true, true});
+		start = System.currentTimeMillis();
+		progress.start();
+		Repository.travelPath(path, 90.0, NO_AVOIDANCE);
+		long blended = System.currentTimeMillis() - start;
+		progress.interrupt();
+		try {progress.join();} catch (InterruptedException e) {}
+
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add("Legs: " + legs + " ms");
+		lines.add("Path: " + blended + " ms");
+		Printer.getInstance().display(lines);
+	}
+}